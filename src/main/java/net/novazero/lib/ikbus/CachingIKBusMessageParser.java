@@ -0,0 +1,215 @@
+package net.novazero.lib.ikbus;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import net.novazero.lib.ikbus.util.ByteString;
+
+/**
+ * I/K-bus message parser that remembers the results of its delegate parser. Most I/K-bus traffic is periodic and repeats byte for byte,
+ * for example status broadcasts and keep-alive messages. When a packet is parsed whose source, destination and data are equal to those of a
+ * packet that was parsed recently, the message that was parsed before is returned without invoking the delegate parser. This includes
+ * packets that were not recognized by the delegate parser, for which {@code null} is returned again. Errors are not remembered: a packet
+ * for which the delegate parser threw an exception is parsed again the next time it is encountered.
+ *
+ * <b>Since the same message instance is returned for every equal packet, the cached messages must be immutable.</b> A caller that
+ * modifies a returned message would otherwise change the result of every later packet with the same contents. Messages for which this is
+ * not the case have to be excluded from caching by means of a predicate, see
+ * {@link #CachingIKBusMessageParser(IKBusMessageParser, int, Predicate)}. On a cache miss the packet is detached before it is passed to
+ * the delegate parser, so cached messages never refer to a buffer that is reused for subsequent packets. The number of cached results is
+ * bounded: when the cache is full, the least recently used result is evicted. The number of cache hits and misses can be obtained in
+ * order to tune the size of the cache.
+ *
+ * Instances of this class are thread-safe if the delegate parser is thread-safe.
+ *
+ * @author  Daan Scheerens
+ */
+public class CachingIKBusMessageParser implements IKBusMessageParser {
+	
+	/** The default maximum number of cached results. */
+	public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+	
+	/** Marker that is cached for packets that were not recognized by the delegate parser. */
+	private static final Object UNRECOGNIZED = new Object();
+	
+	/** The delegate parser which is used for parsing messages. */
+	protected final IKBusMessageParser parser;
+	
+	/** Predicate that determines whether a parsed message may be cached. */
+	private final Predicate<? super IKBusMessage> cacheable;
+	
+	/** The cached results, in order of access. Guarded by its own monitor. */
+	private final Map<PacketKey, Object> cache;
+	
+	/** Number of packets for which the result was found in the cache. Guarded by the monitor of the cache. */
+	private long hitCount = 0;
+	
+	/** Number of packets for which the result was not found in the cache. Guarded by the monitor of the cache. */
+	private long missCount = 0;
+	
+	/**
+	 * Creates a new caching parser for the specified delegate parser, which caches all results up to the default maximum size.
+	 *
+	 * <b>All messages produced by the delegate parser are cached, so this constructor should only be used if the delegate parser produces
+	 * immutable messages.</b> Otherwise use {@link #CachingIKBusMessageParser(IKBusMessageParser, int, Predicate)} with a predicate that
+	 * only accepts the immutable messages.
+	 *
+	 * @param  parser  The delegate parser which is used for parsing messages.
+	 */
+	public CachingIKBusMessageParser(IKBusMessageParser parser) {
+		this(parser, DEFAULT_MAXIMUM_SIZE, message -> true);
+	}
+	
+	/**
+	 * Creates a new caching parser for the specified delegate parser.
+	 *
+	 * @param   parser                    The delegate parser which is used for parsing messages.
+	 * @param   maximumSize               Maximum number of cached results.
+	 * @param   cacheable                 Predicate that determines whether a parsed message may be cached. Results of packets that were not
+	 *                                    recognized are always cached.
+	 * @throws  IllegalArgumentException  If the maximum size is less than 1.
+	 */
+	public CachingIKBusMessageParser(IKBusMessageParser parser, final int maximumSize, Predicate<? super IKBusMessage> cacheable) {
+		if (maximumSize < 1) {
+			throw new IllegalArgumentException("Maximum size should be at least 1, but was " + maximumSize);
+		}
+		this.parser = parser;
+		this.cacheable = cacheable;
+		this.cache = new LinkedHashMap<PacketKey, Object>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<PacketKey, Object> eldest) {
+				return size() > maximumSize;
+			}
+		};
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IKBusMessage parseMessage(IKBusPacket packet) throws IKBusMessageParseException {
+		PacketKey key = new PacketKey(packet.getSource(), packet.getDestination(), packet.getData());
+		synchronized (cache) {
+			Object result = cache.get(key);
+			if (result != null) {
+				hitCount++;
+				return result == UNRECOGNIZED ? null : (IKBusMessage) result;
+			}
+			missCount++;
+		}
+		
+		// Detach the packet, which may be a view on a buffer that is reused, so neither the key nor the message refers to that buffer.
+		IKBusPacket detached = packet.detach();
+		IKBusMessage message = parser.parseMessage(detached);
+		if (message == null || cacheable.test(message)) {
+			PacketKey detachedKey = new PacketKey(detached.getSource(), detached.getDestination(), detached.getData());
+			synchronized (cache) {
+				cache.put(detachedKey, message == null ? UNRECOGNIZED : message);
+			}
+		}
+		return message;
+	}
+	
+	/**
+	 * Retrieves the number of packets for which the result was found in the cache.
+	 *
+	 * @return  The number of cache hits.
+	 */
+	public long getHitCount() {
+		synchronized (cache) {
+			return hitCount;
+		}
+	}
+	
+	/**
+	 * Retrieves the number of packets for which the result was not found in the cache, and which were therefore parsed by the delegate
+	 * parser.
+	 *
+	 * @return  The number of cache misses.
+	 */
+	public long getMissCount() {
+		synchronized (cache) {
+			return missCount;
+		}
+	}
+	
+	/**
+	 * Retrieves the number of results that are currently cached.
+	 *
+	 * @return  The number of cached results.
+	 */
+	public int getSize() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+	
+	/**
+	 * Removes all cached results. The hit and miss counters are not reset.
+	 */
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * Key of a cached result, which consists of the source, destination and data of the parsed packet.
+	 */
+	private static final class PacketKey {
+		
+		/** Source of the packet. */
+		private final byte source;
+		
+		/** Destination of the packet. */
+		private final byte destination;
+		
+		/** Data of the packet. */
+		private final ByteString data;
+		
+		/** Hash code of the key, which is computed once since it is needed for every lookup. */
+		private final int hash;
+		
+		/**
+		 * Creates a new {@link PacketKey} instance.
+		 *
+		 * @param  source       Source of the packet.
+		 * @param  destination  Destination of the packet.
+		 * @param  data         Data of the packet.
+		 */
+		public PacketKey(byte source, byte destination, ByteString data) {
+			this.source = source;
+			this.destination = destination;
+			this.data = data;
+			this.hash = (31 * (31 * source + destination)) + data.contentHashCode();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean equals(Object object) {
+			if (this == object) {
+				return true;
+			}
+			if (!(object instanceof PacketKey)) {
+				return false;
+			}
+			PacketKey other = (PacketKey) object;
+			return hash == other.hash && source == other.source && destination == other.destination && data.contentEquals(other.data);
+		}
+	
+	}
+
+}
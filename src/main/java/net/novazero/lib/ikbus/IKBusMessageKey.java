@@ -0,0 +1,95 @@
+package net.novazero.lib.ikbus;
+
+/**
+ * Describes the packets that a message parser is able to parse, by means of their source, destination and command identifier (the first
+ * data byte of the packet). Each of these properties is optional: a property that is not specified matches any value. Keys are used by the
+ * {@link IndexedCompoundIKBusMessageParser} to select the parsers that are tried for a packet.
+ *
+ * @author  Daan Scheerens
+ */
+public final class IKBusMessageKey {
+	
+	/** Key that matches any packet. */
+	public static final IKBusMessageKey ANY = new IKBusMessageKey(null, null, null);
+	
+	/** The source of the matching packets, or {@code null} if any source matches. */
+	private final Byte source;
+	
+	/** The destination of the matching packets, or {@code null} if any destination matches. */
+	private final Byte destination;
+	
+	/** The first data byte of the matching packets, or {@code null} if any data matches. */
+	private final Byte command;
+	
+	/**
+	 * Creates a new key that matches the packets with the specified properties.
+	 * 
+	 * @param  source       The source of the matching packets, or {@code null} if any source matches.
+	 * @param  destination  The destination of the matching packets, or {@code null} if any destination matches.
+	 * @param  command      The first data byte of the matching packets, or {@code null} if any data matches. Note that packets without
+	 *                      data only match a key which does not specify a command.
+	 */
+	public IKBusMessageKey(Byte source, Byte destination, Byte command) {
+		this.source = source;
+		this.destination = destination;
+		this.command = command;
+	}
+	
+	/**
+	 * Retrieves the source of the matching packets.
+	 * 
+	 * @return  The source of the matching packets, or {@code null} if any source matches.
+	 */
+	public Byte getSource() {
+		return source;
+	}
+	
+	/**
+	 * Retrieves the destination of the matching packets.
+	 * 
+	 * @return  The destination of the matching packets, or {@code null} if any destination matches.
+	 */
+	public Byte getDestination() {
+		return destination;
+	}
+	
+	/**
+	 * Retrieves the first data byte of the matching packets.
+	 * 
+	 * @return  The first data byte of the matching packets, or {@code null} if any data matches.
+	 */
+	public Byte getCommand() {
+		return command;
+	}
+	
+	/**
+	 * Checks whether the specified packet matches the key.
+	 * 
+	 * @param   packet  The packet which is to be checked.
+	 * @return          {@code true} if the packet matches the key, {@code false} if not.
+	 */
+	public boolean matches(IKBusPacket packet) {
+		return (source == null || source == packet.getSource())
+			&& (destination == null || destination == packet.getDestination())
+			&& (command == null || (packet.getData().length() > 0 && command == packet.getData().get(0)));
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "[source=" + format(source) + ", destination=" + format(destination) + ", command=" + format(command) + "]";
+	}
+	
+	/**
+	 * Formats an optional property of the key.
+	 * 
+	 * @param   value  The value of the property, or {@code null} if any value matches.
+	 * @return         The hexadecimal notation of the value, or {@code *} if any value matches.
+	 */
+	private static String format(Byte value) {
+		return value == null ? "*" : IKBusUtils.byteToHex(value);
+	}
+	
+}
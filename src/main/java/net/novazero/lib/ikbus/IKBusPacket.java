@@ -1,6 +1,10 @@
 package net.novazero.lib.ikbus;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 import net.novazero.lib.ikbus.util.ByteArrayByteString;
+import net.novazero.lib.ikbus.util.ByteArraySliceByteString;
 import net.novazero.lib.ikbus.util.ByteString;
 
 /**
@@ -21,6 +25,13 @@ public class IKBusPacket {
 	/** The packet contents. */
 	private final ByteString data;
 	
+	/**
+	 * The raw packet, which is cached once it has been encoded if the packet contents cannot change (i.e. when they are stored in a
+	 * {@link ByteArrayByteString}), or the frame from which the packet was created by {@link #wrapFrame(byte[])}. Never exposed directly,
+	 * since arrays are mutable.
+	 */
+	private volatile byte[] raw = null;
+	
 	/**
 	 * Creates a new I/K-bus packet with the specified source, destination and data.
 	 * 
@@ -72,6 +83,26 @@ public class IKBusPacket {
 		return data;
 	}
 	
+	/**
+	 * Returns a packet with the same contents whose data does not depend on any externally owned storage. This is only needed for packets
+	 * which were created using {@link #wrap(byte[], int, int)} and which are retained after the array they wrap is reused. For other
+	 * packets this method simply returns the packet itself.
+	 * 
+	 * @return  A packet with the same contents that can be retained safely.
+	 */
+	public IKBusPacket detach() {
+		ByteString detachedData = data.detach();
+		return detachedData == data ? this : new IKBusPacket(source, destination, detachedData);
+	}
+	
+	/**
+	 * Retrieves the length of the raw format of the I/K-bus packet, which includes the source, length, destination and checksum bytes.
+	 * 
+	 * @return  The number of bytes of the raw packet.
+	 */
+	public int getRawLength() {
+		return data.length() + 4;
+	}
 	
 	/**
 	 * Converts the I/K-bus packet to its raw format that represents the packet as it would have been transmitted on the I/K-bus.
@@ -79,24 +110,88 @@ public class IKBusPacket {
 	 * @return  An array that represents the raw packet.
 	 */
 	public byte[] toRaw() {
-		// Create packet array.
-		byte[] packet = new byte[data.length() + 4];
+		byte[] packet = raw;
+		if (packet != null) {
+			return packet.clone();
+		}
 		
-		// Set source, packet length, destination and data.
-		packet[0] = source;
-		packet[1] = (byte) (data.length() + 2);
-		packet[2] = destination;
-		data.copyTo(0, packet, 3, data.length());
+		packet = new byte[getRawLength()];
+		encode(packet, 0);
+		if (data instanceof ByteArrayByteString) {
+			raw = packet.clone();
+		}
+		return packet;
+	}
+	
+	/**
+	 * Writes the raw format of the I/K-bus packet into the specified array, starting at the specified offset.
+	 * 
+	 * @param   destination                The array into which the raw packet is written.
+	 * @param   offset                     Index in the array at which the first byte of the raw packet is written.
+	 * @return                             The number of bytes that were written (see {@link #getRawLength()}).
+	 * @throws  IndexOutOfBoundsException  If the raw packet does not fit in the array at the specified offset. Nothing is written in that
+	 *                                     case.
+	 */
+	public int writeTo(byte[] destination, int offset) {
+		int length = getRawLength();
+		if (offset < 0 || offset > destination.length - length) {
+			throw new IndexOutOfBoundsException(
+				"Packet of " + length + " bytes does not fit at offset " + offset + " of an array of length " + destination.length);
+		}
 		
-		// Compute & set checksum.
-		byte checksum = 0;
-		for (int index = 0; index < packet.length - 1; index++) {
-			checksum = (byte) (checksum ^ packet[index]);
+		byte[] packet = raw;
+		if (packet != null) {
+			System.arraycopy(packet, 0, destination, offset, length);
+		} else {
+			encode(destination, offset);
+		}
+		return length;
+	}
+	
+	/**
+	 * Writes the raw format of the I/K-bus packet into the specified buffer, at its current position. The position of the buffer is
+	 * advanced by the number of bytes that were written.
+	 * 
+	 * @param   destination              The buffer into which the raw packet is written.
+	 * @return                           The number of bytes that were written (see {@link #getRawLength()}).
+	 * @throws  BufferOverflowException  If the remaining space in the buffer is not large enough for the raw packet. Nothing is written in
+	 *                                   that case.
+	 */
+	public int writeTo(ByteBuffer destination) {
+		int length = getRawLength();
+		if (destination.remaining() < length) {
+			throw new BufferOverflowException();
 		}
-		packet[packet.length - 1] = checksum;
 		
-		// Return the packet.
-		return packet;
+		byte[] packet = raw;
+		if (packet != null) {
+			destination.put(packet);
+		} else if (destination.hasArray()) {
+			encode(destination.array(), destination.arrayOffset() + destination.position());
+			destination.position(destination.position() + length);
+		} else {
+			destination.put(toRaw());
+		}
+		return length;
+	}
+	
+	/**
+	 * Encodes the raw packet into the specified array. The data is copied in bulk, after which the checksum is computed over the bytes that
+	 * were written, while they are still in the CPU cache.
+	 * 
+	 * @param  destination  The array into which the raw packet is written. Should have enough room at the specified offset.
+	 * @param  offset       Index in the array at which the first byte of the raw packet is written.
+	 */
+	private void encode(byte[] destination, int offset) {
+		// Set source, packet length, destination and data.
+		int dataLength = data.length();
+		destination[offset] = source;
+		destination[offset + 1] = (byte) (dataLength + 2);
+		destination[offset + 2] = this.destination;
+		data.copyTo(0, destination, offset + 3, dataLength);
+		
+		// Compute & set checksum.
+		destination[offset + dataLength + 3] = IKBusUtils.checksum(destination, offset, dataLength + 3);
 	}
 	
 	/**
@@ -107,7 +202,8 @@ public class IKBusPacket {
 	 */
 	@Override
 	public String toString() {
-		return IKBusUtils.bytesToHex(toRaw());
+		byte[] packet = raw;
+		return IKBusUtils.bytesToHex(packet != null ? packet : toRaw());
 	}
 	
 	/**
@@ -118,34 +214,85 @@ public class IKBusPacket {
 	 * @throws  InvalidIKBusPacketException  If the packet data does not represent a valid I/K-bus packet.
 	 */
 	public static IKBusPacket parse(byte[] rawPacketData) throws InvalidIKBusPacketException {
+		verify(rawPacketData, 0, rawPacketData.length);
+		
+		// All checks passed, so create the packet.
+		int messageDataLength = rawPacketData.length - 4;
+		byte[] messageData = new byte[messageDataLength];
+		System.arraycopy(rawPacketData, 3, messageData, 0, messageDataLength);
+		return new IKBusPacket(rawPacketData[0], rawPacketData[2], new ByteArrayByteString(messageData, false));
+	}
+	
+	/**
+	 * Attempts to parse the I/K-bus packet that is represented by a region of the given byte array, without copying its data. The data of
+	 * the resulting packet is a view on the array (see {@link ByteArraySliceByteString}), which makes this method suitable for inspecting
+	 * packets directly in a receive buffer. If the packet is to be retained after the array has been reused, then {@link #detach()}
+	 * should be called to obtain an independent copy.
+	 * 
+	 * @param   rawPacketData                A byte array that contains the raw packet data which is to be parsed.
+	 * @param   offset                       Index of the first byte of the packet in the array.
+	 * @param   length                       Total length of the packet in bytes.
+	 * @return                               An IKBusPacket instance whose data is a view on the given array.
+	 * @throws  InvalidIKBusPacketException  If the packet data does not represent a valid I/K-bus packet.
+	 * @throws  IndexOutOfBoundsException    If the region does not lie within the bounds of the array.
+	 */
+	public static IKBusPacket wrap(byte[] rawPacketData, int offset, int length) throws InvalidIKBusPacketException {
+		if (offset < 0 || length < 0 || offset > rawPacketData.length - length) {
+			throw new IndexOutOfBoundsException(
+				"Region [" + offset + ", " + offset + " + " + length + ") is out of bounds for an array of length " + rawPacketData.length);
+		}
+		verify(rawPacketData, offset, length);
+		
+		// All checks passed, so create the packet.
+		ByteString messageData = new ByteArraySliceByteString(rawPacketData, offset + 3, length - 4);
+		return new IKBusPacket(rawPacketData[offset], rawPacketData[offset + 2], messageData);
+	}
+	
+	/**
+	 * Creates a packet for a frame that contains exactly one raw packet, which has already been verified (for example by a packet framer).
+	 * The packet takes ownership of the frame: its data is a view on the frame and the frame is used as the cached raw format of the packet,
+	 * so {@link #toRaw()}, {@link #writeTo(byte[], int)}, {@link #writeTo(ByteBuffer)} and {@link #toString()} copy the received bytes
+	 * instead of encoding the packet again. The frame should therefore not be modified afterwards. Unlike {@link #wrap(byte[], int, int)}
+	 * the length and checksum of the frame are not verified.
+	 * 
+	 * @param   frame  An array that contains exactly one valid raw packet.
+	 * @return         An IKBusPacket instance whose data is a view on the frame.
+	 */
+	public static IKBusPacket wrapFrame(byte[] frame) {
+		IKBusPacket packet = new IKBusPacket(frame[0], frame[2], new ByteArraySliceByteString(frame, 3, frame.length - 4));
+		packet.raw = frame;
+		return packet;
+	}
+	
+	/**
+	 * Verifies whether a region of the given byte array contains a valid I/K-bus packet.
+	 * 
+	 * @param   rawPacketData                A byte array that contains the raw packet data which is to be verified.
+	 * @param   offset                       Index of the first byte of the packet in the array.
+	 * @param   length                       Total length of the packet in bytes.
+	 * @throws  InvalidIKBusPacketException  If the packet data does not represent a valid I/K-bus packet.
+	 */
+	private static void verify(byte[] rawPacketData, int offset, int length) throws InvalidIKBusPacketException {
 		// Check packet length.
-		if (rawPacketData.length < 5) {
-			throw new InvalidIKBusPacketException("Packet size should be at least 5 bytes, got " + rawPacketData.length + " instead");
+		if (length < 5) {
+			throw new InvalidIKBusPacketException("Packet size should be at least 5 bytes, got " + length + " instead");
 		}
-		int messageDataLength = (rawPacketData[1] & 0xff) - 2;
+		int messageDataLength = (rawPacketData[offset + 1] & 0xff) - 2;
 		int expectedTotalPacketSize = messageDataLength + 4;
-		if (rawPacketData.length != expectedTotalPacketSize) {
+		if (length != expectedTotalPacketSize) {
 			throw new InvalidIKBusPacketException(
 				"Packet length byte indicates a total packet size of " + expectedTotalPacketSize +
-				" bytes, got " + rawPacketData.length + " bytes instead");
+				" bytes, got " + length + " bytes instead");
 		}
 		
 		// Verify checksum.
-		byte computedChecksum = 0;
-		for (int index = 0; index < rawPacketData.length - 1; index++) {
-			computedChecksum = (byte) (computedChecksum ^ rawPacketData[index]);
-		}
-		byte actualChecksum = rawPacketData[rawPacketData.length - 1]; 
+		byte computedChecksum = IKBusUtils.checksum(rawPacketData, offset, length - 1);
+		byte actualChecksum = rawPacketData[offset + length - 1]; 
 		if (actualChecksum != computedChecksum) {
 			throw new InvalidIKBusPacketException(
 				"Invalid checksum, computed 0x" + IKBusUtils.byteToHex(computedChecksum) +
 				", got 0x" + IKBusUtils.byteToHex(actualChecksum) + " instead"
 			);
 		}
-		
-		// All checks passed, so create the packet.
-		byte[] messageData = new byte[messageDataLength];
-		System.arraycopy(rawPacketData, 3, messageData, 0, messageDataLength);
-		return new IKBusPacket(rawPacketData[0], rawPacketData[2], new ByteArrayByteString(messageData, false));
 	}
 }
@@ -1,5 +1,9 @@
 package net.novazero.lib.ikbus;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * Class which holds generic I/K-bus utility methods.
  * 
@@ -7,6 +11,23 @@ package net.novazero.lib.ikbus;
  */
 public final class IKBusUtils {
 	
+	/** Minimal number of bytes for which the checksum is computed a word (8 bytes) at a time. */
+	private static final int WORD_CHECKSUM_THRESHOLD = 16;
+	
+	/** Upper-case hexadecimal digits, indexed by their value. */
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+	
+	/** Values of the hexadecimal digits, indexed by character. Characters that are not hexadecimal digits have the value -1. */
+	private static final byte[] HEX_VALUES = new byte[128];
+	
+	static {
+		Arrays.fill(HEX_VALUES, (byte) -1);
+		for (int value = 0; value < 16; value++) {
+			HEX_VALUES[HEX_DIGITS[value]] = (byte) value;
+			HEX_VALUES[Character.toLowerCase(HEX_DIGITS[value])] = (byte) value;
+		}
+	}
+	
 	/** Private constructor used to prevent instantiation of the class. */
 	private IKBusUtils() { }
 	
@@ -19,26 +40,75 @@ public final class IKBusUtils {
 	 * @throws  NumberFormatException  When the given byte string contains an invalid hex code.
 	 */
 	public static byte[] bytes(String bytes) {
-		String trimmedBytes = bytes.trim();
-		
-		// Check if the string is empty. If so, simply return a zero-length array.
-		if (trimmedBytes.isEmpty()) return new byte[0];
-		
-		// Split string on whitespace.
-		String[] parts = trimmedBytes.split("\\s+");
-		
-		// Convert each part to a byte & store it in the result array.
-		byte[] result = new byte[parts.length];
-		int index = 0;
-		for (String part : parts) {
-			if (part.length() > 2) {
-				throw new NumberFormatException("For input string: " + part);
+		// Count the hex codes, so that the result array can be allocated.
+		int count = 0;
+		boolean inCode = false;
+		for (int index = 0; index < bytes.length(); index++) {
+			boolean whitespace = Character.isWhitespace(bytes.charAt(index));
+			if (!whitespace && !inCode) {
+				count++;
 			}
-			result[index++] = (byte) Integer.parseInt(part, 16);
+			inCode = !whitespace;
 		}
 		
-		// Return result.
-		return result;
+		// Convert each hex code to a byte & store it in the result array.
+		ByteBuffer result = ByteBuffer.allocate(count);
+		parseHex(bytes, 0, bytes.length(), result);
+		return result.array();
+	}
+	
+	/**
+	 * Parses the hex codes in a section of a character sequence and stores the resulting bytes in the given buffer, starting at its current
+	 * position. Each individual byte (represented by a hex code of one or two digits) is expected to be separated by whitespace. This method
+	 * uses a lookup table instead of regular expressions or intermediate strings, which makes it suitable for parsing large amounts of data.
+	 * 
+	 * @param   hex                      The character sequence containing the hexadecimal byte codes that are to be parsed.
+	 * @param   start                    Index of the first character of the section.
+	 * @param   end                      Index after the last character of the section.
+	 * @param   destination              The buffer into which the parsed bytes are stored.
+	 * @return                           The number of bytes that were parsed.
+	 * @throws  NumberFormatException    When the section contains an invalid hex code.
+	 * @throws  BufferOverflowException  When the buffer does not have enough room for the parsed bytes.
+	 */
+	public static int parseHex(CharSequence hex, int start, int end, ByteBuffer destination) {
+		int count = 0;
+		int index = start;
+		while (index < end) {
+			char c = hex.charAt(index);
+			if (Character.isWhitespace(c)) {
+				index++;
+				continue;
+			}
+			
+			// Parse a hex code of one or two digits, which should be followed by whitespace or the end of the section.
+			int codeStart = index;
+			int value = 0;
+			while (index < end && !Character.isWhitespace(hex.charAt(index))) {
+				int digit = hexValue(hex.charAt(index));
+				if (digit < 0 || index - codeStart >= 2) {
+					while (index < end && !Character.isWhitespace(hex.charAt(index))) {
+						index++;
+					}
+					throw new NumberFormatException("For input string: " + hex.subSequence(codeStart, index));
+				}
+				value = (value << 4) | digit;
+				index++;
+			}
+			
+			destination.put((byte) value);
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Determines the value of a hexadecimal digit using a lookup table. Both upper-case and lower-case digits are accepted.
+	 * 
+	 * @param   c  The character that is to be converted.
+	 * @return     The value of the digit (0 to 15), or -1 if the character is not a hexadecimal digit.
+	 */
+	public static int hexValue(char c) {
+		return c < HEX_VALUES.length ? HEX_VALUES[c] : -1;
 	}
 	
 	/**
@@ -63,20 +133,97 @@ public final class IKBusUtils {
 	 * @return         The string which represents the given byte array in hexadecimal format.
 	 */
 	public static String bytesToHex(byte[] bytes) {
-		StringBuilder result = new StringBuilder();
-		
-		for (byte b : bytes) {
-			if (result.length() > 0) {
-				result.append(' ');
+		char[] result = new char[Math.max(bytes.length * 3 - 1, 0)];
+		bytesToHex(bytes, 0, bytes.length, result, 0);
+		return new String(result);
+	}
+	
+	/**
+	 * Appends the hexadecimal representation of a section of a byte array to the given string builder. The hexadecimals are written using
+	 * upper-case characters and individual bytes are separated with a space character.
+	 * 
+	 * @param   destination  The string builder to which the hexadecimal representation is appended.
+	 * @param   bytes        The array which contains the bytes that are to be converted.
+	 * @param   offset       Index of the first byte that is to be converted.
+	 * @param   length       Number of bytes that are to be converted.
+	 * @return               The string builder to which the hexadecimal representation was appended.
+	 */
+	public static StringBuilder appendHex(StringBuilder destination, byte[] bytes, int offset, int length) {
+		destination.ensureCapacity(destination.length() + length * 3);
+		for (int index = offset; index < offset + length; index++) {
+			if (index > offset) {
+				destination.append(' ');
 			}
-			
-			if ((b & 0xFF) <= 0x0F) {
-				result.append('0');
+			destination.append(HEX_DIGITS[(bytes[index] >> 4) & 0x0F]).append(HEX_DIGITS[bytes[index] & 0x0F]);
+		}
+		return destination;
+	}
+	
+	/**
+	 * Writes the hexadecimal representation of a section of a byte array into the given character array. The hexadecimals are written using
+	 * upper-case characters and individual bytes are separated with a space character. A section of {@code n > 0} bytes requires
+	 * {@code 3 * n - 1} characters.
+	 * 
+	 * @param   bytes                      The array which contains the bytes that are to be converted.
+	 * @param   offset                     Index of the first byte that is to be converted.
+	 * @param   length                     Number of bytes that are to be converted.
+	 * @param   destination                The character array into which the hexadecimal representation is written.
+	 * @param   destinationOffset          Index in the character array at which the first character is written.
+	 * @return                             The number of characters that were written.
+	 * @throws  IndexOutOfBoundsException  If the character array does not have enough room for the hexadecimal representation.
+	 */
+	public static int bytesToHex(byte[] bytes, int offset, int length, char[] destination, int destinationOffset) {
+		int position = destinationOffset;
+		for (int index = offset; index < offset + length; index++) {
+			if (index > offset) {
+				destination[position++] = ' ';
+			}
+			destination[position++] = HEX_DIGITS[(bytes[index] >> 4) & 0x0F];
+			destination[position++] = HEX_DIGITS[bytes[index] & 0x0F];
+		}
+		return position - destinationOffset;
+	}
+	
+	/**
+	 * Computes the I/K-bus checksum of a section of a byte array, which is the XOR of all bytes in the section. The XOR of a complete
+	 * I/K-bus packet, including its checksum byte, is therefore 0 for a valid packet.
+	 * 
+	 * For longer sections the bytes are processed 8 at a time, by reading them as {@code long} values. Since XOR operates on each bit
+	 * position independently, the 8 bytes that make up the XOR of the words are then folded into a single byte.
+	 * 
+	 * @param   data                       The array which contains the section.
+	 * @param   offset                     Index of the first byte of the section.
+	 * @param   length                     Number of bytes in the section.
+	 * @return                             The XOR of all bytes in the section.
+	 * @throws  IndexOutOfBoundsException  If the section does not lie within the bounds of the array.
+	 */
+	public static byte checksum(byte[] data, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > data.length - length) {
+			throw new IndexOutOfBoundsException(
+				"Section [" + offset + ", " + offset + " + " + length + ") is out of bounds for an array of length " + data.length);
+		}
+		
+		int index = offset;
+		int end = offset + length;
+		long wordChecksum = 0;
+		
+		// XOR 8 bytes at a time and fold the result into a single byte.
+		if (length >= WORD_CHECKSUM_THRESHOLD) {
+			ByteBuffer words = ByteBuffer.wrap(data);
+			for (; index <= end - 8; index += 8) {
+				wordChecksum ^= words.getLong(index);
 			}
-			result.append(Integer.toHexString(b & 0xFF).toUpperCase());
+			wordChecksum ^= wordChecksum >>> 32;
+			wordChecksum ^= wordChecksum >>> 16;
+			wordChecksum ^= wordChecksum >>> 8;
 		}
 		
-		return result.toString();
+		// XOR the remaining bytes.
+		byte checksum = (byte) wordChecksum;
+		for (; index < end; index++) {
+			checksum ^= data[index];
+		}
+		return checksum;
 	}
 	
 	/**
@@ -86,7 +233,7 @@ public final class IKBusUtils {
 	 * @return     The string which represents the given byte in hexadecimal format.
 	 */
 	public static String byteToHex(byte b) {
-		return ((b & 0xFF) < 0x0F ? "0" : "") + Integer.toHexString(b & 0xFF).toUpperCase();
+		return new String(new char[] { HEX_DIGITS[(b >> 4) & 0x0F], HEX_DIGITS[b & 0x0F] });
 	}
-	
+
 }
@@ -0,0 +1,137 @@
+package net.novazero.lib.ikbus;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A compound I/K-bus message parser that uses lookup tables to determine which of its parsers should be asked to parse a packet, instead of
+ * asking every parser in turn. Each parser is registered together with an {@link IKBusMessageKey}, which tells for which source,
+ * destination and command identifier (first data byte) the parser is able to parse packets. Parsers that implement
+ * {@link KeyedIKBusMessageParser} provide their key themselves. Parsers without a key are tried for every packet, like the
+ * {@link CompoundIKBusMessageParser} does.
+ *
+ * For every dimension of the key there is a table with 256 entries, one for each possible value. Each entry holds a bit set of the parsers
+ * that accept the value, which includes the parsers that accept any value. The candidate parsers for a packet are found by intersecting
+ * the bit sets of its source, destination and command identifier. The candidates are then tried in the order in which they were added, so
+ * the result is the same as that of a {@link CompoundIKBusMessageParser} with the same parsers, as long as the parsers honor their keys.
+ *
+ * Parsers should be added before the parser is used. Adding parsers while other threads are parsing messages is not supported.
+ *
+ * @author  Daan Scheerens
+ */
+public class IndexedCompoundIKBusMessageParser extends CompoundIKBusMessageParser {
+	
+	/** Number of possible values of each dimension of the key. */
+	private static final int TABLE_SIZE = 256;
+	
+	/** The parsers which are used by the compound parser, in the order in which they were added. */
+	private final List<IKBusMessageParser> parsers = new ArrayList<>();
+	
+	/** Bit sets of the parsers that accept a source, indexed by source. */
+	private final long[][] sourceTable = new long[TABLE_SIZE][];
+	
+	/** Bit sets of the parsers that accept a destination, indexed by destination. */
+	private final long[][] destinationTable = new long[TABLE_SIZE][];
+	
+	/** Bit sets of the parsers that accept a command identifier, indexed by command identifier. */
+	private final long[][] commandTable = new long[TABLE_SIZE][];
+	
+	/** Bit set of the parsers that accept packets without data, i.e. the parsers that do not require a specific command identifier. */
+	private long[] anyCommand = new long[0];
+	
+	/**
+	 * Creates a new, empty indexed compound parser.
+	 */
+	public IndexedCompoundIKBusMessageParser() {
+		for (int value = 0; value < TABLE_SIZE; value++) {
+			sourceTable[value] = new long[0];
+			destinationTable[value] = new long[0];
+			commandTable[value] = new long[0];
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public IKBusMessage parseMessage(IKBusPacket packet) throws IKBusMessageParseException {
+		long[] sources = sourceTable[packet.getSource() & 0xFF];
+		long[] destinations = destinationTable[packet.getDestination() & 0xFF];
+		long[] commands = packet.getData().length() == 0 ? anyCommand : commandTable[packet.getData().get(0) & 0xFF];
+		
+		for (int word = 0; word < sources.length; word++) {
+			long candidates = sources[word] & destinations[word] & commands[word];
+			while (candidates != 0) {
+				int index = (word << 6) + Long.numberOfTrailingZeros(candidates);
+				candidates &= candidates - 1;
+				
+				IKBusMessage message = parsers.get(index).parseMessage(packet);
+				if (message != null) {
+					return message;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Adds a new parser to the set of parsers that are utilized by the compound parser. If the parser implements
+	 * {@link KeyedIKBusMessageParser}, then it is only tried for the packets that match its key, otherwise it is tried for every packet.
+	 *
+	 * @param  parser  The parser that should be used by the compound I/K-bus message parser.
+	 */
+	@Override
+	protected void addParser(IKBusMessageParser parser) {
+		IKBusMessageKey key = parser instanceof KeyedIKBusMessageParser ? ((KeyedIKBusMessageParser) parser).getMessageKey() : null;
+		addParser(parser, key == null ? IKBusMessageKey.ANY : key);
+	}
+	
+	/**
+	 * Adds a new parser to the set of parsers that are utilized by the compound parser. The parser is only tried for the packets that match
+	 * the specified key.
+	 *
+	 * @param  parser  The parser that should be used by the compound I/K-bus message parser.
+	 * @param  key     Key that describes the packets the parser is able to parse.
+	 */
+	protected void addParser(IKBusMessageParser parser, IKBusMessageKey key) {
+		int index = parsers.size();
+		parsers.add(parser);
+		
+		// Make room for the new parser in the bit sets.
+		int words = (parsers.size() + 63) >>> 6;
+		if (words > anyCommand.length) {
+			for (int value = 0; value < TABLE_SIZE; value++) {
+				sourceTable[value] = Arrays.copyOf(sourceTable[value], words);
+				destinationTable[value] = Arrays.copyOf(destinationTable[value], words);
+				commandTable[value] = Arrays.copyOf(commandTable[value], words);
+			}
+			anyCommand = Arrays.copyOf(anyCommand, words);
+		}
+		
+		register(sourceTable, key.getSource(), index);
+		register(destinationTable, key.getDestination(), index);
+		register(commandTable, key.getCommand(), index);
+		if (key.getCommand() == null) {
+			anyCommand[index >>> 6] |= 1L << index;
+		}
+	}
+	
+	/**
+	 * Registers a parser in a lookup table.
+	 *
+	 * @param  table  The lookup table.
+	 * @param  value  The value accepted by the parser, or {@code null} if the parser accepts any value.
+	 * @param  index  Index of the parser.
+	 */
+	private static void register(long[][] table, Byte value, int index) {
+		if (value == null) {
+			for (long[] parsers : table) {
+				parsers[index >>> 6] |= 1L << index;
+			}
+		} else {
+			table[value & 0xFF][index >>> 6] |= 1L << index;
+		}
+	}
+
+}
@@ -0,0 +1,19 @@
+package net.novazero.lib.ikbus;
+
+/**
+ * Interface for message parsers that declare which packets they are able to parse. An {@link IndexedCompoundIKBusMessageParser} only asks
+ * such a parser to parse the packets that match its key.
+ * 
+ * @author  Daan Scheerens
+ */
+public interface KeyedIKBusMessageParser extends IKBusMessageParser {
+	
+	/**
+	 * Retrieves the key that describes the packets the parser is able to parse. The parser should return {@code null} for any packet that
+	 * does not match the key. The key should not change once the parser has been added to a compound parser.
+	 * 
+	 * @return  The key that describes the packets the parser is able to parse.
+	 */
+	IKBusMessageKey getMessageKey();
+	
+}
@@ -0,0 +1,623 @@
+package net.novazero.lib.ikbus.io;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.novazero.lib.ikbus.IKBusPacket;
+
+/**
+ * A packet writer that takes the writing of packets off the calling thread. Packets are accepted into a bounded queue, which is drained
+ * by a single writer thread that writes them to an underlying packet writer. The {@link #writeAsync(IKBusPacket)} method returns a future
+ * per packet, which tells when the packet has been written. Depending on the configuration, this happens either:
+ * <ul>
+ *   <li>as soon as the underlying writer has written the packet (and has been flushed if it is {@link Flushable}), which means that the
+ *       bytes have been handed over to the operating system, or</li>
+ *   <li>when the echo of the packet has been observed on the bus, which has to be reported using {@link #echoReceived(IKBusPacket)}. If
+ *       the echo is not received within the echo timeout after the packet has been written and flushed, for example due to bus
+ *       contention, then the future fails with an {@link IKBusIOException}.</li>
+ * </ul>
+ * The writer thread writes all packets that are queued at the same time before flushing the underlying writer, so that bursts of packets
+ * are coalesced. If writing one of these packets fails, then only the futures of that packet and the packets after it fail; the packets
+ * that were written before it are still flushed and completed (or keep awaiting their echo) as usual.
+ *
+ * The capacity of the writer limits the number of packets that are queued plus the number of packets that are awaiting their echo. The
+ * {@link OverflowPolicy} of the writer determines what happens when this limit is reached: either the calling thread waits until there is
+ * room, or a packet is dropped, in which case its future fails with an {@link IKBusIOException}. Since packets that have already been
+ * written cannot be dropped, {@link OverflowPolicy#DROP_OLDEST} drops the new packet if none of the packets are queued.
+ *
+ * Packets that are written using {@link #write(IKBusPacket)} do not have a future that the caller can inspect. If such a packet cannot be
+ * written (or its echo is not received in time), then that error is reported by the next call to {@link #write(IKBusPacket)} or
+ * {@link #close()}.
+ *
+ * Instances of this class are thread-safe.
+ *
+ * @author  Daan Scheerens
+ */
+public class AsyncIKBusPacketWriter implements IKBusPacketWriter {
+	
+	/** The default capacity of the queue of packets that have not been written yet. */
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+	
+	/** The default time in milliseconds within which the echo of a written packet should be received. */
+	public static final long DEFAULT_ECHO_TIMEOUT = 1000;
+	
+	/** The packet writer to which the packets are written. */
+	private final IKBusPacketWriter writer;
+	
+	/** Maximum number of packets that are queued or awaiting their echo. */
+	private final int queueCapacity;
+	
+	/** Policy which determines what happens when the queue is full. */
+	private final OverflowPolicy overflowPolicy;
+	
+	/** Whether the futures complete once the echo of the packet has been received, instead of once the packet has been written. */
+	private final boolean awaitEcho;
+	
+	/** Time in nanoseconds within which the echo of a written packet should be received. */
+	private final long echoTimeout;
+	
+	/** The thread that writes the queued packets to the underlying writer. */
+	private final Thread writerThread;
+	
+	/** Lock that guards the queues and the state of the writer. */
+	private final Lock lock = new ReentrantLock();
+	
+	/** Condition that is signaled when a packet has been added to the queue or when the writer is closed. */
+	private final Condition notEmpty = lock.newCondition();
+	
+	/** Condition that is signaled when packets no longer count towards the capacity or when the writer is closed. */
+	private final Condition notFull = lock.newCondition();
+	
+	/** Queue of packets that have not been written yet. */
+	private final Queue<PendingWrite> queue = new ArrayDeque<>();
+	
+	/** Packets that are being written or have been written, but whose echo has not been received yet, in order of their echo deadline. */
+	private final Queue<PendingWrite> awaitingEcho = new ArrayDeque<>();
+	
+	/** Number of packets that have been dropped due to an overflow of the queue. */
+	private final AtomicLong droppedPacketCount = new AtomicLong();
+	
+	/** Error of a packet that was written using {@link #write(IKBusPacket)}, which has not yet been reported. */
+	private IKBusIOException writeError = null;
+	
+	/** Whether the writer has been closed. */
+	private boolean closed = false;
+	
+	/**
+	 * Creates a new asynchronous writer for the specified packet writer, using a queue with the default capacity that blocks the calling
+	 * thread when it is full. The futures complete once the packets have been written.
+	 *
+	 * @param  writer  The packet writer to which the packets are written.
+	 */
+	public AsyncIKBusPacketWriter(IKBusPacketWriter writer) {
+		this(writer, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK, false, ReaderThreadFactory.platform().withNamePrefix("ikbus-writer"));
+	}
+	
+	/**
+	 * Creates a new asynchronous writer for the specified packet writer. If the writer awaits echoes, then the echo of a packet should be
+	 * received within {@link #DEFAULT_ECHO_TIMEOUT} milliseconds.
+	 *
+	 * @param   writer                    The packet writer to which the packets are written.
+	 * @param   queueCapacity             Maximum number of packets that are queued or awaiting their echo.
+	 * @param   overflowPolicy            Policy which determines what happens when the capacity is reached.
+	 * @param   awaitEcho                 Whether the futures complete once the echo of the packet has been received (see
+	 *                                    {@link #echoReceived(IKBusPacket)}), instead of once the packet has been written.
+	 * @param   threadFactory             Factory used to create the thread that writes the packets, which allows for example to use
+	 *                                    {@link ReaderThreadFactory#virtual()}.
+	 * @throws  IllegalArgumentException  If the queue capacity is less than 1.
+	 */
+	public AsyncIKBusPacketWriter(IKBusPacketWriter writer, int queueCapacity, OverflowPolicy overflowPolicy, boolean awaitEcho,
+			ThreadFactory threadFactory) {
+		this(writer, queueCapacity, overflowPolicy, awaitEcho, DEFAULT_ECHO_TIMEOUT, threadFactory);
+	}
+	
+	/**
+	 * Creates a new asynchronous writer for the specified packet writer.
+	 *
+	 * @param   writer                    The packet writer to which the packets are written.
+	 * @param   queueCapacity             Maximum number of packets that are queued or awaiting their echo.
+	 * @param   overflowPolicy            Policy which determines what happens when the capacity is reached.
+	 * @param   awaitEcho                 Whether the futures complete once the echo of the packet has been received (see
+	 *                                    {@link #echoReceived(IKBusPacket)}), instead of once the packet has been written.
+	 * @param   echoTimeout               Time in milliseconds within which the echo of a written packet should be received, after which
+	 *                                    its future fails. Only applies if the writer awaits echoes.
+	 * @param   threadFactory             Factory used to create the thread that writes the packets, which allows for example to use
+	 *                                    {@link ReaderThreadFactory#virtual()}.
+	 * @throws  IllegalArgumentException  If the queue capacity or the echo timeout is less than 1.
+	 */
+	public AsyncIKBusPacketWriter(IKBusPacketWriter writer, int queueCapacity, OverflowPolicy overflowPolicy, boolean awaitEcho,
+			long echoTimeout, ThreadFactory threadFactory) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity should be at least 1, but was " + queueCapacity);
+		}
+		if (echoTimeout < 1) {
+			throw new IllegalArgumentException("Echo timeout should be at least 1, but was " + echoTimeout);
+		}
+		this.writer = writer;
+		this.queueCapacity = queueCapacity;
+		this.overflowPolicy = overflowPolicy;
+		this.awaitEcho = awaitEcho;
+		this.echoTimeout = TimeUnit.MILLISECONDS.toNanos(echoTimeout);
+		this.writerThread = threadFactory.newThread(this::runWriter);
+		this.writerThread.start();
+	}
+	
+	/**
+	 * Retrieves the number of packets that are queued, but have not been written yet.
+	 *
+	 * @return  The number of queued packets.
+	 */
+	public int getQueuedPacketCount() {
+		lock.lock();
+		try {
+			return queue.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Retrieves the number of packets that have been written, but whose echo has not been received yet. Always 0 if the writer does not
+	 * await echoes.
+	 *
+	 * @return  The number of packets awaiting their echo.
+	 */
+	public int getAwaitingEchoCount() {
+		lock.lock();
+		try {
+			return awaitingEcho.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Retrieves the number of packets that have been dropped, because the capacity was reached and the overflow policy is either
+	 * {@link OverflowPolicy#DROP_OLDEST} or {@link OverflowPolicy#DROP_NEWEST}.
+	 *
+	 * @return  The number of packets that have been dropped.
+	 */
+	public long getDroppedPacketCount() {
+		return droppedPacketCount.get();
+	}
+	
+	/**
+	 * Queues the specified packet for writing. Unless the overflow policy is {@link OverflowPolicy#BLOCK} and the queue is full, this
+	 * method returns immediately.
+	 *
+	 * @param   packet  I/K-bus packet that should be written.
+	 * @return          A future that completes when the packet has been written (or when its echo has been received), or which fails with
+	 *                  an {@link IKBusIOException} if the packet could not be written, was dropped or if the writer has been closed.
+	 */
+	public CompletableFuture<Void> writeAsync(IKBusPacket packet) {
+		PendingWrite pendingWrite = new PendingWrite(packet, true);
+		try {
+			enqueue(pendingWrite);
+		} catch (IKBusIOException e) {
+			pendingWrite.future.completeExceptionally(e);
+		}
+		return pendingWrite.future;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The packet is only queued for writing. Use {@link #writeAsync(IKBusPacket)} to find out when the packet has actually been written.
+	 * If a packet that was previously written using this method could not be written, then that error is thrown instead and the packet is
+	 * not queued.
+	 *
+	 * @throws  IKBusIOException  If a previously written packet could not be written, if the writer has been closed or if the packet was
+	 *                            dropped because the queue is full.
+	 */
+	@Override
+	public void write(IKBusPacket packet) throws IKBusIOException {
+		reportWriteError();
+		enqueue(new PendingWrite(packet, false));
+	}
+	
+	/**
+	 * Reports that the specified packet has been received from the bus. If the writer awaits echoes, then the future of the oldest written
+	 * packet with the same contents is completed.
+	 *
+	 * @param   packet  The packet that has been received from the bus.
+	 * @return          {@code true} if the packet was the echo of a written packet, {@code false} if not.
+	 */
+	public boolean echoReceived(IKBusPacket packet) {
+		PendingWrite echoed = null;
+		lock.lock();
+		try {
+			Iterator<PendingWrite> iterator = awaitingEcho.iterator();
+			while (iterator.hasNext()) {
+				PendingWrite pendingWrite = iterator.next();
+				if (isEcho(pendingWrite.packet, packet)) {
+					iterator.remove();
+					echoed = pendingWrite;
+					notFull.signal();
+					break;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		return echoed != null && echoed.future.complete(null);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The packets that are still queued are written before the underlying writer is closed. The futures of packets whose echo has not been
+	 * received yet fail. If a packet that was written using {@link #write(IKBusPacket)} could not be written, then that error is thrown
+	 * after the underlying writer has been closed.
+	 */
+	@Override
+	public void close() throws IKBusIOException {
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IKBusIOException("Writer has already been closed");
+			}
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		
+		// Wait until the writer thread has written the remaining packets.
+		boolean interrupted = false;
+		while (writerThread.isAlive()) {
+			try {
+				writerThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		
+		List<PendingWrite> unconfirmed;
+		lock.lock();
+		try {
+			unconfirmed = new ArrayList<>(awaitingEcho);
+			awaitingEcho.clear();
+		} finally {
+			lock.unlock();
+		}
+		IKBusIOException closeError = new IKBusIOException("Writer was closed before the echo of the packet was received");
+		for (PendingWrite pendingWrite : unconfirmed) {
+			pendingWrite.future.completeExceptionally(closeError);
+		}
+		
+		writer.close();
+		reportWriteError();
+	}
+	
+	/**
+	 * Adds a packet to the queue, applying the overflow policy if the capacity has been reached.
+	 *
+	 * @param   pendingWrite      The packet which is to be added.
+	 * @throws  IKBusIOException  If the writer has been closed or if the packet was dropped because the capacity has been reached.
+	 */
+	private void enqueue(PendingWrite pendingWrite) throws IKBusIOException {
+		PendingWrite dropped = null;
+		List<PendingWrite> expired = new ArrayList<>(0);
+		lock.lock();
+		try {
+			if (!closed && isFull()) {
+				// Overdue echoes no longer count towards the capacity, even if the writer thread is busy writing.
+				expireEchoes(expired);
+			}
+			if (!closed && isFull()) {
+				switch (overflowPolicy) {
+					case BLOCK:
+						while (isFull() && !closed) {
+							notFull.awaitUninterruptibly();
+						}
+						break;
+					case DROP_OLDEST:
+						dropped = queue.poll();
+						droppedPacketCount.incrementAndGet();
+						if (dropped == null) {
+							// All packets have already been written and are awaiting their echo, so the new packet is dropped instead.
+							throw new IKBusIOException("Packet was dropped because the write queue is full");
+						}
+						break;
+					case DROP_NEWEST:
+						droppedPacketCount.incrementAndGet();
+						throw new IKBusIOException("Packet was dropped because the write queue is full");
+				}
+			}
+			if (closed) {
+				throw new IKBusIOException("Attempted to write to closed writer");
+			}
+			queue.add(pendingWrite);
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+		
+		// Complete the futures without holding the lock, since they may invoke callbacks.
+		if (!expired.isEmpty()) {
+			failExpired(expired);
+		}
+		if (dropped != null) {
+			dropped.future.completeExceptionally(new IKBusIOException("Packet was dropped because the write queue is full"));
+		}
+	}
+	
+	/**
+	 * Throws the error of a packet that was written using {@link #write(IKBusPacket)}, if such an error occurred and has not been reported
+	 * yet.
+	 *
+	 * @throws  IKBusIOException  If a packet that was written using {@link #write(IKBusPacket)} could not be written.
+	 */
+	private void reportWriteError() throws IKBusIOException {
+		IKBusIOException error;
+		lock.lock();
+		try {
+			error = writeError;
+			writeError = null;
+		} finally {
+			lock.unlock();
+		}
+		if (error != null) {
+			throw new IKBusIOException("Failed to write queued packet", error);
+		}
+	}
+	
+	/**
+	 * Checks whether the capacity of the writer has been reached. Should only be called while holding the lock.
+	 *
+	 * @return  {@code true} if the number of queued packets plus the number of packets awaiting their echo has reached the capacity,
+	 *          {@code false} if not.
+	 */
+	private boolean isFull() {
+		return queue.size() + awaitingEcho.size() >= queueCapacity;
+	}
+	
+	/**
+	 * Writes the queued packets to the underlying writer until the writer is closed and the queue is empty, and fails the futures of the
+	 * packets whose echo has not been received in time. Executed by the writer thread.
+	 */
+	private void runWriter() {
+		List<PendingWrite> batch = new ArrayList<>();
+		List<PendingWrite> expired = new ArrayList<>();
+		while (true) {
+			// Take all queued packets at once.
+			boolean finished;
+			lock.lock();
+			try {
+				// Overdue echoes are expired on every iteration, so they do not keep using capacity while packets are being written.
+				expireEchoes(expired);
+				while (queue.isEmpty() && !closed && expired.isEmpty()) {
+					awaitWork();
+					expireEchoes(expired);
+				}
+				finished = queue.isEmpty() && closed;
+				batch.addAll(queue);
+				queue.clear();
+				if (awaitEcho) {
+					// Registered before writing, since the echo may be received before the write call returns. The echo deadlines are only
+					// set once the packets have been written, see writeBatch.
+					awaitingEcho.addAll(batch);
+				}
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+			
+			if (!expired.isEmpty()) {
+				failExpired(expired);
+				expired.clear();
+			}
+			if (finished) {
+				return;
+			}
+			if (!batch.isEmpty()) {
+				writeBatch(batch);
+				batch.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Writes a batch of packets to the underlying writer and flushes the writer once for the whole batch. If writing a packet fails, then
+	 * the packets that were written before it are still flushed. The futures of the packets that could not be written fail, as do those of
+	 * the written packets if flushing fails, unless the writer awaits echoes: in that case the echo decides whether the written packets
+	 * made it onto the bus. The echo deadlines of the written packets start once they have been flushed, since transmitting a large batch
+	 * over the bus may take longer than the echo timeout.
+	 *
+	 * @param  batch  The packets which are to be written.
+	 */
+	private void writeBatch(List<PendingWrite> batch) {
+		int written = 0;
+		IKBusIOException error = null;
+		try {
+			for (PendingWrite pendingWrite : batch) {
+				writer.write(pendingWrite.packet);
+				written++;
+			}
+		} catch (IKBusIOException e) {
+			error = e;
+		} catch (RuntimeException e) {
+			error = new IKBusIOException(e);
+		}
+		
+		IKBusIOException flushError = null;
+		if (written > 0 && writer instanceof Flushable) {
+			try {
+				((Flushable) writer).flush();
+			} catch (IKBusIOException e) {
+				flushError = e;
+			} catch (IOException | RuntimeException e) {
+				flushError = new IKBusIOException(e);
+			}
+		}
+		
+		List<PendingWrite> unwritten = batch.subList(written, batch.size());
+		if (awaitEcho) {
+			lock.lock();
+			try {
+				long echoDeadline = System.nanoTime() + echoTimeout;
+				for (PendingWrite pendingWrite : batch.subList(0, written)) {
+					pendingWrite.echoDeadline = echoDeadline;
+					pendingWrite.written = true;
+				}
+				if (!unwritten.isEmpty()) {
+					awaitingEcho.removeAll(unwritten);
+					notFull.signalAll();
+				}
+				
+				// Wake up the writer thread, which may be waiting for the echo deadline of an older packet.
+				notEmpty.signal();
+			} finally {
+				lock.unlock();
+			}
+			fail(unwritten, error);
+		} else {
+			List<PendingWrite> writtenPackets = batch.subList(0, written);
+			if (flushError != null) {
+				fail(writtenPackets, flushError);
+			} else {
+				for (PendingWrite pendingWrite : writtenPackets) {
+					pendingWrite.future.complete(null);
+				}
+			}
+			fail(unwritten, error);
+		}
+	}
+	
+	/**
+	 * Removes the packets whose echo deadline has passed from the packets that await their echo. Packets that are still being written do
+	 * not have an echo deadline yet. Should only be called while holding the lock.
+	 *
+	 * @param   expired  List to which the packets whose echo deadline has passed are added.
+	 * @return           {@code true} if any packets were removed, {@code false} if not.
+	 */
+	private boolean expireEchoes(List<PendingWrite> expired) {
+		long now = System.nanoTime();
+		PendingWrite pendingWrite;
+		while ((pendingWrite = awaitingEcho.peek()) != null && pendingWrite.written && pendingWrite.echoDeadline - now <= 0) {
+			expired.add(awaitingEcho.poll());
+		}
+		if (expired.isEmpty()) {
+			return false;
+		}
+		notFull.signalAll();
+		return true;
+	}
+	
+	/**
+	 * Waits until a packet has been queued, the writer is closed or the echo deadline of the oldest written packet has passed. Should only
+	 * be called while holding the lock. Interrupts are ignored, like in the other waits of the writer thread.
+	 */
+	private void awaitWork() {
+		PendingWrite oldest = awaitingEcho.peek();
+		if (oldest == null || !oldest.written) {
+			notEmpty.awaitUninterruptibly();
+			return;
+		}
+		try {
+			notEmpty.awaitNanos(oldest.echoDeadline - System.nanoTime());
+		} catch (InterruptedException e) {
+			// Ignored, the deadline is checked again by the caller.
+		}
+	}
+	
+	/**
+	 * Fails the futures of the specified packets with the given error. If any of the packets was written using
+	 * {@link #write(IKBusPacket)}, then the error is retained, so that it can be reported by the next call to {@link #write(IKBusPacket)}
+	 * or {@link #close()}. Should not be called while holding the lock.
+	 *
+	 * @param  pendingWrites  The packets whose futures are to fail.
+	 * @param  error          The error with which the futures fail.
+	 */
+	private void fail(List<PendingWrite> pendingWrites, IKBusIOException error) {
+		boolean untracked = false;
+		for (PendingWrite pendingWrite : pendingWrites) {
+			pendingWrite.future.completeExceptionally(error);
+			untracked |= !pendingWrite.tracked;
+		}
+		if (untracked) {
+			lock.lock();
+			try {
+				if (writeError == null) {
+					writeError = error;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Fails the futures of the specified packets, because their echo was not received in time. Should not be called while holding the lock.
+	 *
+	 * @param  expired  The packets whose echo deadline has passed.
+	 */
+	private void failExpired(List<PendingWrite> expired) {
+		fail(expired, new IKBusIOException("Echo of the packet was not received within " + TimeUnit.NANOSECONDS.toMillis(echoTimeout)
+			+ " ms"));
+	}
+	
+	/**
+	 * Checks whether a received packet is the echo of a written packet, i.e. whether both packets have the same contents.
+	 *
+	 * @param   written   The packet that was written.
+	 * @param   received  The packet that was received.
+	 * @return            {@code true} if the received packet is the echo of the written packet, {@code false} if not.
+	 */
+	private static boolean isEcho(IKBusPacket written, IKBusPacket received) {
+		return written.getSource() == received.getSource()
+			&& written.getDestination() == received.getDestination()
+			&& written.getData().contentEquals(received.getData());
+	}
+	
+	/**
+	 * Data structure that holds a packet which is to be written, together with the future that completes when it has been written.
+	 */
+	private static class PendingWrite {
+		
+		/** The packet which is to be written. */
+		private final IKBusPacket packet;
+		
+		/** The future that completes when the packet has been written. */
+		private final CompletableFuture<Void> future = new CompletableFuture<>();
+		
+		/** Whether the caller has the future of the packet, i.e. whether it was written using {@link #writeAsync(IKBusPacket)}. */
+		private final boolean tracked;
+		
+		/** Whether the packet has been written and flushed, after which its echo deadline applies. Guarded by the lock of the writer. */
+		private boolean written = false;
+		
+		/** Time (see {@link System#nanoTime()}) before which the echo should be received. Guarded by the lock of the writer. */
+		private long echoDeadline;
+		
+		/**
+		 * Creates a new {@link PendingWrite} instance.
+		 *
+		 * @param  packet   The packet which is to be written.
+		 * @param  tracked  Whether the caller has the future of the packet.
+		 */
+		public PendingWrite(IKBusPacket packet, boolean tracked) {
+			this.packet = packet;
+			this.tracked = tracked;
+		}
+	
+	}
+
+}
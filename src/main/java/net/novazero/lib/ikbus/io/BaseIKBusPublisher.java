@@ -0,0 +1,393 @@
+package net.novazero.lib.ikbus.io;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Base class for publishers that read the stream elements of an {@link IKBusPacketReader} on a separate thread and publish them (or items
+ * derived from them) to a subscriber. Subscribers control the flow of items using {@link IKBusFlow.Subscription#request(long)}. Items for
+ * which there is no demand yet are kept in a bounded buffer. The {@link OverflowPolicy} of the publisher determines what happens when this
+ * buffer is full: either reading from the packet reader is suspended until the subscriber catches up, or items are dropped. The number of
+ * dropped items can be obtained using {@link #getDroppedElementCount()}.
+ *
+ * A publisher reads from its packet reader only once and therefore supports a single subscriber. The reader thread is started when the
+ * subscriber subscribes and stops when the end of the stream is reached, when an error occurs or when the subscription is cancelled. Note
+ * that the publisher does not close the packet reader. Closing the reader after cancelling the subscription makes sure that the reader
+ * thread stops immediately, instead of after the next stream element has been read.
+ *
+ * @param  <T>  The type of the items that are published.
+ *
+ * @author  Daan Scheerens
+ */
+public abstract class BaseIKBusPublisher<T> implements IKBusFlow.Publisher<T> {
+	
+	/** The default capacity of the buffer of items for which there is no demand yet. */
+	public static final int DEFAULT_BUFFER_CAPACITY = 256;
+	
+	/** Maximum number of stream elements that are read from the packet reader at once. */
+	private static final int READ_BATCH_SIZE = 64;
+	
+	/** The packet reader from which the stream elements are read. */
+	private final IKBusPacketReader reader;
+	
+	/** Maximum number of items that are buffered for the subscriber. */
+	private final int bufferCapacity;
+	
+	/** Policy which determines what happens when the buffer is full. */
+	private final OverflowPolicy overflowPolicy;
+	
+	/** Factory used to create the thread that reads from the packet reader. */
+	private final ThreadFactory threadFactory;
+	
+	/** Whether a subscriber has subscribed to the publisher. */
+	private final AtomicBoolean subscribed = new AtomicBoolean(false);
+	
+	/** Number of items that have been dropped due to an overflow of the buffer. */
+	private final AtomicLong droppedElementCount = new AtomicLong();
+	
+	/**
+	 * Creates a new publisher for the stream elements read from the specified packet reader.
+	 *
+	 * @param   reader                    The packet reader from which the stream elements are read.
+	 * @param   bufferCapacity            Maximum number of items that are buffered for the subscriber.
+	 * @param   overflowPolicy            Policy which determines what happens when the buffer is full.
+	 * @param   threadFactory             Factory used to create the thread that reads from the packet reader.
+	 * @throws  IllegalArgumentException  If the buffer capacity is less than 1.
+	 */
+	protected BaseIKBusPublisher(IKBusPacketReader reader, int bufferCapacity, OverflowPolicy overflowPolicy, ThreadFactory threadFactory) {
+		if (bufferCapacity < 1) {
+			throw new IllegalArgumentException("Buffer capacity should be at least 1, but was " + bufferCapacity);
+		}
+		this.reader = reader;
+		this.bufferCapacity = bufferCapacity;
+		this.overflowPolicy = overflowPolicy;
+		this.threadFactory = threadFactory;
+	}
+	
+	/**
+	 * Retrieves the number of items that have been dropped, because the buffer was full and the overflow policy is either
+	 * {@link OverflowPolicy#DROP_OLDEST} or {@link OverflowPolicy#DROP_NEWEST}.
+	 *
+	 * @return  The number of items that have been dropped.
+	 */
+	public long getDroppedElementCount() {
+		return droppedElementCount.get();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Only a single subscriber is supported. Any further subscribers are notified with an {@link IllegalStateException}.
+	 */
+	@Override
+	public void subscribe(IKBusFlow.Subscriber<? super T> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("Subscriber should not be null");
+		}
+		
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new IKBusFlow.Subscription() {
+				@Override
+				public void request(long n) {
+					// Nothing will be delivered.
+				}
+				
+				@Override
+				public void cancel() {
+					// Nothing to cancel.
+				}
+			});
+			subscriber.onError(new IllegalStateException("Publisher supports only a single subscriber"));
+			return;
+		}
+		
+		ReaderSubscription subscription = new ReaderSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+		threadFactory.newThread(subscription).start();
+	}
+	
+	/**
+	 * Converts a stream element that was read from the packet reader into the item that is to be published.
+	 *
+	 * @param   element  The stream element that was read from the packet reader.
+	 * @return           The item that is to be published or {@code null} if the stream element should be skipped.
+	 */
+	protected abstract T convert(IKBusPacketStreamElement element);
+	
+	/**
+	 * Processes a stream element that was read from the packet reader. This method is invoked on the reader thread for every stream
+	 * element, in the order in which the elements were read. The default implementation converts the element using
+	 * {@link #convert(IKBusPacketStreamElement)} and passes the resulting item to the sink, unless it is {@code null}.
+	 *
+	 * Subclasses may override this method to convert the stream elements on other threads. In that case the items should still be passed to
+	 * the sink in the order of the stream elements, one at a time, and before {@link #awaitProcessing()} returns. Items that are passed to
+	 * the sink on the reader thread are delivered after the batch of stream elements has been processed, while items that are passed on
+	 * another thread are delivered right away. The sink may block if the buffer is full and the overflow policy is
+	 * {@link OverflowPolicy#BLOCK}.
+	 *
+	 * @param  element  The stream element that was read from the packet reader.
+	 * @param  sink     Sink that adds the items to the buffer of the publisher.
+	 */
+	protected void process(IKBusPacketStreamElement element, Consumer<? super T> sink) {
+		T item = convert(element);
+		if (item != null) {
+			sink.accept(item);
+		}
+	}
+	
+	/**
+	 * Waits until all stream elements that were passed to {@link #process(IKBusPacketStreamElement, Consumer)} have been processed. This
+	 * method is invoked on the reader thread once it stops reading, before the subscriber is notified of the completion of the subscription.
+	 * Subclasses that process stream elements asynchronously should override this method. An exception thrown by this method is reported
+	 * to the subscriber, unless reading already failed. The default implementation does nothing.
+	 */
+	protected void awaitProcessing() {
+	}
+	
+	/**
+	 * Subscription that reads the stream elements from the packet reader (on the thread executing the {@link #run()} method) and delivers
+	 * them to the subscriber as long as there is demand.
+	 */
+	private class ReaderSubscription implements IKBusFlow.Subscription, Runnable {
+		
+		/** The subscriber to which the items are delivered. */
+		private final IKBusFlow.Subscriber<? super T> subscriber;
+		
+		/** Lock that guards the buffer, the demand and the state of the reader thread. */
+		private final Lock lock = new ReentrantLock();
+		
+		/** Condition that is signaled when an item has been removed from the buffer. */
+		private final Condition notFull = lock.newCondition();
+		
+		/** Buffer of items for which there is no demand yet. */
+		private final Queue<T> buffer = new ArrayDeque<>();
+		
+		/** Sink that passes the processed items to the buffer. */
+		private final Consumer<T> sink = this::accept;
+		
+		/** The thread that reads from the packet reader, or {@code null} if it has not been started yet. */
+		private volatile Thread readerThread;
+		
+		/** Number of pending requests to deliver items. Only the thread that increments the counter from 0 delivers items. */
+		private final AtomicInteger deliveryRequests = new AtomicInteger();
+		
+		/** Number of items that have been requested, but not yet delivered. */
+		private long demand = 0;
+		
+		/** Whether the reader thread has stopped reading. */
+		private boolean readerFinished = false;
+		
+		/** The error that caused the reader thread to stop, or {@code null} if the end of the stream was reached. */
+		private Throwable readerError = null;
+		
+		/** Error caused by an invalid call to {@link #request(long)}, or {@code null} if no such call was made. */
+		private volatile Throwable requestError = null;
+		
+		/** Whether the subscription has been cancelled. */
+		private volatile boolean cancelled = false;
+		
+		/** Whether the subscriber has been notified of the completion (or failure) of the subscription. */
+		private boolean terminated = false;
+		
+		/**
+		 * Creates a new subscription for the specified subscriber.
+		 *
+		 * @param  subscriber  The subscriber to which the items are delivered.
+		 */
+		public ReaderSubscription(IKBusFlow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+		
+		/**
+		 * Reads the stream elements from the packet reader until the end of the stream is reached, an error occurs, or the subscription
+		 * is cancelled.
+		 */
+		@Override
+		public void run() {
+			readerThread = Thread.currentThread();
+			IKBusPacketStreamElement[] batch = new IKBusPacketStreamElement[READ_BATCH_SIZE];
+			Throwable error = null;
+			try {
+				int count;
+				while (!cancelled && (count = reader.readBatch(batch, batch.length)) >= 0) {
+					for (int index = 0; index < count; index++) {
+						process(batch[index], sink);
+						batch[index] = null;
+					}
+					deliver();
+				}
+			} catch (IKBusIOException | RuntimeException e) {
+				error = e;
+			}
+			try {
+				awaitProcessing();
+			} catch (RuntimeException e) {
+				if (error == null) {
+					error = e;
+				}
+			}
+			
+			lock.lock();
+			try {
+				readerFinished = true;
+				readerError = error;
+			} finally {
+				lock.unlock();
+			}
+			deliver();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				requestError = new IllegalArgumentException("Number of requested items should be positive, but was " + n);
+			} else {
+				lock.lock();
+				try {
+					demand += n;
+					if (demand < 0) {
+						demand = Long.MAX_VALUE;
+					}
+				} finally {
+					lock.unlock();
+				}
+			}
+			deliver();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void cancel() {
+			cancelled = true;
+			lock.lock();
+			try {
+				buffer.clear();
+				notFull.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/**
+		 * Adds a processed item to the buffer. The item is delivered right away if it was processed on another thread than the reader
+		 * thread.
+		 *
+		 * @param  item  The item which is to be added.
+		 */
+		private void accept(T item) {
+			offer(item);
+			if (Thread.currentThread() != readerThread) {
+				deliver();
+			}
+		}
+		
+		/**
+		 * Adds an item to the buffer, applying the overflow policy if the buffer is full.
+		 *
+		 * @param  item  The item which is to be added.
+		 */
+		private void offer(T item) {
+			lock.lock();
+			try {
+				if (buffer.size() >= bufferCapacity) {
+					switch (overflowPolicy) {
+						case BLOCK:
+							while (buffer.size() >= bufferCapacity && !cancelled) {
+								// Deliver the buffered items first, in case there is demand for them.
+								lock.unlock();
+								try {
+									deliver();
+								} finally {
+									lock.lock();
+								}
+								if (buffer.size() >= bufferCapacity && !cancelled) {
+									notFull.awaitUninterruptibly();
+								}
+							}
+							if (cancelled) {
+								return;
+							}
+							break;
+						case DROP_OLDEST:
+							buffer.poll();
+							droppedElementCount.incrementAndGet();
+							break;
+						case DROP_NEWEST:
+							droppedElementCount.incrementAndGet();
+							return;
+					}
+				}
+				buffer.add(item);
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/**
+		 * Delivers the buffered items to the subscriber as long as there is demand, followed by the completion of the subscription once the
+		 * reader thread has finished. The subscriber methods are never invoked concurrently: if another thread is already delivering items,
+		 * then that thread will make another pass instead.
+		 */
+		private void deliver() {
+			if (deliveryRequests.getAndIncrement() != 0) {
+				return;
+			}
+			
+			int missed = 1;
+			do {
+				while (!terminated) {
+					T item = null;
+					Throwable error = requestError;
+					lock.lock();
+					try {
+						if (cancelled) {
+							terminated = true;
+							break;
+						} else if (error != null) {
+							cancelled = true;
+							buffer.clear();
+							notFull.signalAll();
+						} else if (demand > 0 && !buffer.isEmpty()) {
+							item = buffer.poll();
+							demand--;
+							notFull.signal();
+						} else if (readerFinished && buffer.isEmpty()) {
+							error = readerError;
+						} else {
+							break;
+						}
+					} finally {
+						lock.unlock();
+					}
+					
+					if (item != null) {
+						subscriber.onNext(item);
+					} else {
+						terminated = true;
+						if (error != null) {
+							subscriber.onError(error);
+						} else {
+							subscriber.onComplete();
+						}
+					}
+				}
+				missed = deliveryRequests.addAndGet(-missed);
+			} while (missed != 0);
+		}
+	
+	}
+
+}
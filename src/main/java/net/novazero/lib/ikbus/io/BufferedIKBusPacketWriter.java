@@ -0,0 +1,285 @@
+package net.novazero.lib.ikbus.io;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.novazero.lib.ikbus.IKBusPacket;
+
+/**
+ * Base class for packet writers that encode the packets directly into a reusable buffer and transmit the contents of that buffer at once.
+ * Packets that are written shortly after each other are thereby coalesced into a single write on the underlying stream, instead of
+ * requiring a write and a flush per packet. This saves many round trips on links with a high per-write overhead, such as USB-serial
+ * adapters, when sending bursts of packets.
+ *
+ * The buffer is transmitted when one of the following conditions is met:
+ * <ul>
+ *   <li>the next packet does not fit in the buffer anymore,</li>
+ *   <li>the latency budget has expired since the first packet was added to the buffer,</li>
+ *   <li>{@link #flush()} or {@link #close()} is called.</li>
+ * </ul>
+ * A latency budget of 0 disables coalescing, so that each packet is transmitted immediately. Otherwise the expiration of the latency
+ * budget is monitored by a flusher thread, which is created using the thread factory of the writer once the first packet has been written.
+ * If an I/O error occurs while the flusher thread transmits the buffer, then that error is reported by the next call to one of the methods
+ * of the writer.
+ *
+ * Instances of this class are thread-safe.
+ *
+ * @author  Daan Scheerens
+ */
+public abstract class BufferedIKBusPacketWriter implements IKBusPacketWriter, Flushable {
+	
+	/** The default size in bytes of the buffer in which the packets are coalesced. */
+	public static final int DEFAULT_BUFFER_SIZE = 1024;
+	
+	/** The default maximum time in milliseconds that a packet is kept in the buffer before it is transmitted. */
+	public static final long DEFAULT_LATENCY_BUDGET = 2;
+	
+	/** The buffer in which the packets are encoded before they are transmitted. */
+	private final ByteBuffer buffer;
+	
+	/** Maximum time in nanoseconds that a packet is kept in the buffer before it is transmitted. */
+	private final long latencyBudget;
+	
+	/** Factory used to create the flusher thread. */
+	private final ThreadFactory threadFactory;
+	
+	/** Lock that guards the buffer and the state of the writer. */
+	private final Lock lock = new ReentrantLock();
+	
+	/** Condition that is signaled when the first packet has been added to the buffer or when the writer is closed. */
+	private final Condition packetBuffered = lock.newCondition();
+	
+	/** Time (see {@link System#nanoTime()}) at which the buffer has to be transmitted, if it is not empty. */
+	private long flushDeadline = 0;
+	
+	/** The thread that transmits the buffer once the latency budget has expired, or {@code null} if it has not been started yet. */
+	private Thread flusher = null;
+	
+	/** Error that occurred while the flusher thread transmitted the buffer, which has not yet been reported. */
+	private IKBusIOException flushError = null;
+	
+	/** Whether the writer has been closed. */
+	private boolean closed = false;
+	
+	/**
+	 * Creates a new writer that coalesces the packets in a buffer of the specified size.
+	 *
+	 * @param   bufferSize                Size in bytes of the buffer in which the packets are coalesced.
+	 * @param   latencyBudget             Maximum time in milliseconds that a packet is kept in the buffer before it is transmitted, or 0
+	 *                                    to transmit each packet immediately.
+	 * @param   threadFactory             Factory used to create the flusher thread.
+	 * @throws  IllegalArgumentException  If the buffer size is less than 1 or if the latency budget is negative.
+	 */
+	protected BufferedIKBusPacketWriter(int bufferSize, long latencyBudget, ThreadFactory threadFactory) {
+		if (bufferSize < 1) {
+			throw new IllegalArgumentException("Buffer size should be at least 1, but was " + bufferSize);
+		}
+		if (latencyBudget < 0) {
+			throw new IllegalArgumentException("Latency budget should not be negative, but was " + latencyBudget);
+		}
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		this.latencyBudget = TimeUnit.MILLISECONDS.toNanos(latencyBudget);
+		this.threadFactory = threadFactory;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The packet is encoded into the buffer of the writer and is transmitted together with the other buffered packets. Packets that are
+	 * larger than the buffer are transmitted directly, after the buffered packets.
+	 */
+	@Override
+	public void write(IKBusPacket packet) throws IKBusIOException {
+		lock.lock();
+		try {
+			checkState();
+			
+			// Make room for the packet if it does not fit in the remaining space of the buffer.
+			int length = packet.getRawLength();
+			if (length > buffer.remaining()) {
+				transmitBuffer();
+				if (length > buffer.capacity()) {
+					transmitData(ByteBuffer.wrap(packet.toRaw()));
+					return;
+				}
+			}
+			
+			boolean empty = buffer.position() == 0;
+			packet.writeTo(buffer);
+			
+			if (latencyBudget == 0 || !buffer.hasRemaining()) {
+				transmitBuffer();
+			} else if (empty) {
+				flushDeadline = System.nanoTime() + latencyBudget;
+				if (flusher == null) {
+					flusher = threadFactory.newThread(this::runFlusher);
+					flusher.start();
+				}
+				packetBuffered.signal();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Transmits the packets that are in the buffer immediately, without waiting for the latency budget to expire.
+	 *
+	 * @throws  IKBusIOException  If an I/O error occurs while transmitting the buffer or if the writer has been closed.
+	 */
+	@Override
+	public void flush() throws IKBusIOException {
+		lock.lock();
+		try {
+			checkState();
+			transmitBuffer();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The packets that are still in the buffer are transmitted before the underlying stream is closed.
+	 */
+	@Override
+	public void close() throws IKBusIOException {
+		IKBusIOException error;
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IKBusIOException("Writer has already been closed");
+			}
+			closed = true;
+			packetBuffered.signalAll();
+			
+			error = flushError;
+			if (error == null) {
+				try {
+					transmitBuffer();
+				} catch (IKBusIOException e) {
+					error = e;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		try {
+			closeTarget();
+		} catch (IOException e) {
+			if (error == null) {
+				error = new IKBusIOException(e);
+			}
+		}
+		if (error != null) {
+			throw error;
+		}
+	}
+	
+	/**
+	 * Transmits the specified data to the underlying stream. This method is invoked while holding the lock of the writer, so it is never
+	 * invoked concurrently.
+	 *
+	 * @param   data         Buffer of which all remaining bytes are to be transmitted. The position of the buffer may be advanced.
+	 * @throws  IOException  If an I/O error occurs while transmitting the data.
+	 */
+	protected abstract void transmit(ByteBuffer data) throws IOException;
+	
+	/**
+	 * Closes the underlying stream.
+	 *
+	 * @throws  IOException  If an I/O error occurs while closing the underlying stream.
+	 */
+	protected abstract void closeTarget() throws IOException;
+	
+	/**
+	 * Waits for the latency budget of the buffered packets to expire and then transmits the buffer, until the writer is closed. Executed
+	 * by the flusher thread.
+	 */
+	private void runFlusher() {
+		lock.lock();
+		try {
+			while (!closed) {
+				if (buffer.position() == 0 || flushError != null) {
+					packetBuffered.awaitUninterruptibly();
+					continue;
+				}
+				
+				long remaining = flushDeadline - System.nanoTime();
+				if (remaining > 0) {
+					try {
+						packetBuffered.awaitNanos(remaining);
+					} catch (InterruptedException e) {
+						// Ignored, like the other waits of the flusher, so that the latency budget keeps being enforced.
+					}
+				} else {
+					try {
+						transmitBuffer();
+					} catch (IKBusIOException e) {
+						flushError = e;
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Transmits the contents of the buffer, if it is not empty, after which the buffer is cleared. Should only be called while holding the
+	 * lock.
+	 *
+	 * @throws  IKBusIOException  If an I/O error occurs while transmitting the buffer.
+	 */
+	private void transmitBuffer() throws IKBusIOException {
+		if (buffer.position() == 0) {
+			return;
+		}
+		
+		buffer.flip();
+		try {
+			transmitData(buffer);
+		} finally {
+			buffer.clear();
+		}
+	}
+	
+	/**
+	 * Transmits the remaining bytes of the specified buffer to the underlying stream. Should only be called while holding the lock.
+	 *
+	 * @param   data              Buffer of which all remaining bytes are to be transmitted.
+	 * @throws  IKBusIOException  If an I/O error occurs while transmitting the data.
+	 */
+	private void transmitData(ByteBuffer data) throws IKBusIOException {
+		try {
+			transmit(data);
+		} catch (IOException e) {
+			throw new IKBusIOException(e);
+		}
+	}
+	
+	/**
+	 * Checks that the writer can still be used. Should only be called while holding the lock.
+	 *
+	 * @throws  IKBusIOException  If the writer has been closed or if the flusher thread failed to transmit the buffer.
+	 */
+	private void checkState() throws IKBusIOException {
+		if (closed) {
+			throw new IKBusIOException("Attempted to write to closed writer");
+		}
+		if (flushError != null) {
+			IKBusIOException error = flushError;
+			flushError = null;
+			throw new IKBusIOException("Failed to transmit buffered packets", error);
+		}
+	}
+
+}
@@ -0,0 +1,334 @@
+package net.novazero.lib.ikbus.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An I/K-bus packet reader that reads and parses its data from a {@link ReadableByteChannel}. Unlike the
+ * {@link InputStreamIKBusPacketReader} this reader does not need a dedicated thread to detect timeouts. Instead the time at which the bytes
+ * are received is recorded, so that a packet is considered to be incomplete when the next byte is received too late, or when the reader is
+ * polled after the timeout period has expired.
+ *
+ * Besides the blocking {@link #read()} method, this reader offers a non-blocking API that is intended to be used from a {@link Selector}
+ * loop: {@link #readAvailable()} (or one of the {@code feed} methods) transfers the bytes that have been received into the reader, after
+ * which the resulting stream elements can be retrieved using {@link #poll()}. The {@link #getTimeoutDeadline()} method tells when the
+ * reader should be polled again in order to detect a timeout of the packet that is currently being received.
+ *
+ * Instances of this class are not thread-safe.
+ *
+ * @author  Daan Scheerens
+ */
+public class ChannelIKBusPacketReader implements IKBusPacketReader {
+	
+	/** Size of the buffer that is used to read data from the channel. */
+	private static final int READ_BUFFER_SIZE = 1024;
+	
+	/** The channel from which the packet data is read. */
+	private final ReadableByteChannel channel;
+	
+	/** The timeout period in nanoseconds for reading packets. */
+	private final long packetTimeout;
+	
+	/** Buffer into which the data from the channel is read. */
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	
+	/** Framing engine that splits the data read from the channel into packet stream elements. */
+	private final IKBusPacketFramer framer = new IKBusPacketFramer();
+	
+	/** Queue of stream elements that have been framed, but not yet been returned. */
+	private final Queue<IKBusPacketStreamElement> elements = new ArrayDeque<>();
+	
+	/** Time (see {@link System#nanoTime()}) at which the last byte was received. */
+	private long lastReceiveTime = 0;
+	
+	/** Whether the end of the channel has been reached. */
+	private boolean endOfStreamReached = false;
+	
+	/** Whether the reader has been closed. */
+	private boolean closed = false;
+	
+	/** Selector used by the blocking {@link #read()} method to wait for data from a non-blocking channel. Created on first use. */
+	private Selector selector = null;
+	
+	/**
+	 * Creates a new I/K-bus packet reader that uses the specified channel as its data source and the default packet timeout of
+	 * {@link InputStreamIKBusPacketReader#PACKET_TIMEOUT} milliseconds.
+	 *
+	 * @param  channel  The channel from which the packet data is to be read.
+	 */
+	public ChannelIKBusPacketReader(ReadableByteChannel channel) {
+		this(channel, InputStreamIKBusPacketReader.PACKET_TIMEOUT);
+	}
+	
+	/**
+	 * Creates a new I/K-bus packet reader that uses the specified channel as its data source.
+	 *
+	 * @param  channel        The channel from which the packet data is to be read.
+	 * @param  packetTimeout  The timeout period in milliseconds for reading packets. A packet is considered incomplete when having to wait
+	 *                        longer than this period for the next byte to be received.
+	 */
+	public ChannelIKBusPacketReader(ReadableByteChannel channel, long packetTimeout) {
+		this.channel = channel;
+		this.packetTimeout = TimeUnit.MILLISECONDS.toNanos(packetTimeout);
+	}
+	
+	/**
+	 * Retrieves the channel from which the packet data is read.
+	 *
+	 * @return  The channel from which the packet data is read.
+	 */
+	public ReadableByteChannel getChannel() {
+		return channel;
+	}
+	
+	/**
+	 * Performs a single read operation on the channel and feeds the data that was read into the reader. If the channel is in non-blocking
+	 * mode this method will not block, otherwise it blocks until at least one byte is available. If the end of the channel is reached,
+	 * then the remaining buffered data is framed as well.
+	 *
+	 * @return                    The number of bytes that were read, or -1 if the end of the channel has been reached.
+	 * @throws  IKBusIOException  If an I/O error occurs while reading from the channel.
+	 */
+	public int readAvailable() throws IKBusIOException {
+		checkNotClosed();
+		if (endOfStreamReached) {
+			return -1;
+		}
+		
+		try {
+			readBuffer.clear();
+			int bytesRead = channel.read(readBuffer);
+			if (bytesRead < 0) {
+				endOfStreamReached = true;
+				framer.drain();
+				collectElements();
+			} else {
+				feed(readBuffer.array(), 0, bytesRead, System.nanoTime());
+			}
+			return bytesRead;
+		} catch (IOException e) {
+			throw new IKBusIOException(e);
+		}
+	}
+	
+	/**
+	 * Feeds the bytes that were received from the I/K-bus communication link into the reader. This method can be used instead of
+	 * {@link #readAvailable()} when the data is obtained by other means than reading the channel of the reader.
+	 *
+	 * @param  bytes        Array containing the bytes that were received.
+	 * @param  offset       Index of the first byte in the array that was received.
+	 * @param  length       Number of bytes that were received.
+	 * @param  receiveTime  Time (see {@link System#nanoTime()}) at which the bytes were received.
+	 */
+	public void feed(byte[] bytes, int offset, int length, long receiveTime) {
+		if (length == 0) {
+			return;
+		}
+		expire(receiveTime);
+		framer.append(bytes, offset, length, receiveTime);
+		lastReceiveTime = receiveTime;
+		collectElements();
+	}
+	
+	/**
+	 * Feeds the remaining bytes of the given buffer into the reader. The position of the buffer is advanced to its limit.
+	 *
+	 * @param  bytes        Buffer containing the bytes that were received.
+	 * @param  receiveTime  Time (see {@link System#nanoTime()}) at which the bytes were received.
+	 */
+	public void feed(ByteBuffer bytes, long receiveTime) {
+		if (!bytes.hasRemaining()) {
+			return;
+		}
+		expire(receiveTime);
+		while (bytes.hasRemaining()) {
+			framer.append(bytes.get(), receiveTime);
+		}
+		lastReceiveTime = receiveTime;
+		collectElements();
+	}
+	
+	/**
+	 * Retrieves the next stream element that has been framed from the data fed into the reader, without blocking.
+	 *
+	 * @return  The next stream element or {@code null} if no stream element is available yet.
+	 */
+	public IKBusPacketStreamElement poll() {
+		return poll(System.nanoTime());
+	}
+	
+	/**
+	 * Retrieves the next stream element that has been framed from the data fed into the reader, without blocking. The specified time is
+	 * used to determine whether the packet that is currently being received has timed out.
+	 *
+	 * @param   now  The current time (see {@link System#nanoTime()}).
+	 * @return       The next stream element or {@code null} if no stream element is available yet.
+	 */
+	public IKBusPacketStreamElement poll(long now) {
+		if (elements.isEmpty()) {
+			expire(now);
+		}
+		return elements.poll();
+	}
+	
+	/**
+	 * Checks whether the reader is waiting for the remainder of a packet, which might time out. If so, {@link #getTimeoutDeadline()}
+	 * returns the moment at which this happens.
+	 *
+	 * @return  {@code true} if a packet is being received that might time out, {@code false} if not.
+	 */
+	public boolean isAwaitingTimeout() {
+		return framer.bufferedLength() > 0;
+	}
+	
+	/**
+	 * Retrieves the time (see {@link System#nanoTime()}) at which the packet that is currently being received times out. The value
+	 * returned by this method is only meaningful if {@link #isAwaitingTimeout()} returns {@code true}.
+	 *
+	 * @return  The time at which the packet that is currently being received times out.
+	 */
+	public long getTimeoutDeadline() {
+		return lastReceiveTime + packetTimeout;
+	}
+	
+	/**
+	 * Checks whether the end of the channel has been reached and all stream elements have been retrieved.
+	 *
+	 * @return  {@code true} if no more stream elements will become available, {@code false} if not.
+	 */
+	public boolean isExhausted() {
+		return endOfStreamReached && elements.isEmpty() && framer.isEmpty();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * If the channel is a {@link SelectableChannel} in non-blocking mode, then this method waits for data using a selector, so that
+	 * timeouts are detected as soon as they occur. For blocking channels a timeout is detected once the next byte is received.
+	 */
+	@Override
+	public IKBusPacketStreamElement read() throws IKBusIOException {
+		checkNotClosed();
+		
+		try {
+			while (true) {
+				IKBusPacketStreamElement element = poll();
+				if (element != null || endOfStreamReached) {
+					return element;
+				}
+				
+				// Wait for more data if the channel is non-blocking.
+				if (channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking()) {
+					if (selector == null) {
+						selector = Selector.open();
+						((SelectableChannel) channel).register(selector, SelectionKey.OP_READ);
+					}
+					if (isAwaitingTimeout()) {
+						long remaining = getTimeoutDeadline() - System.nanoTime();
+						if (remaining > 0) {
+							selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+						}
+					} else {
+						selector.select();
+					}
+					selector.selectedKeys().clear();
+				}
+				
+				readAvailable();
+			}
+		} catch (IOException e) {
+			throw e instanceof IKBusIOException ? (IKBusIOException) e : new IKBusIOException(e);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * After the first stream element has been read, the stream elements which have already been framed are returned. If the channel is a
+	 * {@link SelectableChannel} in non-blocking mode, then the data that is available from the channel is read as well.
+	 */
+	@Override
+	public int readBatch(IKBusPacketStreamElement[] sink, int max) throws IKBusIOException {
+		// Wait for the first stream element.
+		IKBusPacketStreamElement element = read();
+		if (element == null) {
+			return -1;
+		}
+		sink[0] = element;
+		int count = 1;
+		
+		// Add the stream elements that can be determined without having to wait for more data.
+		boolean nonBlocking = channel instanceof SelectableChannel && !((SelectableChannel) channel).isBlocking();
+		while (count < max) {
+			element = poll();
+			if (element != null) {
+				sink[count++] = element;
+			} else if (!nonBlocking || endOfStreamReached || readAvailable() == 0) {
+				break;
+			}
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IKBusIOException {
+		if (closed) {
+			throw new IKBusIOException("Reader has already been closed");
+		}
+		closed = true;
+		
+		try {
+			if (selector != null) {
+				selector.close();
+			}
+			channel.close();
+		} catch (IOException e) {
+			throw new IKBusIOException(e);
+		}
+	}
+	
+	/**
+	 * Drains the packet that is currently being received if the timeout period since the last received byte has expired.
+	 *
+	 * @param  now  The current time (see {@link System#nanoTime()}).
+	 */
+	private void expire(long now) {
+		if (framer.bufferedLength() > 0 && now - lastReceiveTime >= packetTimeout) {
+			framer.drain();
+			collectElements();
+		}
+	}
+	
+	/**
+	 * Moves all stream elements that can be determined by the framer into the queue of stream elements.
+	 */
+	private void collectElements() {
+		IKBusPacketStreamElement element;
+		while ((element = framer.poll()) != null) {
+			elements.add(element);
+		}
+	}
+	
+	/**
+	 * Checks whether the reader has not been closed yet.
+	 *
+	 * @throws  IKBusIOException  If the reader has been closed.
+	 */
+	private void checkNotClosed() throws IKBusIOException {
+		if (closed) {
+			throw new IKBusIOException("Attempted to read from closed reader");
+		}
+	}
+
+}
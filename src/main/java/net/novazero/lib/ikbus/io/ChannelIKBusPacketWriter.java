@@ -0,0 +1,117 @@
+package net.novazero.lib.ikbus.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An I/K-bus packet writer that writes its data to a {@link WritableByteChannel}. Packets that are written shortly after each other are
+ * coalesced into a single write operation on the channel (see {@link BufferedIKBusPacketWriter}). Channels in non-blocking mode are
+ * supported as well: the writer then waits until the channel is ready to accept the remaining data.
+ *
+ * @author  Daan Scheerens
+ */
+public class ChannelIKBusPacketWriter extends BufferedIKBusPacketWriter {
+	
+	/** The channel to which the packet data is written. */
+	private final WritableByteChannel channel;
+	
+	/** Selector used to wait until a non-blocking channel can accept more data. Created on first use. */
+	private Selector selector = null;
+	
+	/**
+	 * Creates a new I/K-bus packet writer that uses the specified channel as its destination, with the default buffer size and latency
+	 * budget.
+	 *
+	 * @param  channel  The channel to which the packet data is to be written.
+	 */
+	public ChannelIKBusPacketWriter(WritableByteChannel channel) {
+		this(channel, DEFAULT_BUFFER_SIZE, DEFAULT_LATENCY_BUDGET);
+	}
+	
+	/**
+	 * Creates a new I/K-bus packet writer that uses the specified channel as its destination.
+	 *
+	 * @param  channel        The channel to which the packet data is to be written.
+	 * @param  bufferSize     Size in bytes of the buffer in which the packets are coalesced.
+	 * @param  latencyBudget  Maximum time in milliseconds that a packet is kept in the buffer before it is transmitted, or 0 to transmit
+	 *                        each packet immediately.
+	 */
+	public ChannelIKBusPacketWriter(WritableByteChannel channel, int bufferSize, long latencyBudget) {
+		this(channel, bufferSize, latencyBudget, ReaderThreadFactory.platform().withNamePrefix("ikbus-flusher"));
+	}
+	
+	/**
+	 * Creates a new I/K-bus packet writer that uses the specified channel as its destination.
+	 *
+	 * @param  channel        The channel to which the packet data is to be written.
+	 * @param  bufferSize     Size in bytes of the buffer in which the packets are coalesced.
+	 * @param  latencyBudget  Maximum time in milliseconds that a packet is kept in the buffer before it is transmitted, or 0 to transmit
+	 *                        each packet immediately.
+	 * @param  threadFactory  Factory used to create the thread that transmits the buffer once the latency budget has expired.
+	 */
+	public ChannelIKBusPacketWriter(WritableByteChannel channel, int bufferSize, long latencyBudget, ThreadFactory threadFactory) {
+		super(bufferSize, latencyBudget, threadFactory);
+		this.channel = channel;
+	}
+	
+	/**
+	 * Retrieves the channel to which the packet data is written.
+	 *
+	 * @return  The channel to which the packet data is written.
+	 */
+	public WritableByteChannel getChannel() {
+		return channel;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void transmit(ByteBuffer data) throws IOException {
+		while (data.hasRemaining()) {
+			if (channel.write(data) == 0) {
+				awaitWritable();
+			}
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void closeTarget() throws IOException {
+		try {
+			if (selector != null) {
+				selector.close();
+			}
+		} finally {
+			channel.close();
+		}
+	}
+	
+	/**
+	 * Waits until the channel is able to accept more data. Only has effect for selectable channels in non-blocking mode, for other channels
+	 * the calling thread merely yields.
+	 *
+	 * @throws  IOException  If an I/O error occurs while waiting for the channel.
+	 */
+	private void awaitWritable() throws IOException {
+		if (!(channel instanceof SelectableChannel) || ((SelectableChannel) channel).isBlocking()) {
+			Thread.yield();
+			return;
+		}
+		
+		if (selector == null) {
+			selector = Selector.open();
+			((SelectableChannel) channel).register(selector, SelectionKey.OP_WRITE);
+		}
+		selector.select();
+		selector.selectedKeys().clear();
+	}
+
+}
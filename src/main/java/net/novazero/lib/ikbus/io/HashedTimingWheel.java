@@ -0,0 +1,205 @@
+package net.novazero.lib.ikbus.io;
+
+import java.util.function.Consumer;
+
+/**
+ * Timer that keeps track of a large number of timeouts at a constant cost per timeout. Time is divided into ticks of a fixed duration.
+ * Timeouts are stored in a circular array of buckets ("wheel"), in the bucket of the tick at which they expire. A timeout that expires more
+ * than one revolution of the wheel ahead keeps track of the number of remaining revolutions. Scheduling and cancelling a timeout takes
+ * constant time, while advancing the wheel by one tick only visits the timeouts of a single bucket.
+ *
+ * The wheel does not have a thread of its own: {@link #advance(long, Consumer)} has to be called periodically, preferably at
+ * {@link #getNextTickTime()}. Timeouts expire at the first tick that is at or after their deadline, so they may expire up to one tick
+ * duration late. Instances of this class are not thread-safe.
+ *
+ * @param  <T>  The type of the items that are associated with the timeouts.
+ *
+ * @author  Daan Scheerens
+ */
+final class HashedTimingWheel<T> {
+	
+	/** Duration of a single tick in nanoseconds. */
+	private final long tickDuration;
+	
+	/** Time (see {@link System#nanoTime()}) at which the wheel was created. Tick {@code t} occurs at {@code startTime + t * tickDuration}. */
+	private final long startTime;
+	
+	/** Mask that maps a tick to the index of its bucket. */
+	private final int mask;
+	
+	/** Head of the doubly linked list of timeouts for each bucket. */
+	private final Timeout<T>[] buckets;
+	
+	/** The next tick that is to be processed. */
+	private long tick = 0;
+	
+	/** Number of timeouts that are scheduled. */
+	private int size = 0;
+	
+	/**
+	 * Creates a new timing wheel.
+	 *
+	 * @param   tickDuration              Duration of a single tick in nanoseconds.
+	 * @param   wheelSize                 Number of buckets of the wheel, should be a power of two.
+	 * @param   startTime                 The current time (see {@link System#nanoTime()}).
+	 * @throws  IllegalArgumentException  If the tick duration is not positive or if the wheel size is not a power of two.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public HashedTimingWheel(long tickDuration, int wheelSize, long startTime) {
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("Tick duration should be positive, but was " + tickDuration);
+		}
+		if (wheelSize <= 0 || Integer.bitCount(wheelSize) != 1) {
+			throw new IllegalArgumentException("Wheel size should be a power of two, but was " + wheelSize);
+		}
+		this.tickDuration = tickDuration;
+		this.startTime = startTime;
+		this.mask = wheelSize - 1;
+		this.buckets = new Timeout[wheelSize];
+	}
+	
+	/**
+	 * Schedules a timeout for the specified item.
+	 *
+	 * @param   item      The item which is associated with the timeout.
+	 * @param   deadline  Time (see {@link System#nanoTime()}) at which the timeout expires.
+	 * @return            The timeout, which can be used to cancel it.
+	 */
+	public Timeout<T> schedule(T item, long deadline) {
+		long elapsed = deadline - startTime;
+		long expirationTick = elapsed <= 0 ? 0 : (elapsed - 1) / tickDuration + 1;
+		if (expirationTick < tick) {
+			expirationTick = tick;
+		}
+		
+		Timeout<T> timeout = new Timeout<>(item, (expirationTick - tick) / buckets.length);
+		timeout.bucket = (int) (expirationTick & mask);
+		timeout.next = buckets[timeout.bucket];
+		if (timeout.next != null) {
+			timeout.next.previous = timeout;
+		}
+		buckets[timeout.bucket] = timeout;
+		size++;
+		return timeout;
+	}
+	
+	/**
+	 * Cancels the specified timeout, if it has not expired or been cancelled yet.
+	 *
+	 * @param   timeout  The timeout which is to be cancelled.
+	 * @return           {@code true} if the timeout was cancelled, {@code false} if it already expired or was cancelled before.
+	 */
+	public boolean cancel(Timeout<T> timeout) {
+		if (timeout.bucket < 0) {
+			return false;
+		}
+		unlink(timeout);
+		return true;
+	}
+	
+	/**
+	 * Processes all ticks up to the specified time, which causes the timeouts whose deadline has passed to expire.
+	 *
+	 * @param   now      The current time (see {@link System#nanoTime()}).
+	 * @param   expired  Consumer that receives the items of the expired timeouts.
+	 * @return           The number of timeouts that expired.
+	 */
+	public int advance(long now, Consumer<? super T> expired) {
+		int count = 0;
+		while (getNextTickTime() - now <= 0) {
+			Timeout<T> timeout = buckets[(int) (tick & mask)];
+			while (timeout != null) {
+				Timeout<T> next = timeout.next;
+				if (timeout.remainingRounds <= 0) {
+					unlink(timeout);
+					expired.accept(timeout.item);
+					count++;
+				} else {
+					timeout.remainingRounds--;
+				}
+				timeout = next;
+			}
+			tick++;
+			
+			// Skip the ticks of empty revolutions at once.
+			if (size == 0 && getNextTickTime() - now <= 0) {
+				tick = Math.max(tick, (now - startTime) / tickDuration + 1);
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Retrieves the time of the next tick, at which {@link #advance(long, Consumer)} should be called again.
+	 *
+	 * @return  Time (see {@link System#nanoTime()}) of the next tick.
+	 */
+	public long getNextTickTime() {
+		return startTime + tick * tickDuration;
+	}
+	
+	/**
+	 * Checks whether there are no scheduled timeouts.
+	 *
+	 * @return  {@code true} if there are no scheduled timeouts, {@code false} if there are.
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	
+	/**
+	 * Removes a timeout from the list of its bucket.
+	 *
+	 * @param  timeout  The timeout which is to be removed.
+	 */
+	private void unlink(Timeout<T> timeout) {
+		if (timeout.previous != null) {
+			timeout.previous.next = timeout.next;
+		} else {
+			buckets[timeout.bucket] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.previous = timeout.previous;
+		}
+		timeout.previous = null;
+		timeout.next = null;
+		timeout.bucket = -1;
+		size--;
+	}
+	
+	/**
+	 * A timeout that is scheduled on the wheel.
+	 *
+	 * @param  <T>  The type of the item that is associated with the timeout.
+	 */
+	static final class Timeout<T> {
+		
+		/** The item which is associated with the timeout. */
+		private final T item;
+		
+		/** Number of revolutions of the wheel that remain before the timeout expires. */
+		private long remainingRounds;
+		
+		/** Index of the bucket that holds the timeout, or -1 if the timeout expired or was cancelled. */
+		private int bucket;
+		
+		/** Previous timeout in the same bucket. */
+		private Timeout<T> previous;
+		
+		/** Next timeout in the same bucket. */
+		private Timeout<T> next;
+		
+		/**
+		 * Creates a new {@link Timeout} instance.
+		 *
+		 * @param  item             The item which is associated with the timeout.
+		 * @param  remainingRounds  Number of revolutions of the wheel that remain before the timeout expires.
+		 */
+		private Timeout(T item, long remainingRounds) {
+			this.item = item;
+			this.remainingRounds = remainingRounds;
+		}
+	
+	}
+
+}
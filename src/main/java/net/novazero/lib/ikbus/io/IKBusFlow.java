@@ -0,0 +1,95 @@
+package net.novazero.lib.ikbus.io;
+
+/**
+ * Interfaces for establishing flow-controlled components in which publishers produce items that are consumed by one or more subscribers,
+ * each managed by a subscription. The interfaces are equivalent to those of {@code java.util.concurrent.Flow} (and the Reactive Streams
+ * specification), which is not available on Java 8. Implementations can therefore easily be adapted to {@code java.util.concurrent.Flow}
+ * or to other Reactive Streams libraries by delegating each method.
+ *
+ * @author  Daan Scheerens
+ */
+public final class IKBusFlow {
+	
+	/**
+	 * Private constructor to prevent instantiation of this class.
+	 */
+	private IKBusFlow() {
+	}
+	
+	/**
+	 * A producer of items that are received by subscribers. Each subscriber receives the same items in the same order, unless items are
+	 * dropped due to an overflow of the buffer of the publisher.
+	 *
+	 * @param  <T>  The type of the items that are published.
+	 */
+	@FunctionalInterface
+	public interface Publisher<T> {
+		
+		/**
+		 * Adds the given subscriber. The {@link Subscriber#onSubscribe(Subscription)} method of the subscriber is invoked with a new
+		 * subscription. If the subscriber cannot be added, then {@link Subscriber#onError(Throwable)} is invoked after that.
+		 *
+		 * @param  subscriber  The subscriber which is to be added.
+		 */
+		void subscribe(Subscriber<? super T> subscriber);
+	
+	}
+	
+	/**
+	 * A receiver of items. The methods of a subscriber are invoked serially for each subscription, so a subscriber does not need to be
+	 * thread-safe.
+	 *
+	 * @param  <T>  The type of the items that are received.
+	 */
+	public interface Subscriber<T> {
+		
+		/**
+		 * Invoked before any other method of the subscriber is invoked for the given subscription. No items will be received until
+		 * {@link Subscription#request(long)} has been called.
+		 *
+		 * @param  subscription  The subscription of the subscriber.
+		 */
+		void onSubscribe(Subscription subscription);
+		
+		/**
+		 * Invoked with the next item of the subscription.
+		 *
+		 * @param  item  The next item.
+		 */
+		void onNext(T item);
+		
+		/**
+		 * Invoked when an unrecoverable error has occurred, after which no other methods are invoked for the subscription.
+		 *
+		 * @param  throwable  The error that occurred.
+		 */
+		void onError(Throwable throwable);
+		
+		/**
+		 * Invoked when no more items will be received for the subscription, after which no other methods are invoked.
+		 */
+		void onComplete();
+	
+	}
+	
+	/**
+	 * Link between a publisher and a subscriber, which is used to control the flow of items.
+	 */
+	public interface Subscription {
+		
+		/**
+		 * Adds the given number of items to the unfulfilled demand of the subscription. If the number is not positive, then the
+		 * subscriber is notified using {@link Subscriber#onError(Throwable)} with an {@link IllegalArgumentException}.
+		 *
+		 * @param  n  The number of additional items that the subscriber is able to receive.
+		 */
+		void request(long n);
+		
+		/**
+		 * Causes the subscriber to (eventually) stop receiving items.
+		 */
+		void cancel();
+	
+	}
+
+}
@@ -0,0 +1,77 @@
+package net.novazero.lib.ikbus.io;
+
+import java.util.concurrent.ThreadFactory;
+
+import net.novazero.lib.ikbus.IKBusMessage;
+import net.novazero.lib.ikbus.IKBusMessageParseException;
+import net.novazero.lib.ikbus.IKBusMessageParser;
+
+/**
+ * Publisher of the I/K-bus messages that are parsed from the valid packets read from an {@link IKBusPacketReader}. Corrupted data, packets
+ * that are not recognized by the parser and packets for which the parser throws an {@link IKBusMessageParseException} are skipped. To
+ * publish unrecognized packets as well, the parser can be wrapped in an {@link net.novazero.lib.ikbus.UnknownIKBusMessageCatcher}. See
+ * {@link BaseIKBusPublisher} for a description of the flow control.
+ *
+ * @author  Daan Scheerens
+ */
+public class IKBusMessagePublisher extends BaseIKBusPublisher<IKBusMessage> {
+	
+	/** The parser that is used to parse the messages from the packets. */
+	private final IKBusMessageParser parser;
+	
+	/**
+	 * Creates a new publisher for the messages parsed from the packets read from the specified packet reader. The publisher buffers up to
+	 * {@link BaseIKBusPublisher#DEFAULT_BUFFER_CAPACITY} messages and stops reading when the buffer is full.
+	 *
+	 * @param  reader  The packet reader from which the packets are read.
+	 * @param  parser  The parser that is used to parse the messages from the packets.
+	 */
+	public IKBusMessagePublisher(IKBusPacketReader reader, IKBusMessageParser parser) {
+		this(reader, parser, DEFAULT_BUFFER_CAPACITY, OverflowPolicy.BLOCK);
+	}
+	
+	/**
+	 * Creates a new publisher for the messages parsed from the packets read from the specified packet reader.
+	 *
+	 * @param   reader                    The packet reader from which the packets are read.
+	 * @param   parser                    The parser that is used to parse the messages from the packets.
+	 * @param   bufferCapacity            Maximum number of messages that are buffered for the subscriber.
+	 * @param   overflowPolicy            Policy which determines what happens when the buffer is full.
+	 * @throws  IllegalArgumentException  If the buffer capacity is less than 1.
+	 */
+	public IKBusMessagePublisher(IKBusPacketReader reader, IKBusMessageParser parser, int bufferCapacity, OverflowPolicy overflowPolicy) {
+		this(reader, parser, bufferCapacity, overflowPolicy, ReaderThreadFactory.platform());
+	}
+	
+	/**
+	 * Creates a new publisher for the messages parsed from the packets read from the specified packet reader.
+	 *
+	 * @param   reader                    The packet reader from which the packets are read.
+	 * @param   parser                    The parser that is used to parse the messages from the packets.
+	 * @param   bufferCapacity            Maximum number of messages that are buffered for the subscriber.
+	 * @param   overflowPolicy            Policy which determines what happens when the buffer is full.
+	 * @param   threadFactory             Factory used to create the thread that reads from the packet reader.
+	 * @throws  IllegalArgumentException  If the buffer capacity is less than 1.
+	 */
+	public IKBusMessagePublisher(IKBusPacketReader reader, IKBusMessageParser parser, int bufferCapacity, OverflowPolicy overflowPolicy,
+			ThreadFactory threadFactory) {
+		super(reader, bufferCapacity, overflowPolicy, threadFactory);
+		this.parser = parser;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected IKBusMessage convert(IKBusPacketStreamElement element) {
+		if (!element.isValidPacket()) {
+			return null;
+		}
+		try {
+			return parser.parseMessage(element.getPacket());
+		} catch (IKBusMessageParseException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,321 @@
+package net.novazero.lib.ikbus.io;
+
+import net.novazero.lib.ikbus.IKBusPacket;
+
+/**
+ * Framing engine that splits a sequence of raw bytes into I/K-bus packet stream elements. Bytes are appended to the framer as they are
+ * received from the I/K-bus communication link, after which {@link #poll()} can be used to extract the stream elements that can be
+ * determined from the bytes received so far.
+ *
+ * The framer stores the received bytes in a primitive ring buffer. The section between the head and the mark of the ring buffer holds the
+ * bytes which cannot be part of a valid packet (corrupted data), while the section between the mark and the tail holds the bytes of the
+ * packet that is currently being assembled. No allocations are made for the individual bytes that are appended, only for the stream elements
+ * that are emitted and when the ring buffer has to grow to accommodate a long sequence of corrupted data.
+ *
+ * Along with every byte the time at which it was received is stored in a second ring buffer, so that the emitted stream elements can report
+ * when their first and last byte were received (see {@link IKBusPacketStreamElement#getFirstByteTime()}).
+ *
+ * To resynchronize quickly after noise on the bus, the framer also keeps track of the running XOR value of all bytes appended so far. For
+ * every byte the running XOR value of the bytes preceding it is stored in a third ring buffer. The checksum of any candidate packet is then
+ * obtained by combining two of these prefix values, which makes checking a candidate a constant time operation. Since every byte is
+ * discarded at most once, the time required to process a stream is linear in its length, even for long sequences of corrupted data.
+ *
+ * Instances of this class are not thread-safe.
+ *
+ * @author  Daan Scheerens
+ */
+public class IKBusPacketFramer {
+	
+	/** Minimal length of a valid I/K-bus packet. */
+	public static final int MINIMAL_PACKET_LENGTH = 4;
+	
+	/** Maximum length of a valid I/K-bus packet. */
+	public static final int MAXIMAL_PACKET_LENGTH = 0xFF + 2;
+	
+	/** Initial capacity of the ring buffer, which is large enough to hold at least one packet of the maximal length. */
+	private static final int INITIAL_CAPACITY = 512;
+	
+	/** Ring buffer which holds the bytes that have not yet been emitted. The length of this array is always a power of two. */
+	private byte[] buffer = new byte[INITIAL_CAPACITY];
+	
+	/** Ring buffer which holds the times ({@link System#nanoTime()}) at which the bytes in the byte ring buffer were received. */
+	private long[] times = new long[INITIAL_CAPACITY];
+	
+	/** Ring buffer which holds, for every byte in the byte ring buffer, the XOR value of all bytes that were appended before it. */
+	private byte[] prefixes = new byte[INITIAL_CAPACITY];
+	
+	/** XOR value of all bytes that have been appended to the framer. */
+	private byte runningChecksum = 0;
+	
+	/** Offset in nanoseconds that converts the receive times to wall-clock time. */
+	private final long wallClockOffset = System.currentTimeMillis() * 1000000L - System.nanoTime();
+	
+	/** Bit mask used to map the head, mark and tail indices onto the ring buffer. */
+	private int mask = INITIAL_CAPACITY - 1;
+	
+	/** Index of the first byte of corrupted data. */
+	private int head = 0;
+	
+	/** Index of the first byte of the packet that is currently being assembled. */
+	private int mark = 0;
+	
+	/** Index of the position where the next byte will be appended. */
+	private int tail = 0;
+	
+	/**
+	 * Whether the framer is draining its buffer, i.e. the bytes in the buffer will not be followed by more bytes of the same transmission
+	 * (due to a timeout or because the end of the stream has been reached).
+	 */
+	private boolean draining = false;
+	
+	/** Stream element that is to be returned by the next call to {@link #poll()}. */
+	private IKBusPacketStreamElement pendingElement = null;
+	
+	/**
+	 * Appends a byte that was received from the I/K-bus communication link to the framer, using the current time as its receive time.
+	 *
+	 * @param  b  The byte that was received.
+	 */
+	public void append(byte b) {
+		append(b, System.nanoTime());
+	}
+	
+	/**
+	 * Appends a byte that was received from the I/K-bus communication link to the framer.
+	 *
+	 * @param  b            The byte that was received.
+	 * @param  receiveTime  The time ({@link System#nanoTime()}) at which the byte was received.
+	 */
+	public void append(byte b, long receiveTime) {
+		if (tail - head == buffer.length) {
+			grow();
+		}
+		buffer[tail & mask] = b;
+		times[tail & mask] = receiveTime;
+		prefixes[tail & mask] = runningChecksum;
+		runningChecksum ^= b;
+		tail++;
+	}
+	
+	/**
+	 * Appends a sequence of bytes that was received from the I/K-bus communication link to the framer, using the current time as their
+	 * receive time.
+	 *
+	 * @param  bytes   Array containing the bytes that were received.
+	 * @param  offset  Index of the first byte in the array that is to be appended.
+	 * @param  length  Number of bytes that are to be appended.
+	 */
+	public void append(byte[] bytes, int offset, int length) {
+		append(bytes, offset, length, System.nanoTime());
+	}
+	
+	/**
+	 * Appends a sequence of bytes that was received from the I/K-bus communication link to the framer.
+	 *
+	 * @param  bytes        Array containing the bytes that were received.
+	 * @param  offset       Index of the first byte in the array that is to be appended.
+	 * @param  length       Number of bytes that are to be appended.
+	 * @param  receiveTime  The time ({@link System#nanoTime()}) at which the bytes were received.
+	 */
+	public void append(byte[] bytes, int offset, int length, long receiveTime) {
+		for (int index = offset; index < offset + length; index++) {
+			append(bytes[index], receiveTime);
+		}
+	}
+	
+	/**
+	 * Retrieves the number of bytes of the packet that is currently being assembled. This excludes the bytes that are known to be corrupted.
+	 *
+	 * @return  The number of bytes of the packet that is currently being assembled.
+	 */
+	public int bufferedLength() {
+		return tail - mark;
+	}
+	
+	/**
+	 * Checks whether the framer holds no more bytes or stream elements that have not been emitted.
+	 *
+	 * @return  {@code true} if there is nothing left to emit, {@code false} if not.
+	 */
+	public boolean isEmpty() {
+		return tail == head && pendingElement == null;
+	}
+	
+	/**
+	 * Checks whether the framer is currently draining its buffer (see {@link #drain()}).
+	 *
+	 * @return  {@code true} if the framer is draining its buffer, {@code false} if not.
+	 */
+	public boolean isDraining() {
+		return draining;
+	}
+	
+	/**
+	 * Signals the framer that the bytes which are currently buffered will not be followed by more bytes of the same transmission. This is
+	 * the case when a timeout occurs while waiting for the next byte, or when the end of the stream has been reached. The packet that is
+	 * currently being assembled is then considered to be incomplete. Subsequent calls to {@link #poll()} will extract the remaining valid
+	 * packets and corrupted data from the buffer until it has been emptied.
+	 */
+	public void drain() {
+		draining = tail != head;
+	}
+	
+	/**
+	 * Extracts the next stream element from the bytes that have been appended to the framer. If the framer is not draining its buffer
+	 * and more bytes are required to determine the next stream element, then this method returns {@code null}. While draining this method
+	 * only returns {@code null} once the buffer has been emptied.
+	 *
+	 * @return  The next stream element or {@code null} if more data is required.
+	 */
+	public IKBusPacketStreamElement poll() {
+		// Return pending element if there is any.
+		if (pendingElement != null) {
+			IKBusPacketStreamElement result = pendingElement;
+			pendingElement = null;
+			return result;
+		}
+		
+		// Check for a valid packet sequence and purge bytes of the packet buffer if they cannot be part of a valid packet sequence.
+		while (true) {
+			int bufferedLength = tail - mark;
+			
+			// Only check packet buffer if the packet length byte is available.
+			boolean moreDataRequired = true;
+			if (bufferedLength > 1) {
+				int expectedPacketLength = (buffer[(mark + 1) & mask] & 0xFF) + 2;
+				if (expectedPacketLength < MINIMAL_PACKET_LENGTH) {
+					// The expected length of the packet is less than the minimal packet length, so this cannot be valid.
+					moreDataRequired = false;
+				} else if (bufferedLength >= expectedPacketLength) {
+					// Possible complete packet sequence found, check if the checksum matches with the one in the packet.
+					if (checksum(mark, expectedPacketLength) == 0) {
+						// Return the packet unless it is preceded by corrupted data, in which case the packet becomes pending.
+						if (mark != head) {
+							IKBusPacketStreamElement corruptedData = takeCorruptedData();
+							pendingElement = takePacket(expectedPacketLength);
+							return corruptedData;
+						}
+						return takePacket(expectedPacketLength);
+					}
+					
+					// Checksum does not match, so this is an invalid packet sequence.
+					moreDataRequired = false;
+				}
+			}
+			
+			if (!moreDataRequired) {
+				// Purge first byte from packet buffer since it does not constitute to a valid packet sequence.
+				mark++;
+			} else if (!draining) {
+				// Wait for more data to arrive.
+				return null;
+			} else if (bufferedLength > MINIMAL_PACKET_LENGTH) {
+				// The remaining bytes may still contain a valid packet, so only discard the first byte.
+				mark++;
+			} else {
+				// The remaining bytes cannot contain a valid packet, so return everything that is left as corrupted data.
+				mark = tail;
+				draining = false;
+				return head == mark ? null : takeCorruptedData();
+			}
+		}
+	}
+	
+	/**
+	 * Computes the XOR checksum over a section of the ring buffer in constant time, using the prefix XOR values of the bytes.
+	 *
+	 * @param   start   Index of the first byte of the section.
+	 * @param   length  Length of the section.
+	 * @return          The XOR checksum of all bytes in the section.
+	 */
+	private byte checksum(int start, int length) {
+		int end = start + length;
+		byte endPrefix = end == tail ? runningChecksum : prefixes[end & mask];
+		return (byte) (prefixes[start & mask] ^ endPrefix);
+	}
+	
+	/**
+	 * Creates a stream element for the valid packet at the mark of the ring buffer and advances the head and mark past the packet. This
+	 * method should only be called when there is no corrupted data in front of the packet.
+	 *
+	 * @param   packetLength  Total length of the packet.
+	 * @return                A stream element for the packet.
+	 */
+	private IKBusPacketStreamElement takePacket(int packetLength) {
+		byte[] frame = copy(mark, packetLength);
+		long firstByteTime = times[mark & mask];
+		long lastByteTime = times[(mark + packetLength - 1) & mask];
+		mark += packetLength;
+		head = mark;
+		stopDrainingIfEmpty();
+		
+		// The frame is shared by the stream element and the packet, which uses it both for its payload and as its raw format.
+		IKBusPacket packet = IKBusPacket.wrapFrame(frame);
+		return IKBusPacketStreamElement.valid(packet, frame, firstByteTime, lastByteTime, wallClockOffset);
+	}
+	
+	/**
+	 * Creates a stream element for the corrupted data between the head and the mark of the ring buffer and advances the head to the mark.
+	 *
+	 * @return  A stream element for the corrupted data.
+	 */
+	private IKBusPacketStreamElement takeCorruptedData() {
+		byte[] data = copy(head, mark - head);
+		long firstByteTime = times[head & mask];
+		long lastByteTime = times[(mark - 1) & mask];
+		head = mark;
+		stopDrainingIfEmpty();
+		return IKBusPacketStreamElement.invalid(data, firstByteTime, lastByteTime, wallClockOffset);
+	}
+	
+	/**
+	 * Ends the draining of the buffer once it has been emptied.
+	 */
+	private void stopDrainingIfEmpty() {
+		if (tail == head) {
+			draining = false;
+		}
+	}
+	
+	/**
+	 * Copies a section of the ring buffer to a new array.
+	 *
+	 * @param   start   Index of the first byte of the section.
+	 * @param   length  Length of the section.
+	 * @return          An array containing the bytes of the section.
+	 */
+	private byte[] copy(int start, int length) {
+		byte[] result = new byte[length];
+		int offset = start & mask;
+		int firstPartLength = Math.min(length, buffer.length - offset);
+		System.arraycopy(buffer, offset, result, 0, firstPartLength);
+		System.arraycopy(buffer, 0, result, firstPartLength, length - firstPartLength);
+		return result;
+	}
+	
+	/**
+	 * Doubles the capacity of the ring buffer.
+	 */
+	private void grow() {
+		int length = tail - head;
+		byte[] newBuffer = new byte[buffer.length * 2];
+		long[] newTimes = new long[times.length * 2];
+		byte[] newPrefixes = new byte[prefixes.length * 2];
+		int offset = head & mask;
+		int firstPartLength = Math.min(length, buffer.length - offset);
+		System.arraycopy(buffer, offset, newBuffer, 0, firstPartLength);
+		System.arraycopy(buffer, 0, newBuffer, firstPartLength, length - firstPartLength);
+		System.arraycopy(times, offset, newTimes, 0, firstPartLength);
+		System.arraycopy(times, 0, newTimes, firstPartLength, length - firstPartLength);
+		System.arraycopy(prefixes, offset, newPrefixes, 0, firstPartLength);
+		System.arraycopy(prefixes, 0, newPrefixes, firstPartLength, length - firstPartLength);
+		mark -= head;
+		tail = length;
+		head = 0;
+		buffer = newBuffer;
+		times = newTimes;
+		prefixes = newPrefixes;
+		mask = newBuffer.length - 1;
+	}
+
+}
@@ -0,0 +1,56 @@
+package net.novazero.lib.ikbus.io;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Publisher of the I/K-bus packet stream elements that are read from an {@link IKBusPacketReader}. Both valid packets and corrupted data
+ * are published. See {@link BaseIKBusPublisher} for a description of the flow control.
+ *
+ * @author  Daan Scheerens
+ */
+public class IKBusPacketPublisher extends BaseIKBusPublisher<IKBusPacketStreamElement> {
+	
+	/**
+	 * Creates a new publisher for the stream elements read from the specified packet reader. The publisher buffers up to
+	 * {@link BaseIKBusPublisher#DEFAULT_BUFFER_CAPACITY} stream elements and stops reading when the buffer is full.
+	 *
+	 * @param  reader  The packet reader from which the stream elements are read.
+	 */
+	public IKBusPacketPublisher(IKBusPacketReader reader) {
+		this(reader, DEFAULT_BUFFER_CAPACITY, OverflowPolicy.BLOCK);
+	}
+	
+	/**
+	 * Creates a new publisher for the stream elements read from the specified packet reader.
+	 *
+	 * @param   reader                    The packet reader from which the stream elements are read.
+	 * @param   bufferCapacity            Maximum number of stream elements that are buffered for the subscriber.
+	 * @param   overflowPolicy            Policy which determines what happens when the buffer is full.
+	 * @throws  IllegalArgumentException  If the buffer capacity is less than 1.
+	 */
+	public IKBusPacketPublisher(IKBusPacketReader reader, int bufferCapacity, OverflowPolicy overflowPolicy) {
+		this(reader, bufferCapacity, overflowPolicy, ReaderThreadFactory.platform());
+	}
+	
+	/**
+	 * Creates a new publisher for the stream elements read from the specified packet reader.
+	 *
+	 * @param   reader                    The packet reader from which the stream elements are read.
+	 * @param   bufferCapacity            Maximum number of stream elements that are buffered for the subscriber.
+	 * @param   overflowPolicy            Policy which determines what happens when the buffer is full.
+	 * @param   threadFactory             Factory used to create the thread that reads from the packet reader.
+	 * @throws  IllegalArgumentException  If the buffer capacity is less than 1.
+	 */
+	public IKBusPacketPublisher(IKBusPacketReader reader, int bufferCapacity, OverflowPolicy overflowPolicy, ThreadFactory threadFactory) {
+		super(reader, bufferCapacity, overflowPolicy, threadFactory);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected IKBusPacketStreamElement convert(IKBusPacketStreamElement element) {
+		return element;
+	}
+
+}
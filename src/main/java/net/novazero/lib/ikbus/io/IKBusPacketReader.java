@@ -21,6 +21,29 @@ public interface IKBusPacketReader extends Closeable {
 	 */
 	IKBusPacketStreamElement read() throws IKBusIOException;
 	
+	/**
+	 * Reads a batch of I/K-bus packet stream elements. This method blocks until at least one stream element is available, just like the
+	 * {@link #read()} method. After that, all stream elements that can be determined from data which has already been received are stored
+	 * in the sink as well, up to the specified maximum, without waiting for more data. This allows a burst of packets to be processed with
+	 * a single call.
+	 * 
+	 * The default implementation reads a single stream element using the {@link #read()} method. Readers that buffer data should override
+	 * this method to return all buffered stream elements at once.
+	 * 
+	 * @param   sink              Array in which the stream elements that were read are stored, starting at index 0.
+	 * @param   max               Maximum number of stream elements to read. Should be at least 1 and not exceed the length of the sink.
+	 * @return                    The number of stream elements that were read or -1 if the end of the stream has been reached.
+	 * @throws  IKBusIOException  If there was an I/O exception while reading from the underlying stream.
+	 */
+	default int readBatch(IKBusPacketStreamElement[] sink, int max) throws IKBusIOException {
+		IKBusPacketStreamElement element = read();
+		if (element == null) {
+			return -1;
+		}
+		sink[0] = element;
+		return 1;
+	}
+	
 	/**
 	 * Closes the I/K-bus packet reader and releases any system resources that were allocated. After the stream has been closed calling the
 	 * read() method will result in an exception.
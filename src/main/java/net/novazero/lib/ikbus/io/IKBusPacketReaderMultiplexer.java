@@ -0,0 +1,316 @@
+package net.novazero.lib.ikbus.io;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads I/K-bus packet stream elements from many channel-backed connections using a single {@link Selector}. Every registered connection
+ * is framed independently by its own {@link ChannelIKBusPacketReader}, while all I/O is performed by the thread that executes the
+ * {@link #run()} method. This means that the number of threads stays constant, no matter how many connections are attached. The stream
+ * elements are delivered to a {@link Listener}, tagged with the identifier of the connection they were read from.
+ *
+ * Connections can be registered and unregistered from any thread, also while the multiplexer is running. The listener is always invoked
+ * from the thread that executes the {@link #run()} method and should therefore not block. Failures that concern a single connection, such
+ * as a channel that cannot be registered or a listener that throws an exception for one of its stream elements, cause that connection to
+ * be unregistered and reported via {@link Listener#error(String, IKBusIOException)}, while the other connections are not affected.
+ *
+ * @author  Daan Scheerens
+ */
+public class IKBusPacketReaderMultiplexer implements Runnable, Closeable {
+	
+	/** The selector that is used to wait for data from the registered channels. */
+	private final Selector selector;
+	
+	/** Listener to which the stream elements are delivered. */
+	private final Listener listener;
+	
+	/** Registrations and unregistrations which have not yet been processed by the multiplexer thread. */
+	private final Queue<Registration> pendingRegistrations = new ConcurrentLinkedQueue<>();
+	
+	/** Whether the multiplexer has been closed. */
+	private volatile boolean closed = false;
+	
+	/**
+	 * Creates a new multiplexer that delivers the stream elements of the registered connections to the specified listener.
+	 *
+	 * @param   listener          Listener to which the stream elements are delivered.
+	 * @throws  IKBusIOException  If the selector could not be opened.
+	 */
+	public IKBusPacketReaderMultiplexer(Listener listener) throws IKBusIOException {
+		this.listener = listener;
+		try {
+			this.selector = Selector.open();
+		} catch (IOException e) {
+			throw new IKBusIOException(e);
+		}
+	}
+	
+	/**
+	 * Registers a connection with the multiplexer. The packet reader of the connection should be a {@link ChannelIKBusPacketReader} that
+	 * reads from a {@link SelectableChannel}. The channel will be put into non-blocking mode.
+	 *
+	 * @param   connectionId              Identifier of the connection with which the stream elements are tagged.
+	 * @param   connection                The connection that is to be registered.
+	 * @throws  IKBusIOException          If an I/O error occurs while retrieving the packet reader of the connection.
+	 * @throws  IllegalArgumentException  If the packet reader of the connection does not read from a selectable channel.
+	 */
+	public void register(String connectionId, IKBusConnection connection) throws IKBusIOException {
+		IKBusPacketReader reader = connection.getPacketReader();
+		if (!(reader instanceof ChannelIKBusPacketReader)) {
+			throw new IllegalArgumentException("Connection " + connectionId + " does not provide a channel based packet reader");
+		}
+		register(connectionId, (ChannelIKBusPacketReader) reader);
+	}
+	
+	/**
+	 * Registers a channel based packet reader with the multiplexer. The channel of the reader should be a {@link SelectableChannel}, which
+	 * will be put into non-blocking mode.
+	 *
+	 * @param   connectionId              Identifier of the connection with which the stream elements are tagged.
+	 * @param   reader                    The packet reader that is to be registered.
+	 * @throws  IllegalArgumentException  If the packet reader does not read from a selectable channel.
+	 */
+	public void register(String connectionId, ChannelIKBusPacketReader reader) {
+		if (!(reader.getChannel() instanceof SelectableChannel)) {
+			throw new IllegalArgumentException("Connection " + connectionId + " does not read from a selectable channel");
+		}
+		pendingRegistrations.add(new Registration(connectionId, reader));
+		selector.wakeup();
+	}
+	
+	/**
+	 * Unregisters the connection with the specified identifier from the multiplexer. The connection itself is not closed. Stream elements
+	 * that have already been read from the connection, but which have not been delivered yet, are discarded.
+	 *
+	 * @param  connectionId  Identifier of the connection which is to be unregistered.
+	 */
+	public void unregister(String connectionId) {
+		pendingRegistrations.add(new Registration(connectionId, null));
+		selector.wakeup();
+	}
+	
+	/**
+	 * Runs the multiplexer on the calling thread until the multiplexer is closed.
+	 */
+	@Override
+	public void run() {
+		try {
+			while (!closed) {
+				processPendingRegistrations();
+				
+				// Wait until data is available or until the first packet timeout expires.
+				long deadline = 0;
+				boolean awaitingTimeout = false;
+				for (SelectionKey key : selector.keys()) {
+					ChannelIKBusPacketReader reader = ((Registration) key.attachment()).reader;
+					if (key.isValid() && reader.isAwaitingTimeout()) {
+						if (!awaitingTimeout || reader.getTimeoutDeadline() - deadline < 0) {
+							deadline = reader.getTimeoutDeadline();
+						}
+						awaitingTimeout = true;
+					}
+				}
+				if (awaitingTimeout) {
+					long remaining = deadline - System.nanoTime();
+					if (remaining > 0) {
+						selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+					} else {
+						selector.selectNow();
+					}
+				} else {
+					selector.select();
+				}
+				
+				// Process the (un)registrations that were requested while waiting, so that no data is read from unregistered connections.
+				processPendingRegistrations();
+				
+				// Read the data of the channels that are ready.
+				Iterator<SelectionKey> selectedKeys = selector.selectedKeys().iterator();
+				while (selectedKeys.hasNext()) {
+					SelectionKey key = selectedKeys.next();
+					selectedKeys.remove();
+					Registration registration = (Registration) key.attachment();
+					try {
+						if (key.isValid() && registration.reader.readAvailable() < 0) {
+							deliverElements(registration, System.nanoTime());
+							key.cancel();
+							listener.endOfStream(registration.connectionId);
+						}
+					} catch (IKBusIOException e) {
+						key.cancel();
+						reportError(registration, e);
+					} catch (RuntimeException e) {
+						key.cancel();
+						reportError(registration, new IKBusIOException("Listener failed for connection " + registration.connectionId, e));
+					}
+				}
+				
+				// Deliver the stream elements of all connections, including those whose current packet has timed out.
+				long now = System.nanoTime();
+				for (SelectionKey key : selector.keys()) {
+					if (key.isValid()) {
+						Registration registration = (Registration) key.attachment();
+						try {
+							deliverElements(registration, now);
+						} catch (RuntimeException e) {
+							key.cancel();
+							reportError(registration, new IKBusIOException("Listener failed for connection " + registration.connectionId, e));
+						}
+					}
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			// The multiplexer was closed while waiting for data.
+		} catch (IOException e) {
+			throw new IllegalStateException("Selector failed", e);
+		}
+	}
+	
+	/**
+	 * Closes the multiplexer, which causes the {@link #run()} method to return. The registered connections are not closed.
+	 *
+	 * @throws  IKBusIOException  If an I/O error occurs while closing the selector.
+	 */
+	@Override
+	public void close() throws IKBusIOException {
+		closed = true;
+		try {
+			selector.close();
+		} catch (IOException e) {
+			throw new IKBusIOException(e);
+		}
+	}
+	
+	/**
+	 * Registers the connections with the selector (or cancels their registration) for which a request has been made. A connection whose
+	 * channel cannot be registered is reported to the listener, after which the remaining requests are processed.
+	 *
+	 * @throws  IOException  If the selector failed.
+	 */
+	private void processPendingRegistrations() throws IOException {
+		Registration registration;
+		while ((registration = pendingRegistrations.poll()) != null) {
+			// Cancel any existing registration with the same connection identifier.
+			boolean keyCancelled = false;
+			for (SelectionKey key : selector.keys()) {
+				if (key.isValid() && ((Registration) key.attachment()).connectionId.equals(registration.connectionId)) {
+					key.cancel();
+					keyCancelled = true;
+				}
+			}
+			
+			// Make sure cancelled keys are removed from the selector, so that their channels can be registered again. The keys that are
+			// selected by doing so remain in the selected key set and are processed after the next select operation.
+			if (keyCancelled) {
+				selector.selectNow();
+			}
+			
+			// Register the channel with the selector.
+			if (registration.reader != null) {
+				try {
+					SelectableChannel channel = (SelectableChannel) registration.reader.getChannel();
+					channel.configureBlocking(false);
+					channel.register(selector, SelectionKey.OP_READ, registration);
+				} catch (IOException | IllegalArgumentException | IllegalStateException e) {
+					reportError(registration, new IKBusIOException("Connection " + registration.connectionId + " could not be registered", e));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Reports an error of a connection to the listener. Exceptions thrown by the listener are ignored, so that they do not affect the other
+	 * connections.
+	 *
+	 * @param  registration  The registration of the connection for which the error occurred.
+	 * @param  exception     The error that occurred.
+	 */
+	private void reportError(Registration registration, IKBusIOException exception) {
+		try {
+			listener.error(registration.connectionId, exception);
+		} catch (RuntimeException e) {
+			// Ignored, since there is nobody else to report the failure to.
+		}
+	}
+	
+	/**
+	 * Delivers all stream elements that are available from the reader of the specified registration to the listener.
+	 *
+	 * @param  registration  The registration whose stream elements are to be delivered.
+	 * @param  now           The current time (see {@link System#nanoTime()}).
+	 */
+	private void deliverElements(Registration registration, long now) {
+		IKBusPacketStreamElement element;
+		while ((element = registration.reader.poll(now)) != null) {
+			listener.elementReceived(registration.connectionId, element);
+		}
+	}
+	
+	/**
+	 * Interface for classes that receive the stream elements that are read by an {@link IKBusPacketReaderMultiplexer}.
+	 */
+	public interface Listener {
+		
+		/**
+		 * Invoked when a stream element has been read from a connection.
+		 *
+		 * @param  connectionId  Identifier of the connection from which the stream element was read.
+		 * @param  element       The stream element that was read.
+		 */
+		void elementReceived(String connectionId, IKBusPacketStreamElement element);
+		
+		/**
+		 * Invoked when the end of the stream of a connection has been reached. The connection is unregistered automatically.
+		 *
+		 * @param  connectionId  Identifier of the connection whose end of stream has been reached.
+		 */
+		default void endOfStream(String connectionId) {
+			// Ignored by default.
+		}
+		
+		/**
+		 * Invoked when an I/O error occurs while registering or reading from a connection, or when one of the other methods of the listener
+		 * threw an exception for the connection. The connection is unregistered automatically.
+		 *
+		 * @param  connectionId  Identifier of the connection for which the error occurred.
+		 * @param  exception     The error that occurred.
+		 */
+		default void error(String connectionId, IKBusIOException exception) {
+			// Ignored by default.
+		}
+	
+	}
+	
+	/**
+	 * Data structure that holds the registration of a connection with the multiplexer.
+	 */
+	private static class Registration {
+		
+		/** Identifier of the connection. */
+		private final String connectionId;
+		
+		/** Reader of the connection, or {@code null} if the registration represents a request to unregister the connection. */
+		private final ChannelIKBusPacketReader reader;
+		
+		/**
+		 * Creates a new {@link Registration} instance.
+		 *
+		 * @param  connectionId  Identifier of the connection.
+		 * @param  reader        Reader of the connection, or {@code null} to unregister the connection.
+		 */
+		public Registration(String connectionId, ChannelIKBusPacketReader reader) {
+			this.connectionId = connectionId;
+			this.reader = reader;
+		}
+	
+	}
+
+}
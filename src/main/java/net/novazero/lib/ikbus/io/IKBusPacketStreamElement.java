@@ -23,6 +23,9 @@ public interface IKBusPacketStreamElement {
 	 * method returns the raw sequence of bytes that was read from the I/K-bus communication link. Calling this method when
 	 * {@link #isValidPacket} returns {@code true} returns in the raw packet data (see {@link IKBusPacket#toRaw}.  
 	 * 
+	 * Stream elements created by the packet readers return the bytes exactly as they were received, without copying them. The returned
+	 * array should therefore not be modified.
+	 * 
 	 * @return  The raw data of the stream element that was read from the I/K-bus communication link.
 	 */
 	byte[] getData();
@@ -36,6 +39,37 @@ public interface IKBusPacketStreamElement {
 	 */
 	IKBusPacket getPacket();
 	
+	/**
+	 * Retrieves the time at which the first byte of the stream element was received, as a value of {@link System#nanoTime()}. Bytes that
+	 * were received in the same chunk share the same time.
+	 * 
+	 * @return  The time at which the first byte of the stream element was received or 0 if the time is unknown.
+	 */
+	default long getFirstByteTime() {
+		return 0;
+	}
+	
+	/**
+	 * Retrieves the time at which the last byte of the stream element was received, as a value of {@link System#nanoTime()}. Bytes that
+	 * were received in the same chunk share the same time.
+	 * 
+	 * @return  The time at which the last byte of the stream element was received or 0 if the time is unknown.
+	 */
+	default long getLastByteTime() {
+		return 0;
+	}
+	
+	/**
+	 * Retrieves the offset that converts the values of {@link #getFirstByteTime()} and {@link #getLastByteTime()} to wall-clock time. Adding
+	 * this offset to one of these values yields the number of nanoseconds since the epoch (1970-01-01T00:00:00Z). The offset is determined
+	 * once by the reader, so the resulting wall-clock times are consistent with each other, even if the system clock is adjusted.
+	 * 
+	 * @return  The offset in nanoseconds that converts the receive times to wall-clock time or 0 if the offset is unknown.
+	 */
+	default long getWallClockOffset() {
+		return 0;
+	}
+	
 	/**
 	 * Convenience method for creating an {@link IKBusPacketStreamElement} instance that represents a valid I/K-bus packet.
 	 *  
@@ -56,4 +90,49 @@ public interface IKBusPacketStreamElement {
 		return new InvalidIKBusPacketStreamElement(data);
 	}
 	
+	/**
+	 * Convenience method for creating an {@link IKBusPacketStreamElement} instance that represents a valid I/K-bus packet, including the
+	 * times at which the packet was received.
+	 * 
+	 * @param   packet           The I/K-bus packet for which the {@link IKBusPacketStreamElement} is to be created.
+	 * @param   firstByteTime    The time ({@link System#nanoTime()}) at which the first byte of the packet was received.
+	 * @param   lastByteTime     The time ({@link System#nanoTime()}) at which the last byte of the packet was received.
+	 * @param   wallClockOffset  Offset in nanoseconds that converts the receive times to wall-clock time.
+	 * @return                   An {@link IKBusPacketStreamElement} instance that represents a valid I/K-bus packet.
+	 */
+	public static IKBusPacketStreamElement valid(IKBusPacket packet, long firstByteTime, long lastByteTime, long wallClockOffset) {
+		return new ValidIKBusPacketStreamElement(packet, firstByteTime, lastByteTime, wallClockOffset);
+	}
+	
+	/**
+	 * Convenience method for creating an {@link IKBusPacketStreamElement} instance that represents a valid I/K-bus packet, including the
+	 * raw packet data as it was received and the times at which the packet was received. The raw packet data is returned by
+	 * {@link #getData()} without being copied or encoded again.
+	 * 
+	 * @param   packet           The I/K-bus packet for which the {@link IKBusPacketStreamElement} is to be created.
+	 * @param   rawData          The raw packet data that was read from the I/K-bus communication link.
+	 * @param   firstByteTime    The time ({@link System#nanoTime()}) at which the first byte of the packet was received.
+	 * @param   lastByteTime     The time ({@link System#nanoTime()}) at which the last byte of the packet was received.
+	 * @param   wallClockOffset  Offset in nanoseconds that converts the receive times to wall-clock time.
+	 * @return                   An {@link IKBusPacketStreamElement} instance that represents a valid I/K-bus packet.
+	 */
+	public static IKBusPacketStreamElement valid(IKBusPacket packet, byte[] rawData, long firstByteTime, long lastByteTime,
+			long wallClockOffset) {
+		return new ValidIKBusPacketStreamElement(packet, rawData, firstByteTime, lastByteTime, wallClockOffset);
+	}
+	
+	/**
+	 * Convenience method for creating an {@link IKBusPacketStreamElement} instance that represents a invalid I/K-bus packet, including the
+	 * times at which the data was received.
+	 * 
+	 * @param   data             The raw (invalid packet) data that was read from the I/K-bus communication link.
+	 * @param   firstByteTime    The time ({@link System#nanoTime()}) at which the first byte of the data was received.
+	 * @param   lastByteTime     The time ({@link System#nanoTime()}) at which the last byte of the data was received.
+	 * @param   wallClockOffset  Offset in nanoseconds that converts the receive times to wall-clock time.
+	 * @return                   An {@link IKBusPacketStreamElement} instance that represents a invalid I/K-bus packet.
+	 */
+	public static IKBusPacketStreamElement invalid(byte[] data, long firstByteTime, long lastByteTime, long wallClockOffset) {
+		return new InvalidIKBusPacketStreamElement(data, firstByteTime, lastByteTime, wallClockOffset);
+	}
+	
 }
@@ -0,0 +1,472 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.IKBusUtils.byteToHex;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import net.novazero.lib.ikbus.IKBusPacket;
+
+/**
+ * Session layer on top of an {@link IKBusConnection} that correlates requests with their responses. A request is sent using
+ * {@link #request(IKBusPacket, byte, byte, byte[], long)}, which returns a future that completes with the first packet received afterwards
+ * that has the expected source, destination and data prefix. If no such packet is received within the timeout period, then the future
+ * fails with a {@link TimeoutException}.
+ *
+ * The session reads the packets of the connection on a reader thread. Pending requests are indexed by the source and destination of the
+ * expected response, so that matching an incoming packet only involves the requests that expect a response from that source to that
+ * destination. The requests for a source and destination are kept in a doubly linked list in order of registration, so a request that is
+ * answered, times out or fails to be sent can be removed in constant time. If multiple requests match the same packet, then the oldest
+ * request receives it. Timeouts are tracked using a {@link HashedTimingWheel} that is driven by a single timer thread, so the cost of a
+ * timeout does not depend on the number of requests in flight. Packets that do not match any request are passed to the unmatched packet
+ * handler of the session, if it has one.
+ *
+ * Instances of this class are thread-safe.
+ *
+ * @author  Daan Scheerens
+ */
+public class IKBusSession implements Closeable {
+	
+	/** Duration of a tick of the timing wheel in milliseconds, which is the resolution of the timeouts. */
+	private static final long TICK_DURATION = 10;
+	
+	/** Number of buckets of the timing wheel. Together with the tick duration this covers about five seconds per revolution. */
+	private static final int WHEEL_SIZE = 512;
+	
+	/** Number of possible module identifiers. */
+	private static final int ADDRESS_COUNT = 256;
+	
+	/** The connection over which the requests are sent and the responses are received. */
+	private final IKBusConnection connection;
+	
+	/** The writer used to send the requests. */
+	private final IKBusPacketWriter writer;
+	
+	/** The reader from which the responses are read. */
+	private final IKBusPacketReader reader;
+	
+	/** Handler for the received packets that do not match any pending request, or {@code null} if such packets are ignored. */
+	private final Consumer<IKBusPacket> unmatchedPacketHandler;
+	
+	/** The thread that reads the packets from the connection. */
+	private final Thread readerThread;
+	
+	/** The thread that drives the timing wheel. */
+	private final Thread timerThread;
+	
+	/** Lock that guards the pending requests, the timing wheel and the state of the session. */
+	private final Lock lock = new ReentrantLock();
+	
+	/** Condition that is signaled when a timeout has been scheduled or when the session is closed. */
+	private final Condition timeoutScheduled = lock.newCondition();
+	
+	/** Pending requests indexed by the source and destination of the expected response. Allocated on demand, per source. */
+	private final PendingRequestList[][] pendingRequests;
+	
+	/** Timing wheel on which the timeouts of the pending requests are scheduled. */
+	private final HashedTimingWheel<PendingRequest> timingWheel;
+	
+	/** Number of pending requests. */
+	private int pendingRequestCount = 0;
+	
+	/** Whether the session has been closed. */
+	private boolean closed = false;
+	
+	/**
+	 * Creates a new session for the specified connection, which ignores packets that do not match any request.
+	 *
+	 * @param   connection        The connection over which the requests are sent and the responses are received.
+	 * @throws  IKBusIOException  If the reader or writer of the connection could not be retrieved.
+	 */
+	public IKBusSession(IKBusConnection connection) throws IKBusIOException {
+		this(connection, null, ReaderThreadFactory.platform().withNamePrefix("ikbus-session"));
+	}
+	
+	/**
+	 * Creates a new session for the specified connection.
+	 *
+	 * @param   connection              The connection over which the requests are sent and the responses are received.
+	 * @param   unmatchedPacketHandler  Handler for the received packets that do not match any pending request, or {@code null} to ignore
+	 *                                  such packets. Invoked from the reader thread of the session.
+	 * @param   threadFactory           Factory used to create the reader and timer threads of the session.
+	 * @throws  IKBusIOException        If the reader or writer of the connection could not be retrieved.
+	 */
+	public IKBusSession(IKBusConnection connection, Consumer<IKBusPacket> unmatchedPacketHandler, ThreadFactory threadFactory)
+			throws IKBusIOException {
+		this.connection = connection;
+		this.writer = connection.getPacketWriter();
+		this.reader = connection.getPacketReader();
+		this.unmatchedPacketHandler = unmatchedPacketHandler;
+		this.pendingRequests = new PendingRequestList[ADDRESS_COUNT][];
+		this.timingWheel = new HashedTimingWheel<>(TimeUnit.MILLISECONDS.toNanos(TICK_DURATION), WHEEL_SIZE, System.nanoTime());
+		this.readerThread = threadFactory.newThread(this::runReader);
+		this.timerThread = threadFactory.newThread(this::runTimer);
+		this.readerThread.start();
+		this.timerThread.start();
+	}
+	
+	/**
+	 * Sends a request and awaits the response. The response is the first packet that is received after the request has been registered,
+	 * which has the specified source and destination and whose data starts with the specified prefix.
+	 *
+	 * @param   request              The packet which is to be sent.
+	 * @param   responseSource       Source of the expected response.
+	 * @param   responseDestination  Destination of the expected response.
+	 * @param   responseDataPrefix   Bytes with which the data of the expected response starts. An empty array matches any data.
+	 * @param   timeout              Maximum time in milliseconds to wait for the response.
+	 * @return                       A future that completes with the response. The future fails with a {@link TimeoutException} if no
+	 *                               response is received in time, or with an {@link IKBusIOException} if the request could not be sent or
+	 *                               if the session is closed before the response is received.
+	 */
+	public CompletableFuture<IKBusPacket> request(IKBusPacket request, byte responseSource, byte responseDestination,
+			byte[] responseDataPrefix, long timeout) {
+		PendingRequest pendingRequest = new PendingRequest(responseSource, responseDestination, responseDataPrefix.clone());
+		
+		// Register the request before sending it, since the response may be received before the write call returns.
+		lock.lock();
+		try {
+			if (closed) {
+				pendingRequest.future.completeExceptionally(new IKBusIOException("Session has been closed"));
+				return pendingRequest.future;
+			}
+			long now = System.nanoTime();
+			if (timingWheel.isEmpty()) {
+				// Catch up with the ticks that passed while the wheel was idle, which is cheap since there are no timeouts to visit.
+				timingWheel.advance(now, expired -> { });
+			}
+			pendingRequestsFor(responseSource, responseDestination, true).add(pendingRequest);
+			pendingRequestCount++;
+			pendingRequest.timeout = timingWheel.schedule(pendingRequest, now + TimeUnit.MILLISECONDS.toNanos(timeout));
+			timeoutScheduled.signal();
+		} finally {
+			lock.unlock();
+		}
+		
+		try {
+			writer.write(request);
+		} catch (IKBusIOException | RuntimeException e) {
+			lock.lock();
+			try {
+				remove(pendingRequest);
+			} finally {
+				lock.unlock();
+			}
+			pendingRequest.future.completeExceptionally(e);
+		}
+		return pendingRequest.future;
+	}
+	
+	/**
+	 * Retrieves the number of requests for which no response has been received yet.
+	 *
+	 * @return  The number of pending requests.
+	 */
+	public int getPendingRequestCount() {
+		lock.lock();
+		try {
+			return pendingRequestCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Closes the session together with its connection. The futures of the pending requests fail with an {@link IKBusIOException}.
+	 *
+	 * @throws  IKBusIOException  If an I/O error occurs while closing the connection or if the session has already been closed.
+	 */
+	@Override
+	public void close() throws IKBusIOException {
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IKBusIOException("Session has already been closed");
+			}
+			closed = true;
+			timeoutScheduled.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		
+		failAll(new IKBusIOException("Session has been closed"));
+		connection.close();
+	}
+	
+	/**
+	 * Reads the packets from the connection and completes the pending requests they match, until the end of the stream is reached, an
+	 * error occurs or the session is closed. Executed by the reader thread.
+	 */
+	private void runReader() {
+		IKBusIOException error;
+		try {
+			IKBusPacketStreamElement element;
+			while ((element = reader.read()) != null) {
+				if (element.isValidPacket()) {
+					packetReceived(element.getPacket());
+				}
+			}
+			error = new IKBusIOException("End of stream reached before the response was received");
+		} catch (IKBusIOException e) {
+			error = e;
+		}
+		
+		// Requests that are still pending cannot receive a response anymore.
+		failAll(error);
+	}
+	
+	/**
+	 * Completes the oldest pending request that matches the received packet, or passes the packet to the unmatched packet handler.
+	 *
+	 * @param  packet  The packet that has been received.
+	 */
+	private void packetReceived(IKBusPacket packet) {
+		PendingRequest matched = null;
+		lock.lock();
+		try {
+			PendingRequestList candidates = pendingRequestsFor(packet.getSource(), packet.getDestination(), false);
+			if (candidates != null) {
+				for (PendingRequest candidate = candidates.head; candidate != null; candidate = candidate.next) {
+					if (candidate.matches(packet)) {
+						remove(candidate);
+						matched = candidate;
+						break;
+					}
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+		
+		if (matched != null) {
+			matched.future.complete(packet);
+		} else if (unmatchedPacketHandler != null) {
+			unmatchedPacketHandler.accept(packet);
+		}
+	}
+	
+	/**
+	 * Advances the timing wheel and fails the requests whose timeout has expired, until the session is closed. Executed by the timer thread.
+	 */
+	private void runTimer() {
+		List<PendingRequest> expired = new ArrayList<>();
+		while (true) {
+			lock.lock();
+			try {
+				while (!closed && timingWheel.isEmpty()) {
+					timeoutScheduled.awaitUninterruptibly();
+				}
+				if (closed) {
+					return;
+				}
+				
+				long remaining = timingWheel.getNextTickTime() - System.nanoTime();
+				if (remaining > 0) {
+					try {
+						timeoutScheduled.awaitNanos(remaining);
+					} catch (InterruptedException e) {
+						// Ignored, the timer keeps running until the session is closed.
+					}
+					continue;
+				}
+				timingWheel.advance(System.nanoTime(), expired::add);
+				for (PendingRequest pendingRequest : expired) {
+					pendingRequest.list.unlink(pendingRequest);
+					pendingRequestCount--;
+				}
+			} finally {
+				lock.unlock();
+			}
+			
+			// Complete the futures without holding the lock, since they may invoke callbacks.
+			for (PendingRequest pendingRequest : expired) {
+				pendingRequest.future.completeExceptionally(new TimeoutException(
+					"No response received from " + byteToHex(pendingRequest.source) + " to " + byteToHex(pendingRequest.destination)));
+			}
+			expired.clear();
+		}
+	}
+	
+	/**
+	 * Fails all pending requests with the specified error.
+	 *
+	 * @param  error  The error with which the futures of the pending requests fail.
+	 */
+	private void failAll(IKBusIOException error) {
+		List<PendingRequest> failed = new ArrayList<>();
+		lock.lock();
+		try {
+			for (PendingRequestList[] bySource : pendingRequests) {
+				if (bySource != null) {
+					for (PendingRequestList requests : bySource) {
+						while (requests != null && requests.head != null) {
+							PendingRequest pendingRequest = requests.head;
+							requests.unlink(pendingRequest);
+							timingWheel.cancel(pendingRequest.timeout);
+							failed.add(pendingRequest);
+						}
+					}
+				}
+			}
+			pendingRequestCount = 0;
+		} finally {
+			lock.unlock();
+		}
+		
+		for (PendingRequest pendingRequest : failed) {
+			pendingRequest.future.completeExceptionally(error);
+		}
+	}
+	
+	/**
+	 * Removes a pending request, together with its timeout. Should only be called while holding the lock.
+	 *
+	 * @param  pendingRequest  The request which is to be removed.
+	 */
+	private void remove(PendingRequest pendingRequest) {
+		if (pendingRequest.list != null) {
+			pendingRequest.list.unlink(pendingRequest);
+			pendingRequestCount--;
+			timingWheel.cancel(pendingRequest.timeout);
+		}
+	}
+	
+	/**
+	 * Retrieves the list of pending requests that expect a response with the specified source and destination. Should only be called
+	 * while holding the lock.
+	 *
+	 * @param   source       Source of the expected response.
+	 * @param   destination  Destination of the expected response.
+	 * @param   create       Whether the list should be created if it does not exist yet.
+	 * @return               The list of pending requests, or {@code null} if it does not exist and should not be created.
+	 */
+	private PendingRequestList pendingRequestsFor(byte source, byte destination, boolean create) {
+		PendingRequestList[] bySource = pendingRequests[source & 0xFF];
+		if (bySource == null) {
+			if (!create) {
+				return null;
+			}
+			bySource = pendingRequests[source & 0xFF] = new PendingRequestList[ADDRESS_COUNT];
+		}
+		
+		PendingRequestList requests = bySource[destination & 0xFF];
+		if (requests == null && create) {
+			requests = bySource[destination & 0xFF] = new PendingRequestList();
+		}
+		return requests;
+	}
+	
+	/**
+	 * Data structure that holds a request which is awaiting its response.
+	 */
+	private static class PendingRequest {
+		
+		/** Source of the expected response. */
+		private final byte source;
+		
+		/** Destination of the expected response. */
+		private final byte destination;
+		
+		/** Bytes with which the data of the expected response starts. */
+		private final byte[] dataPrefix;
+		
+		/** The future that completes with the response. */
+		private final CompletableFuture<IKBusPacket> future = new CompletableFuture<>();
+		
+		/** The timeout of the request on the timing wheel. */
+		private HashedTimingWheel.Timeout<PendingRequest> timeout;
+		
+		/** The list that holds the request, or {@code null} if the request has been removed. */
+		private PendingRequestList list;
+		
+		/** Previous (older) request in the same list. */
+		private PendingRequest previous;
+		
+		/** Next (newer) request in the same list. */
+		private PendingRequest next;
+		
+		/**
+		 * Creates a new {@link PendingRequest} instance.
+		 *
+		 * @param  source       Source of the expected response.
+		 * @param  destination  Destination of the expected response.
+		 * @param  dataPrefix   Bytes with which the data of the expected response starts.
+		 */
+		public PendingRequest(byte source, byte destination, byte[] dataPrefix) {
+			this.source = source;
+			this.destination = destination;
+			this.dataPrefix = dataPrefix;
+		}
+		
+		/**
+		 * Checks whether the specified packet is the response to the request. The source and destination are assumed to match already.
+		 *
+		 * @param   packet  The packet that has been received.
+		 * @return          {@code true} if the packet is the response to the request, {@code false} if not.
+		 */
+		public boolean matches(IKBusPacket packet) {
+			return packet.getData().startsWith(dataPrefix);
+		}
+	
+	}
+	
+	/**
+	 * Doubly linked list of the pending requests that expect a response with the same source and destination, in order of registration.
+	 * The links are stored in the requests themselves, so a request can be removed in constant time.
+	 */
+	private static class PendingRequestList {
+		
+		/** The oldest request in the list, or {@code null} if the list is empty. */
+		private PendingRequest head;
+		
+		/** The newest request in the list, or {@code null} if the list is empty. */
+		private PendingRequest tail;
+		
+		/**
+		 * Appends a request to the end of the list.
+		 *
+		 * @param  pendingRequest  The request which is to be added. It should not be part of any list.
+		 */
+		public void add(PendingRequest pendingRequest) {
+			pendingRequest.list = this;
+			pendingRequest.previous = tail;
+			if (tail != null) {
+				tail.next = pendingRequest;
+			} else {
+				head = pendingRequest;
+			}
+			tail = pendingRequest;
+		}
+		
+		/**
+		 * Removes a request from the list.
+		 *
+		 * @param  pendingRequest  The request which is to be removed. It should be part of this list.
+		 */
+		public void unlink(PendingRequest pendingRequest) {
+			if (pendingRequest.previous != null) {
+				pendingRequest.previous.next = pendingRequest.next;
+			} else {
+				head = pendingRequest.next;
+			}
+			if (pendingRequest.next != null) {
+				pendingRequest.next.previous = pendingRequest.previous;
+			} else {
+				tail = pendingRequest.previous;
+			}
+			pendingRequest.list = null;
+			pendingRequest.previous = null;
+			pendingRequest.next = null;
+		}
+	
+	}
+
+}
@@ -2,13 +2,7 @@ package net.novazero.lib.ikbus.io;
 
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.List;
-
-import net.novazero.lib.ikbus.IKBusPacket;
-import net.novazero.lib.ikbus.InvalidIKBusPacketException;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * An I/K-bus packet reader that reads and parses its data from an input stream. The input stream is assumed to provide live data and thus
@@ -24,34 +18,49 @@ public class InputStreamIKBusPacketReader implements IKBusPacketReader {
 	 */
 	public static final int PACKET_TIMEOUT = 50;
 	
-	/** Minimal length of a valid I/K-bus packet. */
-	private static final int MINIMAL_PACKET_LENGTH = 4;
+	/** Maximum number of bytes that are read from the input stream at once. Large enough to hold a burst of several packets. */
+	private static final int READ_CHUNK_SIZE = 1024;
 	
 	/** The time restricted input stream from which the packet data is read. */
 	private final TimeRestrictedInputStream inputStream;
 	
+	/** Framing engine that splits the data read from the input stream into packet stream elements. */
+	private final IKBusPacketFramer framer = new IKBusPacketFramer();
+	
 	/** Whether the end of the input stream has been reached. */
 	private boolean endOfStreamReached = false;
 	
-	/** Indicates whether to suspend buffering until the packet buffer has been fully cleared. */
-	private boolean suspendBuffering = false;
-	
-	/** A list which holds the bytes which cannot constitute a valid I/K-bus packet. */
-	private List<Byte> corruptedData = new ArrayList<>(); 
-	
-	/** Buffer containing a sequence of bytes which have not been processed yet. */
-	private LinkedList<Byte> packetBuffer = new LinkedList<>();
-	
-	/** Result that is to be returned at the next read call. */
-	private IKBusPacketStreamElement pendingResult = null;
-	
 	/**
 	 * Creates a new I/K-bus packet reader that uses the specified input stream as its data source.
 	 * 
 	 * @param  inputStream  The input stream from which the packet data is to be read.
 	 */
 	public InputStreamIKBusPacketReader(InputStream inputStream) {
-		this.inputStream = new TimeRestrictedInputStream(inputStream, PACKET_TIMEOUT);
+		this(inputStream, ReaderThreadFactory.platform());
+	}
+	
+	/**
+	 * Creates a new I/K-bus packet reader that uses the specified input stream as its data source. The thread that reads from the input
+	 * stream is created using the specified thread factory, which allows for example to use {@link ReaderThreadFactory#virtual()}.
+	 * 
+	 * @param  inputStream    The input stream from which the packet data is to be read.
+	 * @param  threadFactory  Factory used to create the thread that reads from the input stream.
+	 */
+	public InputStreamIKBusPacketReader(InputStream inputStream, ThreadFactory threadFactory) {
+		this(inputStream, threadFactory, WaitStrategy.blocking());
+	}
+	
+	/**
+	 * Creates a new I/K-bus packet reader that uses the specified input stream as its data source. The thread that reads from the input
+	 * stream is created using the specified thread factory, while the thread that calls {@link #read()} waits for data using the specified
+	 * wait strategy.
+	 * 
+	 * @param  inputStream    The input stream from which the packet data is to be read.
+	 * @param  threadFactory  Factory used to create the thread that reads from the input stream.
+	 * @param  waitStrategy   Strategy that determines how the {@link #read()} method waits for data.
+	 */
+	public InputStreamIKBusPacketReader(InputStream inputStream, ThreadFactory threadFactory, WaitStrategy waitStrategy) {
+		this.inputStream = new TimeRestrictedInputStream(inputStream, PACKET_TIMEOUT, READ_CHUNK_SIZE, threadFactory, waitStrategy);
 	}
 	
 	/**
@@ -59,129 +68,28 @@ public class InputStreamIKBusPacketReader implements IKBusPacketReader {
 	 */
 	@Override
 	public IKBusPacketStreamElement read() throws IKBusIOException {
-		// Select pending result if there is any.
-		IKBusPacketStreamElement result = pendingResult;
-		pendingResult = null;
+		// Select the next stream element that can be determined from the data that has already been read (if any).
+		IKBusPacketStreamElement result = framer.poll();
 		
-		// Attempt to obtain a stream element.
+		// Attempt to obtain a stream element. Note that no more data is read while the framer is draining its buffer after a timeout.
 		try {
-			// Continue reading until a result is available or no more data is available and the packet buffer cannot contain a valid packet.
-			boolean noMoreDataAvailable = endOfStreamReached;
-			suspendBuffering = suspendBuffering && packetBuffer.size() > 0;
-			while (result == null && (!noMoreDataAvailable || packetBuffer.size() >= MINIMAL_PACKET_LENGTH)) {
-				
-				// Check for a valid packet sequence and purge bytes of the packet buffer if they cannot be part of a valid packet sequence.
-				boolean moreDataRequired = false;
-				while (!moreDataRequired && result == null) {
-					// Start by assuming another byte needs to be read, until proved otherwise in the code below.
-					moreDataRequired = true;
-					
-					// Only check packet buffer if the packet length byte is available.
-					if (packetBuffer.size() > 1) {
-						
-						// Check whether the current packet sequence is (partially) valid.
-						boolean isValidPacketSequence = true;
-						int expectedMessageLength = (packetBuffer.get(1) & 0xFF) + 2;
-						if (expectedMessageLength < MINIMAL_PACKET_LENGTH) {
-							// The expected length of the packet is less than the minimal packet length, so this cannot be valid.
-							isValidPacketSequence = false;
-						} else if (packetBuffer.size() >= expectedMessageLength) {
-							// Possible complete packet sequence found, compute checksum.
-							byte data[] = new byte[expectedMessageLength];
-							byte checksum = 0;
-							for (int index = 0; index < expectedMessageLength; index++) {
-								byte b = packetBuffer.get(index);
-								checksum ^= b;
-								data[index] = b;
-							}
-							
-							// Check if checksum matches with the one in the packet.
-							if (checksum == 0) {
-								// A valid packet sequence was found, create stream element for this packet.
-								IKBusPacketStreamElement packetStreamElement;
-								try {
-									packetStreamElement = IKBusPacketStreamElement.valid(IKBusPacket.parse(data));
-								} catch (InvalidIKBusPacketException e) {
-									// This exception will never be thrown, unless the code bugged and recovery is not possible. 
-									throw new RuntimeException(e);
-								}
-								
-								// Clear the packet buffer.
-								for (int index = 0; index < expectedMessageLength; index++) {
-									packetBuffer.remove();
-								}
-								
-								// Return the packet unless it is preceded by corrupted data.
-								if (corruptedData.size() > 0) {
-									// Store packet as a pending result.
-									pendingResult = packetStreamElement;
-									
-									// Create a stream element for the corrupted data and return that.
-									result = IKBusPacketStreamElement.invalid(toByteArray(corruptedData));
-									corruptedData.clear();
-								} else {
-									result = packetStreamElement;
-								}
-								
-								// No more data is required for this read call to return a result.
-								moreDataRequired = false;
-								
-							} else {
-								// Checksum does not match, so this is an invalid packet sequence.
-								isValidPacketSequence = false;
-							}
-						}
-						
-						// Purge first byte from packet buffer if it does not constitute to a valid packet sequence.
-						if (!isValidPacketSequence) {
-							corruptedData.add(packetBuffer.poll());
-							moreDataRequired = false;
-						}
-					}
-				}
+			while (result == null && !endOfStreamReached) {
+				// Read next byte from input stream (without a timeout for the first byte of the packet).
+				int byteRead = inputStream.read(framer.bufferedLength() == 0 ? 0 : PACKET_TIMEOUT);
 				
-				// Read next byte if more data is required.
-				if (moreDataRequired) {
-					if (noMoreDataAvailable || suspendBuffering) {
-						// More data is required, but none is available or buffering is suspended.
-						if (packetBuffer.size() > MINIMAL_PACKET_LENGTH) {
-							corruptedData.add(packetBuffer.poll());
-						} else {
-							corruptedData.addAll(packetBuffer);
-							packetBuffer.clear();
-							if (corruptedData.size() > 0) {
-								result = IKBusPacketStreamElement.invalid(toByteArray(corruptedData));
-								corruptedData.clear();
-							}
-						}
-					} else {
-						// More data is available, so read next byte from input stream (without a timeout for the first byte of the packet).
-						int byteRead = inputStream.read(packetBuffer.size() == 0 ? 0 : PACKET_TIMEOUT);
-						
-						// Check whether the read action succeeded or not.
-						if (byteRead >= 0) {
-							// A byte was successfully read, so append it to the packet buffer.
-							packetBuffer.add((byte) byteRead);
-						} else {
-							// Next byte could not be read, so there is no more data available for this read call.
-							noMoreDataAvailable = true;
-							suspendBuffering = true;
-							endOfStreamReached = (byteRead == TimeRestrictedInputStream.END_OF_STREAM);
-							if (packetBuffer.size() > 0){
-								corruptedData.add(packetBuffer.poll());
-							}
-						}
-					}
+				// Check whether the read action succeeded or not.
+				if (byteRead >= 0) {
+					// A byte was successfully read, so append it to the packet buffer.
+					framer.append((byte) byteRead, inputStream.getLastReceiveTime());
+					result = framer.poll();
+				} else {
+					// Next byte could not be read, so there is no more data available for this read call.
+					endOfStreamReached = (byteRead == TimeRestrictedInputStream.END_OF_STREAM);
+					framer.drain();
+					result = framer.poll();
+					break;
 				}
 			}
-			
-			// Return corrupted data on timeouts.
-			if (result == null && noMoreDataAvailable && (packetBuffer.size() > 0 || corruptedData.size() > 0)) {
-				corruptedData.addAll(packetBuffer);
-				packetBuffer.clear();
-				result = IKBusPacketStreamElement.invalid(toByteArray(corruptedData));
-				corruptedData.clear();
-			}
 		} catch (IOException e) {
 			throw new IKBusIOException(e);
 		}
@@ -192,32 +100,49 @@ public class InputStreamIKBusPacketReader implements IKBusPacketReader {
 	
 	/**
 	 * {@inheritDoc}
+	 * 
+	 * After the first stream element has been read, only the bytes which have already been received by the underlying time restricted
+	 * input stream are framed. Incomplete packets are kept in the buffer of the reader for the next read call.
 	 */
 	@Override
-	public void close() throws IKBusIOException {
+	public int readBatch(IKBusPacketStreamElement[] sink, int max) throws IKBusIOException {
+		// Wait for the first stream element.
+		IKBusPacketStreamElement element = read();
+		if (element == null) {
+			return -1;
+		}
+		sink[0] = element;
+		int count = 1;
+		
+		// Add the stream elements that can be determined without having to wait for more data.
 		try {
-			inputStream.close();
+			while (count < max) {
+				element = framer.poll();
+				if (element != null) {
+					sink[count++] = element;
+				} else if (!endOfStreamReached && inputStream.available() > 0) {
+					framer.append((byte) inputStream.read(PACKET_TIMEOUT), inputStream.getLastReceiveTime());
+				} else {
+					break;
+				}
+			}
 		} catch (IOException e) {
 			throw new IKBusIOException(e);
 		}
+		
+		return count;
 	}
 	
 	/**
-	 * Converts the given collection of bytes to an array of bytes.
-	 * 
-	 * @param   bytes  The byte collection that is to be converted to an array of bytes.
-	 * @return         An array that represents the given byte collection.
+	 * {@inheritDoc}
 	 */
-	private static byte[] toByteArray(Collection<Byte> bytes) {
-		byte[] result = new byte[bytes.size()];
-		
-		int index = 0;
-		
-		for (byte b : bytes) {
-			result[index++] = b;
+	@Override
+	public void close() throws IKBusIOException {
+		try {
+			inputStream.close();
+		} catch (IOException e) {
+			throw new IKBusIOException(e);
 		}
-		
-		return result;
 	}
 	
 }
@@ -10,13 +10,38 @@ public class InvalidIKBusPacketStreamElement implements IKBusPacketStreamElement
 	/** Invalid sequence of bytes read from the I/K-bus communication link. */
 	private final byte[] data;
 	
+	/** The time ({@link System#nanoTime()}) at which the first byte of the stream element was received. */
+	private final long firstByteTime;
+	
+	/** The time ({@link System#nanoTime()}) at which the last byte of the stream element was received. */
+	private final long lastByteTime;
+	
+	/** Offset in nanoseconds that converts the receive times to wall-clock time. */
+	private final long wallClockOffset;
+	
 	/**
 	 * Creates a new {@link InvalidIKBusPacketStreamElement} instance for the specified data that represents an invalid packet.
 	 * 
 	 * @param  data  Invalid sequence of bytes read from the I/K-bus communication link.
 	 */
 	public InvalidIKBusPacketStreamElement(byte[] data) {
+		this(data, 0, 0, 0);
+	}
+	
+	/**
+	 * Creates a new {@link InvalidIKBusPacketStreamElement} instance for the specified data that represents an invalid packet and the times
+	 * at which it was received.
+	 * 
+	 * @param  data             Invalid sequence of bytes read from the I/K-bus communication link.
+	 * @param  firstByteTime    The time ({@link System#nanoTime()}) at which the first byte of the data was received.
+	 * @param  lastByteTime     The time ({@link System#nanoTime()}) at which the last byte of the data was received.
+	 * @param  wallClockOffset  Offset in nanoseconds that converts the receive times to wall-clock time.
+	 */
+	public InvalidIKBusPacketStreamElement(byte[] data, long firstByteTime, long lastByteTime, long wallClockOffset) {
 		this.data = data;
+		this.firstByteTime = firstByteTime;
+		this.lastByteTime = lastByteTime;
+		this.wallClockOffset = wallClockOffset;
 	}
 
 	/**
@@ -43,4 +68,28 @@ public class InvalidIKBusPacketStreamElement implements IKBusPacketStreamElement
 		throw new UnsupportedOperationException("Stream element does not contain a valid packet");
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getFirstByteTime() {
+		return firstByteTime;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getLastByteTime() {
+		return lastByteTime;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getWallClockOffset() {
+		return wallClockOffset;
+	}
+	
 }
\ No newline at end of file
@@ -0,0 +1,73 @@
+package net.novazero.lib.ikbus.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * An I/K-bus packet writer that writes its data to an output stream. Packets that are written shortly after each other are coalesced into
+ * a single write, which is followed by a single flush of the output stream (see {@link BufferedIKBusPacketWriter}).
+ *
+ * @author  Daan Scheerens
+ */
+public class OutputStreamIKBusPacketWriter extends BufferedIKBusPacketWriter {
+	
+	/** The output stream to which the packet data is written. */
+	private final OutputStream outputStream;
+	
+	/**
+	 * Creates a new I/K-bus packet writer that uses the specified output stream as its destination, with the default buffer size and
+	 * latency budget.
+	 *
+	 * @param  outputStream  The output stream to which the packet data is to be written.
+	 */
+	public OutputStreamIKBusPacketWriter(OutputStream outputStream) {
+		this(outputStream, DEFAULT_BUFFER_SIZE, DEFAULT_LATENCY_BUDGET);
+	}
+	
+	/**
+	 * Creates a new I/K-bus packet writer that uses the specified output stream as its destination.
+	 *
+	 * @param  outputStream   The output stream to which the packet data is to be written.
+	 * @param  bufferSize     Size in bytes of the buffer in which the packets are coalesced.
+	 * @param  latencyBudget  Maximum time in milliseconds that a packet is kept in the buffer before it is transmitted, or 0 to transmit
+	 *                        each packet immediately.
+	 */
+	public OutputStreamIKBusPacketWriter(OutputStream outputStream, int bufferSize, long latencyBudget) {
+		this(outputStream, bufferSize, latencyBudget, ReaderThreadFactory.platform().withNamePrefix("ikbus-flusher"));
+	}
+	
+	/**
+	 * Creates a new I/K-bus packet writer that uses the specified output stream as its destination.
+	 *
+	 * @param  outputStream   The output stream to which the packet data is to be written.
+	 * @param  bufferSize     Size in bytes of the buffer in which the packets are coalesced.
+	 * @param  latencyBudget  Maximum time in milliseconds that a packet is kept in the buffer before it is transmitted, or 0 to transmit
+	 *                        each packet immediately.
+	 * @param  threadFactory  Factory used to create the thread that transmits the buffer once the latency budget has expired.
+	 */
+	public OutputStreamIKBusPacketWriter(OutputStream outputStream, int bufferSize, long latencyBudget, ThreadFactory threadFactory) {
+		super(bufferSize, latencyBudget, threadFactory);
+		this.outputStream = outputStream;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void transmit(ByteBuffer data) throws IOException {
+		outputStream.write(data.array(), data.arrayOffset() + data.position(), data.remaining());
+		outputStream.flush();
+		data.position(data.limit());
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	protected void closeTarget() throws IOException {
+		outputStream.close();
+	}
+
+}
@@ -0,0 +1,23 @@
+package net.novazero.lib.ikbus.io;
+
+/**
+ * Policies that determine what happens when an item is to be added to a bounded buffer which is full. Used by the publishers that are
+ * derived from {@link BaseIKBusPublisher} and by the {@link AsyncIKBusPacketWriter}.
+ *
+ * @author  Daan Scheerens
+ */
+public enum OverflowPolicy {
+	
+	/**
+	 * Waits until there is room in the buffer. For publishers this stops reading from the underlying packet reader until the subscriber
+	 * catches up, for writers the thread that writes the packet is blocked.
+	 */
+	BLOCK,
+	
+	/** Removes the oldest item from the buffer to make room for the new item. */
+	DROP_OLDEST,
+	
+	/** Discards the new item, keeping the items which are already in the buffer. */
+	DROP_NEWEST
+
+}
@@ -0,0 +1,326 @@
+package net.novazero.lib.ikbus.io;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import net.novazero.lib.ikbus.IKBusMessage;
+import net.novazero.lib.ikbus.IKBusMessageParser;
+
+/**
+ * Publisher of the I/K-bus messages that are parsed from the valid packets read from an {@link IKBusPacketReader}, which parses the
+ * packets on a number of worker threads. This relieves the reader thread when the parser is expensive, for example when it builds rich
+ * message objects, or when packets are read faster than a single thread can parse them, for example when replaying a capture.
+ *
+ * The messages are published in the order in which the packets were read. Each stream element that is read gets a sequence number and is
+ * stored in a circular reorder buffer, from which the worker threads take the elements in order of their sequence numbers. Since workers
+ * may finish out of order, a parsed message stays in the buffer until the messages of all preceding elements have been published. The
+ * worker that completes the oldest element publishes it, followed by any subsequent elements that were already completed. The capacity of
+ * the reorder buffer (the queue depth) limits the number of elements that are being parsed or waiting to be published; when it is full
+ * the reader thread stops reading until the oldest element has been published. If parsing or publishing fails, then the messages of the
+ * subsequent elements are discarded, so the error is reported right after the messages of the elements that preceded the failure.
+ *
+ * The parser is invoked concurrently from the worker threads and should therefore be thread-safe. Apart from that the publisher behaves
+ * like an {@link IKBusMessagePublisher}. The worker threads are started when the first stream element is read and stop when the reader
+ * thread stops.
+ *
+ * @author  Daan Scheerens
+ */
+public class ParallelIKBusMessagePublisher extends IKBusMessagePublisher {
+	
+	/** The default number of stream elements that can be parsed or waiting to be published at the same time. */
+	public static final int DEFAULT_QUEUE_DEPTH = 256;
+	
+	/** Number of worker threads that parse the packets. */
+	private final int parallelism;
+	
+	/** Maximum number of stream elements that can be parsed or waiting to be published at the same time. */
+	private final int queueDepth;
+	
+	/** Factory used to create the worker threads. */
+	private final ThreadFactory threadFactory;
+	
+	/** Lock that guards the reorder buffer and the state of the worker threads. */
+	private final Lock lock = new ReentrantLock();
+	
+	/** Condition that is signaled when a stream element has been added to the reorder buffer or when the workers should stop. */
+	private final Condition workAvailable = lock.newCondition();
+	
+	/** Condition that is signaled when a message has been published, which frees a slot of the reorder buffer. */
+	private final Condition published = lock.newCondition();
+	
+	/** Stream elements that have not been taken by a worker yet, indexed by sequence number modulo the queue depth. */
+	private final IKBusPacketStreamElement[] elements;
+	
+	/** Parsed messages that have not been published yet, indexed by sequence number modulo the queue depth. */
+	private final IKBusMessage[] messages;
+	
+	/** Errors that occurred while parsing the stream elements, indexed by sequence number modulo the queue depth. */
+	private final RuntimeException[] failures;
+	
+	/** Whether the stream element with a sequence number has been processed by a worker, indexed modulo the queue depth. */
+	private final boolean[] completed;
+	
+	/** The worker threads, or {@code null} if they have not been started yet. */
+	private Thread[] workers = null;
+	
+	/** Sink to which the parsed messages are published. */
+	private Consumer<? super IKBusMessage> sink = null;
+	
+	/** Sequence number that will be assigned to the next stream element that is read. */
+	private long nextSequence = 0;
+	
+	/** Sequence number of the next stream element that is to be taken by a worker. */
+	private long claimSequence = 0;
+	
+	/** Sequence number of the next stream element of which the message is to be published. */
+	private long publishSequence = 0;
+	
+	/** Whether a worker is publishing messages. */
+	private boolean publishing = false;
+	
+	/** Whether the workers should stop once all stream elements have been taken. */
+	private boolean stopped = false;
+	
+	/**
+	 * The error of the first stream element, in order of the sequence numbers, for which parsing or publishing failed, or {@code null} if no
+	 * error occurred.
+	 */
+	private RuntimeException error = null;
+	
+	/**
+	 * Creates a new publisher for the messages parsed from the packets read from the specified packet reader. The packets are parsed by
+	 * one worker thread per available processor, with a queue depth of {@link #DEFAULT_QUEUE_DEPTH}. The publisher buffers up to
+	 * {@link BaseIKBusPublisher#DEFAULT_BUFFER_CAPACITY} messages and stops reading when the buffer is full.
+	 *
+	 * @param  reader  The packet reader from which the packets are read.
+	 * @param  parser  The (thread-safe) parser that is used to parse the messages from the packets.
+	 */
+	public ParallelIKBusMessagePublisher(IKBusPacketReader reader, IKBusMessageParser parser) {
+		this(reader, parser, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_DEPTH);
+	}
+	
+	/**
+	 * Creates a new publisher for the messages parsed from the packets read from the specified packet reader. The publisher buffers up to
+	 * {@link BaseIKBusPublisher#DEFAULT_BUFFER_CAPACITY} messages and stops reading when the buffer is full.
+	 *
+	 * @param   reader                    The packet reader from which the packets are read.
+	 * @param   parser                    The (thread-safe) parser that is used to parse the messages from the packets.
+	 * @param   parallelism               Number of worker threads that parse the packets.
+	 * @param   queueDepth                Maximum number of stream elements that can be parsed or waiting to be published at the same time.
+	 * @throws  IllegalArgumentException  If the parallelism or the queue depth is less than 1.
+	 */
+	public ParallelIKBusMessagePublisher(IKBusPacketReader reader, IKBusMessageParser parser, int parallelism, int queueDepth) {
+		this(reader, parser, parallelism, queueDepth, DEFAULT_BUFFER_CAPACITY, OverflowPolicy.BLOCK,
+			ReaderThreadFactory.platform().withNamePrefix("ikbus-parser"));
+	}
+	
+	/**
+	 * Creates a new publisher for the messages parsed from the packets read from the specified packet reader.
+	 *
+	 * @param   reader                    The packet reader from which the packets are read.
+	 * @param   parser                    The (thread-safe) parser that is used to parse the messages from the packets.
+	 * @param   parallelism               Number of worker threads that parse the packets.
+	 * @param   queueDepth                Maximum number of stream elements that can be parsed or waiting to be published at the same time.
+	 * @param   bufferCapacity            Maximum number of messages that are buffered for the subscriber.
+	 * @param   overflowPolicy            Policy which determines what happens when the buffer is full.
+	 * @param   threadFactory             Factory used to create the thread that reads from the packet reader and the worker threads.
+	 * @throws  IllegalArgumentException  If the parallelism, the queue depth or the buffer capacity is less than 1.
+	 */
+	public ParallelIKBusMessagePublisher(IKBusPacketReader reader, IKBusMessageParser parser, int parallelism, int queueDepth,
+			int bufferCapacity, OverflowPolicy overflowPolicy, ThreadFactory threadFactory) {
+		super(reader, parser, bufferCapacity, overflowPolicy, threadFactory);
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism should be at least 1, but was " + parallelism);
+		}
+		if (queueDepth < 1) {
+			throw new IllegalArgumentException("Queue depth should be at least 1, but was " + queueDepth);
+		}
+		this.parallelism = parallelism;
+		this.queueDepth = queueDepth;
+		this.threadFactory = threadFactory;
+		this.elements = new IKBusPacketStreamElement[queueDepth];
+		this.messages = new IKBusMessage[queueDepth];
+		this.failures = new RuntimeException[queueDepth];
+		this.completed = new boolean[queueDepth];
+	}
+	
+	/**
+	 * Retrieves the number of worker threads that parse the packets.
+	 *
+	 * @return  The number of worker threads.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+	
+	/**
+	 * Retrieves the maximum number of stream elements that can be parsed or waiting to be published at the same time.
+	 *
+	 * @return  The queue depth.
+	 */
+	public int getQueueDepth() {
+		return queueDepth;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The stream element is added to the reorder buffer, from which it is taken by one of the worker threads. If the reorder buffer is
+	 * full, then this method blocks until the oldest element has been published.
+	 */
+	@Override
+	protected void process(IKBusPacketStreamElement element, Consumer<? super IKBusMessage> sink) {
+		lock.lock();
+		try {
+			if (workers == null) {
+				this.sink = sink;
+				startWorkers();
+			}
+			while (nextSequence - publishSequence >= queueDepth && error == null) {
+				published.awaitUninterruptibly();
+			}
+			if (error != null) {
+				throw error;
+			}
+			elements[slot(nextSequence++)] = element;
+			workAvailable.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Waits until the messages of all stream elements have been published, after which the worker threads are stopped. If an error occurred
+	 * while parsing or publishing a message, then that error is thrown.
+	 */
+	@Override
+	protected void awaitProcessing() {
+		lock.lock();
+		try {
+			while (publishSequence != nextSequence) {
+				published.awaitUninterruptibly();
+			}
+			stopped = true;
+			workAvailable.signalAll();
+			if (error != null) {
+				throw error;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Starts the worker threads. Should be called while holding the lock.
+	 */
+	private void startWorkers() {
+		workers = new Thread[parallelism];
+		for (int index = 0; index < parallelism; index++) {
+			workers[index] = threadFactory.newThread(this::work);
+			workers[index].start();
+		}
+	}
+	
+	/**
+	 * Takes the stream elements from the reorder buffer and parses them, until the workers are stopped. This method is executed by the
+	 * worker threads.
+	 */
+	private void work() {
+		while (true) {
+			long sequence;
+			IKBusPacketStreamElement element;
+			lock.lock();
+			try {
+				while (claimSequence == nextSequence && !stopped) {
+					workAvailable.awaitUninterruptibly();
+				}
+				if (claimSequence == nextSequence) {
+					return;
+				}
+				sequence = claimSequence++;
+				element = elements[slot(sequence)];
+				elements[slot(sequence)] = null;
+			} finally {
+				lock.unlock();
+			}
+			
+			IKBusMessage message = null;
+			RuntimeException failure = null;
+			try {
+				message = convert(element);
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+			complete(sequence, message, failure);
+		}
+	}
+	
+	/**
+	 * Stores the result of parsing a stream element in the reorder buffer. If the element is the oldest one that has not been published
+	 * yet, then its message is published, followed by the messages of the subsequent elements that were already completed, unless another
+	 * worker is already publishing messages. Once the parsing or publishing of an element has failed, the messages of the subsequent
+	 * elements are discarded instead of published.
+	 *
+	 * @param  sequence  Sequence number of the stream element.
+	 * @param  message   The parsed message or {@code null} if no message was parsed from the element.
+	 * @param  failure   The error that occurred while parsing the element or {@code null} if no error occurred.
+	 */
+	private void complete(long sequence, IKBusMessage message, RuntimeException failure) {
+		lock.lock();
+		try {
+			messages[slot(sequence)] = message;
+			failures[slot(sequence)] = failure;
+			completed[slot(sequence)] = true;
+			if (publishing || sequence != publishSequence) {
+				return;
+			}
+			
+			publishing = true;
+			while (completed[slot(publishSequence)]) {
+				int slot = slot(publishSequence);
+				IKBusMessage item = messages[slot];
+				if (error == null) {
+					error = failures[slot];
+				}
+				messages[slot] = null;
+				failures[slot] = null;
+				completed[slot] = false;
+				
+				// Publish the message without holding the lock, since the sink may block. The slot remains occupied until it is published.
+				if (item != null && error == null) {
+					RuntimeException publishFailure = null;
+					lock.unlock();
+					try {
+						sink.accept(item);
+					} catch (RuntimeException e) {
+						publishFailure = e;
+					} finally {
+						lock.lock();
+					}
+					error = publishFailure;
+				}
+				publishSequence++;
+				published.signalAll();
+			}
+			publishing = false;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Determines the slot of the reorder buffer for a sequence number.
+	 *
+	 * @param   sequence  The sequence number.
+	 * @return            The index of the slot.
+	 */
+	private int slot(long sequence) {
+		return (int) (sequence % queueDepth);
+	}
+
+}
@@ -0,0 +1,474 @@
+package net.novazero.lib.ikbus.io;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import net.novazero.lib.ikbus.IKBusPacket;
+
+/**
+ * A packet writer that schedules the transmission of packets based on their {@link TransmitPriority} and on rate limits per destination.
+ * Packets are queued per priority class and are written to an underlying packet writer by a scheduler thread. Whenever the underlying
+ * writer is available, the scheduler transmits the oldest packet of the highest priority class that is not held back by a rate limit. This
+ * way time-critical commands do not have to wait behind bulk traffic like status polling, which is important on a slow shared medium such
+ * as the I/K-bus.
+ *
+ * Rate limits are configured per destination module using {@link #setRateLimit(byte, double, int)} and are enforced with a token bucket:
+ * each transmitted packet consumes a token, and tokens are replenished at a fixed rate up to a maximum burst size. Packets for the same
+ * destination and of the same priority class are always transmitted in the order in which they were written.
+ *
+ * For each priority class the number of transmitted packets and the time they have spent in the queue are recorded, see
+ * {@link #getTransmittedPacketCount(TransmitPriority)}, {@link #getAverageQueueingDelay(TransmitPriority, TimeUnit)} and
+ * {@link #getMaximumQueueingDelay(TransmitPriority, TimeUnit)}.
+ *
+ * If an I/O error occurs while writing a packet to the underlying writer, then that error is reported by the next call to one of the
+ * write methods. Instances of this class are thread-safe.
+ *
+ * @author  Daan Scheerens
+ */
+public class PriorityIKBusPacketWriter implements IKBusPacketWriter {
+	
+	/** The default maximum number of queued packets per priority class. */
+	public static final int DEFAULT_QUEUE_CAPACITY = 256;
+	
+	/** Priority classes, in order of decreasing priority. */
+	private static final TransmitPriority[] PRIORITIES = TransmitPriority.values();
+	
+	/** Number of possible destination module identifiers. */
+	private static final int DESTINATION_COUNT = 256;
+	
+	/** The packet writer to which the packets are written. */
+	private final IKBusPacketWriter writer;
+	
+	/** Maximum number of queued packets per priority class. */
+	private final int queueCapacity;
+	
+	/** The thread that writes the queued packets to the underlying writer. */
+	private final Thread schedulerThread;
+	
+	/** Lock that guards the queues, rate limits, statistics and the state of the writer. */
+	private final Lock lock = new ReentrantLock();
+	
+	/** Condition that is signaled when the scheduler may be able to transmit a packet or when the writer is closed. */
+	private final Condition scheduleChanged = lock.newCondition();
+	
+	/** Condition that is signaled when a packet has been removed from one of the queues or when the writer is closed. */
+	private final Condition notFull = lock.newCondition();
+	
+	/** Queues of packets that have not been transmitted yet, indexed by the ordinal of their priority class. */
+	private final ArrayDeque<ScheduledPacket>[] queues;
+	
+	/** Token buckets that limit the transmission rate, indexed by destination. Destinations without a rate limit have no bucket. */
+	private final TokenBucket[] rateLimits = new TokenBucket[DESTINATION_COUNT];
+	
+	/** Number of transmitted packets, indexed by the ordinal of their priority class. */
+	private final long[] transmittedPacketCounts = new long[PRIORITIES.length];
+	
+	/** Total time in nanoseconds that the transmitted packets spent in the queue, indexed by the ordinal of their priority class. */
+	private final long[] totalQueueingDelays = new long[PRIORITIES.length];
+	
+	/** Maximum time in nanoseconds that a transmitted packet spent in the queue, indexed by the ordinal of its priority class. */
+	private final long[] maximumQueueingDelays = new long[PRIORITIES.length];
+	
+	/** Error that occurred while writing a packet to the underlying writer, which has not yet been reported. */
+	private IKBusIOException writeError = null;
+	
+	/** Whether the writer has been closed. */
+	private boolean closed = false;
+	
+	/**
+	 * Creates a new priority writer for the specified packet writer, using queues with the default capacity.
+	 *
+	 * @param  writer  The packet writer to which the packets are written.
+	 */
+	public PriorityIKBusPacketWriter(IKBusPacketWriter writer) {
+		this(writer, DEFAULT_QUEUE_CAPACITY, ReaderThreadFactory.platform().withNamePrefix("ikbus-scheduler"));
+	}
+	
+	/**
+	 * Creates a new priority writer for the specified packet writer.
+	 *
+	 * @param   writer                    The packet writer to which the packets are written.
+	 * @param   queueCapacity             Maximum number of queued packets per priority class. Writing a packet blocks while the queue of
+	 *                                    its priority class is full.
+	 * @param   threadFactory             Factory used to create the thread that writes the packets.
+	 * @throws  IllegalArgumentException  If the queue capacity is less than 1.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public PriorityIKBusPacketWriter(IKBusPacketWriter writer, int queueCapacity, ThreadFactory threadFactory) {
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity should be at least 1, but was " + queueCapacity);
+		}
+		this.writer = writer;
+		this.queueCapacity = queueCapacity;
+		this.queues = new ArrayDeque[PRIORITIES.length];
+		for (int index = 0; index < queues.length; index++) {
+			queues[index] = new ArrayDeque<>();
+		}
+		this.schedulerThread = threadFactory.newThread(this::runScheduler);
+		this.schedulerThread.start();
+	}
+	
+	/**
+	 * Limits the rate at which packets are transmitted to the specified destination. Replaces any previous rate limit of the destination.
+	 *
+	 * @param   destination               Identifier of the destination module.
+	 * @param   packetsPerSecond          The number of packets per second that may be transmitted to the destination on average.
+	 * @param   burstSize                 The number of packets that may be transmitted to the destination directly after each other.
+	 * @throws  IllegalArgumentException  If the rate is not positive or if the burst size is less than 1.
+	 */
+	public void setRateLimit(byte destination, double packetsPerSecond, int burstSize) {
+		if (!(packetsPerSecond > 0)) {
+			throw new IllegalArgumentException("Rate should be positive, but was " + packetsPerSecond);
+		}
+		if (burstSize < 1) {
+			throw new IllegalArgumentException("Burst size should be at least 1, but was " + burstSize);
+		}
+		
+		lock.lock();
+		try {
+			rateLimits[destination & 0xFF] = new TokenBucket(packetsPerSecond, burstSize, System.nanoTime());
+			scheduleChanged.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes the rate limit of the specified destination, if it has one.
+	 *
+	 * @param  destination  Identifier of the destination module.
+	 */
+	public void removeRateLimit(byte destination) {
+		lock.lock();
+		try {
+			rateLimits[destination & 0xFF] = null;
+			scheduleChanged.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The packet is queued with {@link TransmitPriority#NORMAL} priority.
+	 */
+	@Override
+	public void write(IKBusPacket packet) throws IKBusIOException {
+		write(packet, TransmitPriority.NORMAL);
+	}
+	
+	/**
+	 * Queues an I/K-bus packet for transmission with the specified priority. Blocks while the queue of the priority class is full.
+	 *
+	 * @param   packet            I/K-bus packet that should be written.
+	 * @param   priority          Priority class of the packet.
+	 * @throws  IKBusIOException  If the writer has been closed or if the underlying writer failed to write a previous packet.
+	 */
+	public void write(IKBusPacket packet, TransmitPriority priority) throws IKBusIOException {
+		ArrayDeque<ScheduledPacket> queue = queues[priority.ordinal()];
+		lock.lock();
+		try {
+			while (queue.size() >= queueCapacity && !closed && writeError == null) {
+				notFull.awaitUninterruptibly();
+			}
+			if (closed) {
+				throw new IKBusIOException("Attempted to write to closed writer");
+			}
+			if (writeError != null) {
+				IKBusIOException error = writeError;
+				writeError = null;
+				throw new IKBusIOException("Failed to write queued packet", error);
+			}
+			queue.add(new ScheduledPacket(packet, System.nanoTime()));
+			scheduleChanged.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Retrieves the number of packets of the specified priority class that are queued, but have not been transmitted yet.
+	 *
+	 * @param   priority  The priority class.
+	 * @return            The number of queued packets.
+	 */
+	public int getQueuedPacketCount(TransmitPriority priority) {
+		lock.lock();
+		try {
+			return queues[priority.ordinal()].size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Retrieves the number of packets of the specified priority class that have been transmitted.
+	 *
+	 * @param   priority  The priority class.
+	 * @return            The number of transmitted packets.
+	 */
+	public long getTransmittedPacketCount(TransmitPriority priority) {
+		lock.lock();
+		try {
+			return transmittedPacketCounts[priority.ordinal()];
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Retrieves the average time that the transmitted packets of the specified priority class have spent in the queue.
+	 *
+	 * @param   priority  The priority class.
+	 * @param   unit      The unit of the result.
+	 * @return            The average queueing delay, or 0 if no packets have been transmitted yet.
+	 */
+	public long getAverageQueueingDelay(TransmitPriority priority, TimeUnit unit) {
+		lock.lock();
+		try {
+			long count = transmittedPacketCounts[priority.ordinal()];
+			return count == 0 ? 0 : unit.convert(totalQueueingDelays[priority.ordinal()] / count, TimeUnit.NANOSECONDS);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Retrieves the maximum time that a transmitted packet of the specified priority class has spent in the queue.
+	 *
+	 * @param   priority  The priority class.
+	 * @param   unit      The unit of the result.
+	 * @return            The maximum queueing delay, or 0 if no packets have been transmitted yet.
+	 */
+	public long getMaximumQueueingDelay(TransmitPriority priority, TimeUnit unit) {
+		lock.lock();
+		try {
+			return unit.convert(maximumQueueingDelays[priority.ordinal()], TimeUnit.NANOSECONDS);
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The packets that are still queued are transmitted (subject to the rate limits) before the underlying writer is closed.
+	 */
+	@Override
+	public void close() throws IKBusIOException {
+		lock.lock();
+		try {
+			if (closed) {
+				throw new IKBusIOException("Writer has already been closed");
+			}
+			closed = true;
+			scheduleChanged.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		
+		// Wait until the scheduler thread has transmitted the remaining packets.
+		boolean interrupted = false;
+		while (schedulerThread.isAlive()) {
+			try {
+				schedulerThread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+		
+		writer.close();
+	}
+	
+	/**
+	 * Transmits the queued packets in order of priority until the writer is closed and all queues are empty. Executed by the scheduler
+	 * thread.
+	 */
+	private void runScheduler() {
+		boolean[] limitedDestinations = new boolean[DESTINATION_COUNT];
+		lock.lock();
+		try {
+			while (true) {
+				long now = System.nanoTime();
+				long waitTime = Long.MAX_VALUE;
+				boolean empty = true;
+				ScheduledPacket next = null;
+				int nextPriority = 0;
+				
+				// Select the oldest packet of the highest priority class whose destination is not held back by its rate limit.
+				for (int priority = 0; priority < queues.length && next == null; priority++) {
+					Iterator<ScheduledPacket> iterator = queues[priority].iterator();
+					while (iterator.hasNext()) {
+						empty = false;
+						ScheduledPacket candidate = iterator.next();
+						int destination = candidate.packet.getDestination() & 0xFF;
+						if (limitedDestinations[destination]) {
+							continue;
+						}
+						
+						TokenBucket rateLimit = rateLimits[destination];
+						if (rateLimit == null || rateLimit.tryAcquire(now)) {
+							iterator.remove();
+							next = candidate;
+							nextPriority = priority;
+							break;
+						}
+						
+						// Skip the other packets for this destination, so that they are transmitted in order.
+						limitedDestinations[destination] = true;
+						waitTime = Math.min(waitTime, rateLimit.nanosUntilAvailable(now));
+					}
+				}
+				Arrays.fill(limitedDestinations, false);
+				
+				if (next == null) {
+					if (empty && closed) {
+						return;
+					} else if (waitTime == Long.MAX_VALUE) {
+						scheduleChanged.awaitUninterruptibly();
+					} else {
+						try {
+							scheduleChanged.awaitNanos(waitTime);
+						} catch (InterruptedException e) {
+							// Ignored, like the other waits of the scheduler, so that the queued packets are still transmitted.
+						}
+					}
+					continue;
+				}
+				
+				// Record the queueing delay and transmit the packet without holding the lock.
+				long delay = now - next.enqueueTime;
+				transmittedPacketCounts[nextPriority]++;
+				totalQueueingDelays[nextPriority] += delay;
+				maximumQueueingDelays[nextPriority] = Math.max(maximumQueueingDelays[nextPriority], delay);
+				notFull.signalAll();
+				
+				IKBusIOException error = null;
+				lock.unlock();
+				try {
+					writer.write(next.packet);
+				} catch (IKBusIOException e) {
+					error = e;
+				} catch (RuntimeException e) {
+					error = new IKBusIOException(e);
+				} finally {
+					lock.lock();
+				}
+				if (error != null) {
+					writeError = error;
+					notFull.signalAll();
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * Token bucket that limits the rate at which packets are transmitted to a destination.
+	 */
+	private static class TokenBucket {
+		
+		/** Time in nanoseconds it takes to replenish a single token. */
+		private final double nanosPerToken;
+		
+		/** Maximum number of tokens in the bucket. */
+		private final int capacity;
+		
+		/** Number of tokens in the bucket at the time of the last refill. */
+		private double tokens;
+		
+		/** Time (see {@link System#nanoTime()}) at which the bucket was last refilled. */
+		private long lastRefillTime;
+		
+		/**
+		 * Creates a new, full token bucket.
+		 *
+		 * @param  tokensPerSecond  The rate at which tokens are replenished.
+		 * @param  capacity         Maximum number of tokens in the bucket.
+		 * @param  now              The current time (see {@link System#nanoTime()}).
+		 */
+		public TokenBucket(double tokensPerSecond, int capacity, long now) {
+			this.nanosPerToken = TimeUnit.SECONDS.toNanos(1) / tokensPerSecond;
+			this.capacity = capacity;
+			this.tokens = capacity;
+			this.lastRefillTime = now;
+		}
+		
+		/**
+		 * Takes a token from the bucket, if one is available.
+		 *
+		 * @param   now  The current time (see {@link System#nanoTime()}).
+		 * @return       {@code true} if a token was taken, {@code false} if the bucket is empty.
+		 */
+		public boolean tryAcquire(long now) {
+			refill(now);
+			if (tokens < 1) {
+				return false;
+			}
+			tokens--;
+			return true;
+		}
+		
+		/**
+		 * Computes the time until the next token becomes available.
+		 *
+		 * @param   now  The current time (see {@link System#nanoTime()}).
+		 * @return       The time in nanoseconds until a token is available, at least 1.
+		 */
+		public long nanosUntilAvailable(long now) {
+			refill(now);
+			return Math.max(1, (long) Math.ceil((1 - tokens) * nanosPerToken));
+		}
+		
+		/**
+		 * Adds the tokens that have been replenished since the last refill.
+		 *
+		 * @param  now  The current time (see {@link System#nanoTime()}).
+		 */
+		private void refill(long now) {
+			long elapsed = now - lastRefillTime;
+			if (elapsed > 0) {
+				tokens = Math.min(capacity, tokens + elapsed / nanosPerToken);
+				lastRefillTime = now;
+			}
+		}
+	
+	}
+	
+	/**
+	 * Data structure that holds a queued packet together with the time at which it was queued.
+	 */
+	private static class ScheduledPacket {
+		
+		/** The packet which is to be transmitted. */
+		private final IKBusPacket packet;
+		
+		/** Time (see {@link System#nanoTime()}) at which the packet was queued. */
+		private final long enqueueTime;
+		
+		/**
+		 * Creates a new {@link ScheduledPacket} instance.
+		 *
+		 * @param  packet       The packet which is to be transmitted.
+		 * @param  enqueueTime  Time (see {@link System#nanoTime()}) at which the packet was queued.
+		 */
+		public ScheduledPacket(IKBusPacket packet, long enqueueTime) {
+			this.packet = packet;
+			this.enqueueTime = enqueueTime;
+		}
+	
+	}
+
+}
@@ -0,0 +1,127 @@
+package net.novazero.lib.ikbus.io;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Factories for the threads that are used by {@link TimeRestrictedInputStream} instances to read from their underlying input streams.
+ *
+ * By default a platform daemon thread is created for every stream. On Java 21 and newer the {@link #virtual()} factory can be used instead
+ * to run the readers on virtual threads, which makes it cheap to have thousands of readers at the same time. Since this library is compiled
+ * for Java 8 the virtual thread factory is obtained reflectively; on older Java versions it falls back to platform daemon threads.
+ *
+ * The factories are also used for the other background threads of this library, such as those of the packet writers and publishers. The
+ * created threads are named after a prefix followed by a sequence number. Use {@link #withNamePrefix(String)} to obtain a factory that
+ * names its threads after their purpose.
+ *
+ * @author  Daan Scheerens
+ */
+public final class ReaderThreadFactory implements ThreadFactory {
+	
+	/** The prefix of the names of the threads that are created by the default factories. */
+	public static final String DEFAULT_NAME_PREFIX = "ikbus-reader";
+	
+	/** Factory that creates platform daemon threads. */
+	private static final ReaderThreadFactory PLATFORM = new ReaderThreadFactory(null, DEFAULT_NAME_PREFIX);
+	
+	/** Factory that creates virtual threads, or platform daemon threads if virtual threads are not supported. */
+	private static final ReaderThreadFactory VIRTUAL = new ReaderThreadFactory(lookupVirtualThreadFactory(), DEFAULT_NAME_PREFIX);
+	
+	/** Counter used to number the created threads. */
+	private static final AtomicInteger threadCounter = new AtomicInteger();
+	
+	/** The virtual thread factory provided by the Java runtime, or {@code null} if platform threads are to be created. */
+	private final ThreadFactory virtualThreadFactory;
+	
+	/** The prefix of the names of the created threads. */
+	private final String namePrefix;
+	
+	/**
+	 * Private constructor to enforce the use of the static factory methods.
+	 *
+	 * @param  virtualThreadFactory  The virtual thread factory provided by the Java runtime, or {@code null} for platform threads.
+	 * @param  namePrefix            The prefix of the names of the created threads.
+	 */
+	private ReaderThreadFactory(ThreadFactory virtualThreadFactory, String namePrefix) {
+		this.virtualThreadFactory = virtualThreadFactory;
+		this.namePrefix = namePrefix;
+	}
+	
+	/**
+	 * Retrieves the factory that creates platform daemon threads.
+	 *
+	 * @return  The factory that creates platform daemon threads.
+	 */
+	public static ReaderThreadFactory platform() {
+		return PLATFORM;
+	}
+	
+	/**
+	 * Retrieves the factory that creates virtual threads. If the Java runtime does not support virtual threads, then the returned factory
+	 * creates platform daemon threads instead (see {@link #isVirtual()}).
+	 *
+	 * @return  The factory that creates virtual threads if they are supported by the Java runtime.
+	 */
+	public static ReaderThreadFactory virtual() {
+		return VIRTUAL;
+	}
+	
+	/**
+	 * Retrieves a factory that creates the same kind of threads as this factory, but which names them after the specified prefix.
+	 *
+	 * @param   namePrefix  The prefix of the names of the created threads, for example {@code "ikbus-flusher"}.
+	 * @return              The factory that uses the specified name prefix.
+	 */
+	public ReaderThreadFactory withNamePrefix(String namePrefix) {
+		return new ReaderThreadFactory(virtualThreadFactory, namePrefix);
+	}
+	
+	/**
+	 * Checks whether the factory creates virtual threads.
+	 *
+	 * @return  {@code true} if the factory creates virtual threads, {@code false} if it creates platform daemon threads.
+	 */
+	public boolean isVirtual() {
+		return virtualThreadFactory != null;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Thread newThread(Runnable runnable) {
+		String name = namePrefix + "-" + threadCounter.incrementAndGet();
+		
+		if (virtualThreadFactory != null) {
+			Thread thread = virtualThreadFactory.newThread(runnable);
+			thread.setName(name);
+			return thread;
+		}
+		
+		Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+	/**
+	 * Obtains the virtual thread factory of the Java runtime by invoking {@code Thread.ofVirtual().factory()}.
+	 *
+	 * @return  The virtual thread factory or {@code null} if virtual threads are not supported by the Java runtime.
+	 */
+	private static ThreadFactory lookupVirtualThreadFactory() {
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder$OfVirtual");
+			MethodHandle ofVirtual = lookup.findStatic(Thread.class, "ofVirtual", MethodType.methodType(builderClass));
+			MethodHandle factory = lookup.findVirtual(builderClass, "factory", MethodType.methodType(ThreadFactory.class));
+			return (ThreadFactory) factory.invoke(ofVirtual.invoke());
+		} catch (Throwable e) {
+			// Virtual threads are not supported by the Java runtime.
+			return null;
+		}
+	}
+
+}
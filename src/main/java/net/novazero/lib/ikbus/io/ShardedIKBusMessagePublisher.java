@@ -0,0 +1,334 @@
+package net.novazero.lib.ikbus.io;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import net.novazero.lib.ikbus.IKBusMessage;
+import net.novazero.lib.ikbus.IKBusMessageParseException;
+import net.novazero.lib.ikbus.IKBusMessageParser;
+
+/**
+ * Publisher of the I/K-bus messages that are parsed from the valid packets read from an {@link IKBusPacketReader}, which distributes the
+ * packets over a number of shards based on their source. Each shard has its own parser, its own queue and a single thread that parses the
+ * packets from the queue, so the parsers do not need to be thread-safe. Since all packets from the same source module end up in the same
+ * shard, the messages from a module are published in the order in which its packets were read. Messages from different modules may be
+ * published in a different order though. Consumers that need the global order should use an {@link IKBusMessagePublisher} or a
+ * {@link ParallelIKBusMessagePublisher} instead.
+ *
+ * The throughput scales with the number of shards as long as the packets are spread over enough sources, which is typically the case for
+ * (merged) streams with traffic from many modules. The queue depth limits the number of packets that are waiting to be parsed by a shard;
+ * when the queue of a shard is full the reader thread stops reading until the shard has caught up. Corrupted data is skipped by the reader
+ * thread. Apart from that the publisher behaves like an {@link IKBusMessagePublisher}. The shard threads are started when the first packet
+ * is read and stop when the reader thread stops.
+ *
+ * @author  Daan Scheerens
+ */
+public class ShardedIKBusMessagePublisher extends BaseIKBusPublisher<IKBusMessage> {
+	
+	/** The default maximum number of packets that can be waiting to be parsed by a shard. */
+	public static final int DEFAULT_QUEUE_DEPTH = 256;
+	
+	/** The shards, indexed by the result of {@link #getShardIndex(byte)} for the source of the packets. */
+	private final Shard[] shards;
+	
+	/** Factory used to create the shard threads. */
+	private final ThreadFactory threadFactory;
+	
+	/** The first error that occurred while parsing or publishing a message, or {@code null} if no error occurred. */
+	private final AtomicReference<RuntimeException> error = new AtomicReference<>();
+	
+	/** Sink to which the parsed messages are published. Written by the reader thread before the shard threads are started. */
+	private Consumer<? super IKBusMessage> sink = null;
+	
+	/** Whether the shard threads have been started. Only accessed by the reader thread. */
+	private boolean started = false;
+	
+	/**
+	 * Creates a new publisher for the messages parsed from the packets read from the specified packet reader. The packets are distributed
+	 * over one shard per available processor, each with a queue depth of {@link #DEFAULT_QUEUE_DEPTH}. The publisher buffers up to
+	 * {@link BaseIKBusPublisher#DEFAULT_BUFFER_CAPACITY} messages and stops reading when the buffer is full.
+	 *
+	 * @param  reader         The packet reader from which the packets are read.
+	 * @param  parserFactory  Factory that creates the parser of each shard.
+	 */
+	public ShardedIKBusMessagePublisher(IKBusPacketReader reader, Supplier<? extends IKBusMessageParser> parserFactory) {
+		this(reader, parserFactory, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_DEPTH);
+	}
+	
+	/**
+	 * Creates a new publisher for the messages parsed from the packets read from the specified packet reader. The publisher buffers up to
+	 * {@link BaseIKBusPublisher#DEFAULT_BUFFER_CAPACITY} messages and stops reading when the buffer is full.
+	 *
+	 * @param   reader                    The packet reader from which the packets are read.
+	 * @param   parserFactory             Factory that creates the parser of each shard.
+	 * @param   shardCount                Number of shards over which the packets are distributed.
+	 * @param   queueDepth                Maximum number of packets that can be waiting to be parsed by a shard.
+	 * @throws  IllegalArgumentException  If the number of shards or the queue depth is less than 1.
+	 */
+	public ShardedIKBusMessagePublisher(IKBusPacketReader reader, Supplier<? extends IKBusMessageParser> parserFactory, int shardCount,
+			int queueDepth) {
+		this(reader, parserFactory, shardCount, queueDepth, DEFAULT_BUFFER_CAPACITY, OverflowPolicy.BLOCK,
+			ReaderThreadFactory.platform().withNamePrefix("ikbus-shard"));
+	}
+	
+	/**
+	 * Creates a new publisher for the messages parsed from the packets read from the specified packet reader.
+	 *
+	 * @param   reader                    The packet reader from which the packets are read.
+	 * @param   parserFactory             Factory that creates the parser of each shard.
+	 * @param   shardCount                Number of shards over which the packets are distributed.
+	 * @param   queueDepth                Maximum number of packets that can be waiting to be parsed by a shard.
+	 * @param   bufferCapacity            Maximum number of messages that are buffered for the subscriber.
+	 * @param   overflowPolicy            Policy which determines what happens when the buffer is full.
+	 * @param   threadFactory             Factory used to create the thread that reads from the packet reader and the shard threads.
+	 * @throws  IllegalArgumentException  If the number of shards, the queue depth or the buffer capacity is less than 1.
+	 */
+	public ShardedIKBusMessagePublisher(IKBusPacketReader reader, Supplier<? extends IKBusMessageParser> parserFactory, int shardCount,
+			int queueDepth, int bufferCapacity, OverflowPolicy overflowPolicy, ThreadFactory threadFactory) {
+		super(reader, bufferCapacity, overflowPolicy, threadFactory);
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("Number of shards should be at least 1, but was " + shardCount);
+		}
+		if (queueDepth < 1) {
+			throw new IllegalArgumentException("Queue depth should be at least 1, but was " + queueDepth);
+		}
+		this.threadFactory = threadFactory;
+		this.shards = new Shard[shardCount];
+		for (int index = 0; index < shardCount; index++) {
+			shards[index] = new Shard(parserFactory.get(), queueDepth);
+		}
+	}
+	
+	/**
+	 * Retrieves the number of shards over which the packets are distributed.
+	 *
+	 * @return  The number of shards.
+	 */
+	public int getShardCount() {
+		return shards.length;
+	}
+	
+	/**
+	 * Determines the index of the shard that parses the packets from the specified source. Since most module identifiers are multiples of
+	 * eight, taking the source modulo the number of shards would put most modules in the same shard. Instead the bits of the source are
+	 * mixed by multiplying it with the 32-bit golden ratio (Fibonacci hashing), after which the high bits of the product select the shard.
+	 *
+	 * @param   source  The source of the packets.
+	 * @return          The index of the shard.
+	 */
+	public int getShardIndex(byte source) {
+		long hash = ((source & 0xFF) * 0x9E3779B1L) & 0xFFFFFFFFL;
+		return (int) ((hash * shards.length) >>> 32);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * The packet is parsed by the parser of the shard that is responsible for its source. This method is invoked on the thread of that
+	 * shard.
+	 */
+	@Override
+	protected IKBusMessage convert(IKBusPacketStreamElement element) {
+		if (!element.isValidPacket()) {
+			return null;
+		}
+		try {
+			return shards[getShardIndex(element.getPacket().getSource())].parser.parseMessage(element.getPacket());
+		} catch (IKBusMessageParseException e) {
+			return null;
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Valid packets are added to the queue of the shard that is responsible for their source. If the queue is full, then this method blocks
+	 * until the shard has taken a packet from it.
+	 */
+	@Override
+	protected void process(IKBusPacketStreamElement element, Consumer<? super IKBusMessage> sink) {
+		RuntimeException failure = error.get();
+		if (failure != null) {
+			throw failure;
+		}
+		if (!element.isValidPacket()) {
+			return;
+		}
+		
+		if (!started) {
+			this.sink = sink;
+			for (Shard shard : shards) {
+				threadFactory.newThread(shard).start();
+			}
+			started = true;
+		}
+		shards[getShardIndex(element.getPacket().getSource())].enqueue(element);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 *
+	 * Waits until the shards have published the messages of all queued packets, after which the shard threads are stopped. If an error
+	 * occurred while parsing or publishing a message, then that error is thrown.
+	 */
+	@Override
+	protected void awaitProcessing() {
+		for (Shard shard : shards) {
+			shard.stop();
+		}
+		if (started) {
+			for (Shard shard : shards) {
+				shard.awaitFinished();
+			}
+		}
+		RuntimeException failure = error.get();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+	
+	/**
+	 * A shard, which parses the packets from its queue on its own thread (executing the {@link #run()} method).
+	 */
+	private class Shard implements Runnable {
+		
+		/** The parser of the shard. */
+		private final IKBusMessageParser parser;
+		
+		/** Lock that guards the queue and the state of the shard. */
+		private final Lock lock = new ReentrantLock();
+		
+		/** Condition that is signaled when a packet has been added to the queue or when the shard should stop. */
+		private final Condition notEmpty = lock.newCondition();
+		
+		/** Condition that is signaled when packets have been taken from the queue or when the shard has finished. */
+		private final Condition notFull = lock.newCondition();
+		
+		/** Circular buffer of the packets that are waiting to be parsed. */
+		private final IKBusPacketStreamElement[] queue;
+		
+		/** Index of the oldest packet in the queue. */
+		private int head = 0;
+		
+		/** Number of packets in the queue. */
+		private int size = 0;
+		
+		/** Whether the shard should stop once its queue is empty. */
+		private boolean stopped = false;
+		
+		/** Whether the shard has published the messages of all its packets and stopped. */
+		private boolean finished = false;
+		
+		/**
+		 * Creates a new shard.
+		 *
+		 * @param  parser      The parser of the shard.
+		 * @param  queueDepth  Maximum number of packets that can be waiting to be parsed.
+		 */
+		public Shard(IKBusMessageParser parser, int queueDepth) {
+			this.parser = parser;
+			this.queue = new IKBusPacketStreamElement[queueDepth];
+		}
+		
+		/**
+		 * Adds a packet to the queue, waiting until there is room if the queue is full.
+		 *
+		 * @param  element  The stream element of the packet.
+		 */
+		public void enqueue(IKBusPacketStreamElement element) {
+			lock.lock();
+			try {
+				while (size == queue.length) {
+					notFull.awaitUninterruptibly();
+				}
+				queue[(head + size) % queue.length] = element;
+				size++;
+				notEmpty.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/**
+		 * Requests the shard to stop once its queue is empty.
+		 */
+		public void stop() {
+			lock.lock();
+			try {
+				stopped = true;
+				notEmpty.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/**
+		 * Waits until the shard has published the messages of all its packets and stopped.
+		 */
+		public void awaitFinished() {
+			lock.lock();
+			try {
+				while (!finished) {
+					notFull.awaitUninterruptibly();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		
+		/**
+		 * Parses the packets from the queue and publishes the messages, until the shard is stopped. All packets that are in the queue at
+		 * once are taken together, so the reader thread can continue while they are being parsed.
+		 */
+		@Override
+		public void run() {
+			IKBusPacketStreamElement[] batch = new IKBusPacketStreamElement[queue.length];
+			while (true) {
+				int count;
+				lock.lock();
+				try {
+					while (size == 0 && !stopped) {
+						notEmpty.awaitUninterruptibly();
+					}
+					if (size == 0) {
+						finished = true;
+						notFull.signalAll();
+						return;
+					}
+					count = size;
+					for (int index = 0; index < count; index++) {
+						batch[index] = queue[head];
+						queue[head] = null;
+						head = (head + 1) % queue.length;
+					}
+					size = 0;
+					notFull.signal();
+				} finally {
+					lock.unlock();
+				}
+				
+				for (int index = 0; index < count; index++) {
+					// Once an error occurred, the remaining packets are discarded, since the subscriber is about to receive that error.
+					if (error.get() == null) {
+						try {
+							IKBusMessage message = convert(batch[index]);
+							if (message != null) {
+								sink.accept(message);
+							}
+						} catch (RuntimeException e) {
+							error.compareAndSet(null, e);
+						}
+					}
+					batch[index] = null;
+				}
+			}
+		}
+	
+	}
+
+}
@@ -0,0 +1,55 @@
+package net.novazero.lib.ikbus.io;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The standard {@link WaitStrategy} implementations.
+ * 
+ * @author  Daan Scheerens
+ */
+enum StandardWaitStrategy implements WaitStrategy {
+	
+	/** Parks the waiting thread until it is woken up or until the deadline passes. */
+	BLOCKING {
+		@Override
+		public void idle(long remainingNanos) {
+			if (remainingNanos < 0) {
+				LockSupport.park(this);
+			} else {
+				LockSupport.parkNanos(this, remainingNanos);
+			}
+		}
+		
+		@Override
+		public boolean isBlocking() {
+			return true;
+		}
+	},
+	
+	/** Yields the processor to other threads while waiting. */
+	YIELDING {
+		@Override
+		public void idle(long remainingNanos) {
+			Thread.yield();
+		}
+		
+		@Override
+		public boolean isBlocking() {
+			return false;
+		}
+	},
+	
+	/** Busy-spins while waiting. */
+	BUSY_SPIN {
+		@Override
+		public void idle(long remainingNanos) {
+			// Return immediately so that the waiting thread checks for new data again.
+		}
+		
+		@Override
+		public boolean isBlocking() {
+			return false;
+		}
+	};
+	
+}
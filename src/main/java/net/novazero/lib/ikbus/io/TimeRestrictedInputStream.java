@@ -3,14 +3,30 @@ package net.novazero.lib.ikbus.io;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.ArrayDeque;
-import java.util.Queue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * An input stream wrapper class used for creating an input stream whose read calls can timeout. Note that you always close your streams
  * after use to prevent resource leaks. This is especially true for the {@link TimeRestrictedInputStream} since it starts a daemon thread to
  * read from the underlying {@link InputStream}. Failing to close the {@link TimeRestrictedInputStream} may result in stale daemon threads.
  * 
+ * The daemon thread can read the data from the underlying {@link InputStream} in chunks, rather than one byte at a time. This reduces the
+ * number of hand-overs between the daemon thread and the thread that calls the read methods, which is beneficial for input streams that
+ * deliver their data in bursts. The chunk size is specified when the {@link TimeRestrictedInputStream} is created. Note that the daemon
+ * thread never attempts to read more bytes than the number of bytes reported by {@link InputStream#available()} (with a minimum of one
+ * byte), so that reading in chunks does not change the moment at which a byte becomes available to the read methods.
+ * 
+ * The thread that reads from the underlying {@link InputStream} is created by a {@link ThreadFactory}. By default a platform daemon thread
+ * is used, but on Java 21 and newer {@link ReaderThreadFactory#virtual()} can be specified to use a virtual thread instead.
+ * 
+ * The chunks are handed over from the daemon thread to the thread that calls the read methods through a lock-free single-producer /
+ * single-consumer ring. How the read methods wait for the next chunk is determined by a {@link WaitStrategy}: by default the waiting
+ * thread is parked (which never pins a virtual thread to its carrier thread), but latency-critical applications can choose to yield or to
+ * busy-spin instead. Note that the read methods must always be called from the same thread, or at least not concurrently.
+ * 
  * @author  Daan Scheerens
  */
 public class TimeRestrictedInputStream implements Closeable {
@@ -21,8 +37,29 @@ public class TimeRestrictedInputStream implements Closeable {
 	/** Result returned by the read method if a timeout occurred while reading the next byte from the input stream. */
 	public static final int TIMEOUT = -2;
 	
-	/** A buffer which holds the byte that will be returned upon the next read call. */
-	private final Queue<InputStreamReadResult> buffer = new ArrayDeque<>(1);
+	/** Chunk size used by the constructors that do not specify a chunk size, which makes the stream read one byte at a time. */
+	public static final int DEFAULT_CHUNK_SIZE = 1;
+	
+	/** Number of slots in the ring through which the read results are handed over. Must be a power of two. */
+	private static final int RING_SIZE = 4;
+	
+	/** The ring which holds the read results that will be returned upon the next read calls. */
+	private final InputStreamReadResult[] ring = new InputStreamReadResult[RING_SIZE];
+	
+	/** Number of read results that have been published in the ring by the reader thread. Only written by the reader thread. */
+	private final AtomicLong ringTail = new AtomicLong();
+	
+	/** Number of read results that have been consumed from the ring. Only written by the thread that calls the read methods. */
+	private final AtomicLong ringHead = new AtomicLong();
+	
+	/** The thread that calls the read methods if it is parked while waiting for the next read result, {@code null} otherwise. */
+	private volatile Thread waitingConsumer = null;
+	
+	/** Whether the reader thread is parked while waiting for a free slot in the ring. */
+	private volatile boolean producerWaiting = false;
+	
+	/** Strategy that determines how the read methods wait for the next read result. */
+	private final WaitStrategy waitStrategy;
 	
 	/** The input stream that is wrapped. */
 	private final InputStream inputStream;
@@ -30,7 +67,7 @@ public class TimeRestrictedInputStream implements Closeable {
 	/** The thread that performs the reading from the input stream. */
 	private final Thread readerThread;
 	
-	/** Whether the end of the stream has been reached. */
+	/** Whether the end of the stream has been reached by the read methods. */
 	private boolean endOfStreamReached = false;
 	
 	/** Whether the stream has already been closed. */
@@ -39,6 +76,15 @@ public class TimeRestrictedInputStream implements Closeable {
 	/** Default timeout to use for read calls with an unspecified timeout period. */
 	private long defaultTimeout;
 	
+	/** The chunk from which the bytes are currently returned by the read calls. Only accessed by the thread that calls the read methods. */
+	private DataReadResult currentChunk = null;
+	
+	/** Index of the next byte in the current chunk that is to be returned. */
+	private int currentChunkPosition = 0;
+	
+	/** Time ({@link System#nanoTime()}) at which the byte that was returned by the last read call was received. */
+	private long lastReceiveTime = 0;
+	
 	/**
 	 * Creates a new TimeRestrictedInputStream instance for the given input stream, with an indefinite default timeout period. 
 	 * 
@@ -55,49 +101,109 @@ public class TimeRestrictedInputStream implements Closeable {
 	 * @param  defaultTimeout  Default timeout to use for read calls with an unspecified timeout period.
 	 */
 	public TimeRestrictedInputStream(final InputStream inputStream, long defaultTimeout) {
+		this(inputStream, defaultTimeout, DEFAULT_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Creates a new TimeRestrictedInputStream instance for the given input stream, with the specified default timeout period and chunk
+	 * size.
+	 * 
+	 * @param  inputStream     The input stream from which a time restricted variant is to be created.
+	 * @param  defaultTimeout  Default timeout to use for read calls with an unspecified timeout period.
+	 * @param  chunkSize       Maximum number of bytes that the daemon thread reads from the input stream at once.
+	 */
+	public TimeRestrictedInputStream(final InputStream inputStream, long defaultTimeout, int chunkSize) {
+		this(inputStream, defaultTimeout, chunkSize, ReaderThreadFactory.platform());
+	}
+	
+	/**
+	 * Creates a new TimeRestrictedInputStream instance for the given input stream, with the specified default timeout period and chunk
+	 * size. The thread that reads from the input stream is created using the specified thread factory.
+	 * 
+	 * @param  inputStream     The input stream from which a time restricted variant is to be created.
+	 * @param  defaultTimeout  Default timeout to use for read calls with an unspecified timeout period.
+	 * @param  chunkSize       Maximum number of bytes that the daemon thread reads from the input stream at once.
+	 * @param  threadFactory   Factory used to create the thread that reads from the input stream.
+	 */
+	public TimeRestrictedInputStream(final InputStream inputStream, long defaultTimeout, int chunkSize, ThreadFactory threadFactory) {
+		this(inputStream, defaultTimeout, chunkSize, threadFactory, WaitStrategy.blocking());
+	}
+	
+	/**
+	 * Creates a new TimeRestrictedInputStream instance for the given input stream, with the specified default timeout period and chunk
+	 * size. The thread that reads from the input stream is created using the specified thread factory and the read methods wait for data
+	 * using the specified wait strategy.
+	 * 
+	 * @param  inputStream     The input stream from which a time restricted variant is to be created.
+	 * @param  defaultTimeout  Default timeout to use for read calls with an unspecified timeout period.
+	 * @param  chunkSize       Maximum number of bytes that the daemon thread reads from the input stream at once.
+	 * @param  threadFactory   Factory used to create the thread that reads from the input stream.
+	 * @param  waitStrategy    Strategy that determines how the read methods wait for data.
+	 */
+	public TimeRestrictedInputStream(final InputStream inputStream, long defaultTimeout, int chunkSize, ThreadFactory threadFactory,
+			WaitStrategy waitStrategy) {
+		if (chunkSize < 1) {
+			throw new IllegalArgumentException("Chunk size should be at least 1, got " + chunkSize + " instead");
+		}
+		
 		this.inputStream = inputStream;
 		this.defaultTimeout = defaultTimeout;
+		this.waitStrategy = waitStrategy;
+		
+		// Create a chunk for every slot of the ring. The reader thread only fills a chunk once its slot has been released by the read calls.
+		final DataReadResult[] chunks = new DataReadResult[RING_SIZE];
+		for (int index = 0; index < RING_SIZE; index++) {
+			chunks[index] = new DataReadResult(chunkSize);
+		}
 		
 		// Create thread that will actually perform the reading from the input stream.
-		this.readerThread = new Thread(new Runnable() {
+		this.readerThread = threadFactory.newThread(new Runnable() {
 			@Override public void run() {
+				long tail = 0;
 				try {
 					// Keep reading until the end of the stream has been reached.
-					while (!endOfStreamReached) {
-						// Wait until buffer is empty before reading next byte.
-						synchronized(buffer) {
-							while (!buffer.isEmpty()) buffer.wait();
+					boolean endOfStream = false;
+					while (!endOfStream) {
+						// Wait until the next slot of the ring is free before reading next chunk.
+						while (tail - ringHead.get() == RING_SIZE) {
+							producerWaiting = true;
+							if (tail - ringHead.get() == RING_SIZE) {
+								LockSupport.park(this);
+							}
+							producerWaiting = false;
+							if (Thread.interrupted()) {
+								return;
+							}
 						}
 						
-						// Attempt to read next byte from input stream.
+						// Attempt to read next chunk from input stream, without blocking for more bytes than are available.
 						InputStreamReadResult readResult;
-						int data = inputStream.read();
-						if (data < 0) {
-							endOfStreamReached = true;
+						DataReadResult chunk = chunks[(int) tail & (RING_SIZE - 1)];
+						int bytesToRead = Math.max(1, Math.min(inputStream.available(), chunk.data.length));
+						int bytesRead = inputStream.read(chunk.data, 0, bytesToRead);
+						if (bytesRead < 0) {
+							endOfStream = true;
 							readResult = EndOfStreamReadResult.INSTANCE;
+						} else if (bytesRead == 0) {
+							continue;
 						} else {
-							readResult = new DataReadResult((byte) data);
+							chunk.length = bytesRead;
+							chunk.receiveTime = System.nanoTime();
+							readResult = chunk;
 						}
 						
-						// Append reading result to the buffer.
-						synchronized(buffer) {
-							buffer.add(readResult);
-							buffer.notify();
-						}
+						// Publish reading result in the ring.
+						publish(tail++, readResult);
 					}
 				} catch (Exception e) {
 					// When an exception occurs while reading from the input stream, there is likely no way to recover, so quit the thread.
-					synchronized(buffer) {
-						endOfStreamReached = true;
-						buffer.add(new ExceptionReadResult(e));
-						buffer.notify();
-					}
+					// Note that a slot is always available at this point, since the ring is only full while the thread is parked.
+					publish(tail, new ExceptionReadResult(e));
 				}
 			}
 		});
 		
 		// Start reader thread.
-		readerThread.setDaemon(true);
 		readerThread.start();
 	}
 	
@@ -149,54 +255,138 @@ public class TimeRestrictedInputStream implements Closeable {
 			throw new IOException("Attepted to read from closed input stream");
 		}
 		
-		// Retrieve byte from the reader thread through the buffer.
-		synchronized(buffer) {
-			InputStreamReadResult result = buffer.poll();
-			
-			// Quit if the end of the stream has been reached.
-			if (endOfStreamReached && result == null) {
-				return END_OF_STREAM;
+		// Return the next byte of the current chunk if there is any.
+		if (currentChunk != null) {
+			return nextChunkByte();
+		}
+		
+		// Quit if the end of the stream has been reached.
+		if (endOfStreamReached) {
+			return END_OF_STREAM;
+		}
+		
+		// Wait until the reader thread provides another chunk or until a timeout occurs.
+		long head = ringHead.get();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (ringTail.get() == head) {
+			long remainingNanos = timeout == 0 ? -1 : deadline - System.nanoTime();
+			if (timeout != 0 && remainingNanos <= 0) {
+				break;
 			}
 			
-			// If no byte is available wait until the the reader thread has read another byte.
-			if (result == null) {
-				
-				// Signal reader thread to read another byte.
-				buffer.notify();
-				
-				// Wait until the reader thread provides another byte or until a timeout occurs.
-				try {
-					buffer.wait(timeout);
-					result = buffer.poll();
-				} catch (InterruptedException e) {
-					throw new IOException("Thread was interrupted while waiting for new data", e);
+			if (waitStrategy.isBlocking()) {
+				waitingConsumer = Thread.currentThread();
+				if (ringTail.get() == head) {
+					waitStrategy.idle(remainingNanos);
 				}
+				waitingConsumer = null;
+			} else {
+				waitStrategy.idle(remainingNanos);
 			}
 			
-			// If the buffer is still empty assume that a timeout has occurred.
-			if (result == null) {
-				return TIMEOUT;
+			if (Thread.interrupted()) {
+				throw new IOException("Thread was interrupted while waiting for new data", new InterruptedException());
 			}
-			
-			// Return byte if there was no error.
-			if (result.isException()) {
-				// An exception occurred, wrap exception if necessary and throw it.
-				if (result.getException() instanceof IOException) {
-					throw (IOException) result.getException();
-				} else if (result.getException() instanceof RuntimeException) {
-					throw (RuntimeException) result.getException();
-				} else {
-					throw new RuntimeException(result.getException());
-				}
-			} else if (result.isEndOfStream()) {
-				// The end of the stream was reached.
-				return END_OF_STREAM;
+		}
+		InputStreamReadResult result = ringTail.get() == head ? null : ring[(int) head & (RING_SIZE - 1)];
+		
+		// If no chunk is available assume that a timeout has occurred.
+		if (result == null) {
+			return TIMEOUT;
+		}
+		
+		// Return byte if there was no error.
+		if (!result.isData()) {
+			endOfStreamReached = true;
+		}
+		if (result.isException()) {
+			// An exception occurred, wrap exception if necessary and throw it.
+			if (result.getException() instanceof IOException) {
+				throw (IOException) result.getException();
+			} else if (result.getException() instanceof RuntimeException) {
+				throw (RuntimeException) result.getException();
 			} else {
-				// Byte was successfully read.
-				return result.getData() & 0xFF;
+				throw new RuntimeException(result.getException());
+			}
+		} else if (result.isEndOfStream()) {
+			// The end of the stream was reached.
+			return END_OF_STREAM;
+		} else {
+			// Chunk was successfully read, return its first byte.
+			currentChunk = (DataReadResult) result;
+			currentChunkPosition = 0;
+			lastReceiveTime = currentChunk.receiveTime;
+			return nextChunkByte();
+		}
+	}
+	
+	/**
+	 * Returns the number of bytes that can be read without waiting. This includes the remaining bytes of the current chunk and the bytes of
+	 * the chunks which have already been received by the reader thread, up to the end of the stream or an error.
+	 * 
+	 * @return               The number of bytes that can be read without waiting.
+	 * @throws  IOException  If the stream has been closed.
+	 */
+	public int available() throws IOException {
+		if (streamClosed) {
+			throw new IOException("Attepted to read from closed input stream");
+		}
+		
+		int available = currentChunk == null ? 0 : currentChunk.length - currentChunkPosition;
+		long tail = ringTail.get();
+		for (long index = ringHead.get() + (currentChunk == null ? 0 : 1); index < tail; index++) {
+			InputStreamReadResult result = ring[(int) index & (RING_SIZE - 1)];
+			if (!result.isData()) {
+				break;
+			}
+			available += ((DataReadResult) result).length;
+		}
+		return available;
+	}
+	
+	/**
+	 * Returns the next byte of the current chunk. The slot of the chunk is released as soon as its last byte has been returned, so that the
+	 * reader thread can fill it again.
+	 * 
+	 * @return  The next byte of the current chunk.
+	 */
+	private int nextChunkByte() {
+		int result = currentChunk.data[currentChunkPosition++] & 0xFF;
+		if (currentChunkPosition == currentChunk.length) {
+			currentChunk = null;
+			ringHead.set(ringHead.get() + 1);
+			if (producerWaiting) {
+				LockSupport.unpark(readerThread);
 			}
-			
 		}
+		return result;
+	}
+	
+	/**
+	 * Publishes a read result in the ring and wakes up the thread that calls the read methods if it is waiting. Only called by the reader
+	 * thread.
+	 * 
+	 * @param  tail        Index of the slot in which the read result is to be published.
+	 * @param  readResult  The read result that is to be published.
+	 */
+	private void publish(long tail, InputStreamReadResult readResult) {
+		ring[(int) tail & (RING_SIZE - 1)] = readResult;
+		ringTail.set(tail + 1);
+		Thread consumer = waitingConsumer;
+		if (consumer != null) {
+			LockSupport.unpark(consumer);
+		}
+	}
+	
+	/**
+	 * Retrieves the time at which the byte that was returned by the last read call was received from the underlying input stream. The time
+	 * is recorded by the reader thread as soon as the read call on the input stream returns, so it is not affected by delays in calling the
+	 * read methods of this class. Bytes that were read as part of the same chunk share the same receive time.
+	 * 
+	 * @return  The time ({@link System#nanoTime()}) at which the last byte that was read was received.
+	 */
+	public long getLastReceiveTime() {
+		return lastReceiveTime;
 	}
 	
 	/**
@@ -237,20 +427,9 @@ public class TimeRestrictedInputStream implements Closeable {
 		 * 
 		 * @return  {@code true} if the read result contains data, {@code false} if not.
 		 */
-		@SuppressWarnings("unused")
 		public boolean isData() {
 			return false;
 		}
-		
-		/**
-		 * Retrieves the data stored in the read result. An {@link UnsupportedOperationException} is thrown when the {@link #isData()}
-		 * method returns {@code false}.
-		 * 
-		 * @return  The byte that was read.
-		 */
-		public byte getData() {
-			throw new UnsupportedOperationException("Read result is not data");
-		}
 
 		/**
 		 * Checks whether the read result contains an exception.
@@ -282,20 +461,27 @@ public class TimeRestrictedInputStream implements Closeable {
 	}
 	
 	/**
-	 * An {@link InputStreamReadResult} implementation for storing data.
+	 * An {@link InputStreamReadResult} implementation for storing a chunk of data. Instances of this class are reused by the reader thread
+	 * to prevent an allocation for every chunk that is read.
 	 */
 	private static class DataReadResult extends InputStreamReadResult {
 		
-		/** The byte that was read. */
-		private final byte data;
+		/** Buffer which holds the bytes that were read. */
+		private final byte[] data;
+		
+		/** Number of bytes in the buffer that were read. */
+		private int length = 0;
+		
+		/** Time ({@link System#nanoTime()}) at which the bytes were read. */
+		private long receiveTime = 0;
 		
 		/**
-		 * Creates a new {@link DataReadResult} instance for the specified data.
+		 * Creates a new {@link DataReadResult} instance with a buffer of the specified size.
 		 * 
-		 * @param  data  The byte that was read.
+		 * @param  chunkSize  Maximum number of bytes that can be stored in the read result.
 		 */
-		public DataReadResult(byte data) {
-			this.data = data;
+		public DataReadResult(int chunkSize) {
+			this.data = new byte[chunkSize];
 		}
 		
 		/**
@@ -305,14 +491,6 @@ public class TimeRestrictedInputStream implements Closeable {
 		public boolean isData() {
 			return true;
 		}
-		
-		/**
-		 * {@inheritDoc}
-		 */
-		@Override
-		public byte getData() {
-			return data;
-		}
 	}
 
 	/**
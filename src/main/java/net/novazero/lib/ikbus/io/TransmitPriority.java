@@ -0,0 +1,20 @@
+package net.novazero.lib.ikbus.io;
+
+/**
+ * Priority classes of the packets that are written using a {@link PriorityIKBusPacketWriter}. Packets of a higher priority class are
+ * always transmitted before packets of a lower priority class that are ready to be transmitted.
+ *
+ * @author  Daan Scheerens
+ */
+public enum TransmitPriority {
+	
+	/** Time-critical traffic, such as control commands that are the result of user interaction. */
+	HIGH,
+	
+	/** Regular traffic. */
+	NORMAL,
+	
+	/** Background traffic, such as periodic status polling. */
+	LOW
+
+}
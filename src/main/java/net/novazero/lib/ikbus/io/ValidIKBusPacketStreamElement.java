@@ -10,13 +10,55 @@ public class ValidIKBusPacketStreamElement implements IKBusPacketStreamElement {
 	/** Packet that was read from the I/K-bus communication link. */
 	private final IKBusPacket packet;
 	
+	/** The raw packet data as it was received, or {@code null} if it is to be obtained by encoding the packet. */
+	private final byte[] rawData;
+	
+	/** The time ({@link System#nanoTime()}) at which the first byte of the stream element was received. */
+	private final long firstByteTime;
+	
+	/** The time ({@link System#nanoTime()}) at which the last byte of the stream element was received. */
+	private final long lastByteTime;
+	
+	/** Offset in nanoseconds that converts the receive times to wall-clock time. */
+	private final long wallClockOffset;
+	
 	/**
 	 * Creates a new {@link ValidIKBusPacketStreamElement} instance for the specified packet.
 	 * 
 	 * @param  packet  Packet that was read from the I/K-bus communication link.
 	 */
 	public ValidIKBusPacketStreamElement(IKBusPacket packet) {
+		this(packet, 0, 0, 0);
+	}
+	
+	/**
+	 * Creates a new {@link ValidIKBusPacketStreamElement} instance for the specified packet and the times at which it was received.
+	 * 
+	 * @param  packet           Packet that was read from the I/K-bus communication link.
+	 * @param  firstByteTime    The time ({@link System#nanoTime()}) at which the first byte of the packet was received.
+	 * @param  lastByteTime     The time ({@link System#nanoTime()}) at which the last byte of the packet was received.
+	 * @param  wallClockOffset  Offset in nanoseconds that converts the receive times to wall-clock time.
+	 */
+	public ValidIKBusPacketStreamElement(IKBusPacket packet, long firstByteTime, long lastByteTime, long wallClockOffset) {
+		this(packet, null, firstByteTime, lastByteTime, wallClockOffset);
+	}
+	
+	/**
+	 * Creates a new {@link ValidIKBusPacketStreamElement} instance for the specified packet, the raw data from which it was parsed and the
+	 * times at which it was received. The raw data is returned by {@link #getData()} as is, so it should not be modified afterwards.
+	 * 
+	 * @param  packet           Packet that was read from the I/K-bus communication link.
+	 * @param  rawData          The raw packet data as it was received, or {@code null} to encode the packet when the data is requested.
+	 * @param  firstByteTime    The time ({@link System#nanoTime()}) at which the first byte of the packet was received.
+	 * @param  lastByteTime     The time ({@link System#nanoTime()}) at which the last byte of the packet was received.
+	 * @param  wallClockOffset  Offset in nanoseconds that converts the receive times to wall-clock time.
+	 */
+	public ValidIKBusPacketStreamElement(IKBusPacket packet, byte[] rawData, long firstByteTime, long lastByteTime, long wallClockOffset) {
 		this.packet = packet;
+		this.rawData = rawData;
+		this.firstByteTime = firstByteTime;
+		this.lastByteTime = lastByteTime;
+		this.wallClockOffset = wallClockOffset;
 	}
 
 	/**
@@ -29,10 +71,13 @@ public class ValidIKBusPacketStreamElement implements IKBusPacketStreamElement {
 
 	/**
 	 * {@inheritDoc}
+	 * 
+	 * If the raw packet data was supplied when the stream element was created, then that array is returned. Otherwise the packet is encoded
+	 * again on every call.
 	 */
 	@Override
 	public byte[] getData() {
-		return packet.toRaw();
+		return rawData != null ? rawData : packet.toRaw();
 	}
 
 	/**
@@ -43,4 +88,28 @@ public class ValidIKBusPacketStreamElement implements IKBusPacketStreamElement {
 		return packet;
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getFirstByteTime() {
+		return firstByteTime;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getLastByteTime() {
+		return lastByteTime;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public long getWallClockOffset() {
+		return wallClockOffset;
+	}
+	
 }
\ No newline at end of file
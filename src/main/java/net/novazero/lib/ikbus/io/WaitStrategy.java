@@ -0,0 +1,57 @@
+package net.novazero.lib.ikbus.io;
+
+/**
+ * Strategy that determines how a thread waits for data to become available, for example the thread that reads from a
+ * {@link TimeRestrictedInputStream}. A wait strategy trades CPU usage for wake-up latency: a blocking strategy parks the waiting thread
+ * until it is woken up, while a spinning strategy keeps the thread (and thus a CPU core) busy to notice new data within microseconds.
+ * 
+ * @author  Daan Scheerens
+ */
+public interface WaitStrategy {
+	
+	/**
+	 * Performs a single waiting step. This method is called repeatedly by the waiting thread until the awaited data is available or the
+	 * deadline has passed. It may return at any moment, after which the waiting thread checks whether the data has become available.
+	 * 
+	 * @param  remainingNanos  Number of nanoseconds left until the deadline, or a negative value if the thread waits indefinitely.
+	 */
+	void idle(long remainingNanos);
+	
+	/**
+	 * Checks whether the waiting thread can be blocked by the {@link #idle} method. If so, the thread that provides the data should wake up
+	 * the waiting thread using {@link java.util.concurrent.locks.LockSupport#unpark}.
+	 * 
+	 * @return  {@code true} if the waiting thread has to be woken up, {@code false} if not.
+	 */
+	boolean isBlocking();
+	
+	/**
+	 * Retrieves the wait strategy that parks the waiting thread until it is woken up or until the deadline passes. This strategy consumes no
+	 * CPU time while waiting and is suitable for virtual threads.
+	 * 
+	 * @return  The blocking wait strategy.
+	 */
+	static WaitStrategy blocking() {
+		return StandardWaitStrategy.BLOCKING;
+	}
+	
+	/**
+	 * Retrieves the wait strategy that yields the processor to other threads while waiting.
+	 * 
+	 * @return  The yielding wait strategy.
+	 */
+	static WaitStrategy yielding() {
+		return StandardWaitStrategy.YIELDING;
+	}
+	
+	/**
+	 * Retrieves the wait strategy that busy-spins until the data is available or the deadline passes. This strategy offers the lowest
+	 * wake-up latency, but fully occupies a CPU core while waiting. It should not be used with virtual threads.
+	 * 
+	 * @return  The busy-spin wait strategy.
+	 */
+	static WaitStrategy busySpin() {
+		return StandardWaitStrategy.BUSY_SPIN;
+	}
+	
+}
@@ -1,6 +1,11 @@
 package net.novazero.lib.ikbus.util;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.function.IntConsumer;
 
 /**
  * An immutable sequence of bytes. This class can be used as a lightweight wrapper for byte arrays to guarantee read only access to the data.
@@ -11,6 +16,9 @@ public class ByteArrayByteString implements Iterable<Byte>, ByteString {
 	
 	/** Array which holds the bytes that can be read. */
 	private final byte[] bytes;
+	
+	/** Cached hash code of the contents, or 0 if it has not been computed yet. */
+	private int hash = 0;
 
 	/**
 	 * Creates a new {@link ByteArrayByteString} from the specified byte array. Note that the byte array will be cloned in order to prevent
@@ -78,6 +86,97 @@ public class ByteArrayByteString implements Iterable<Byte>, ByteString {
 		System.arraycopy(bytes, sourceIndex, destination, destinationIndex, length);
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forEachByte(IntConsumer action) {
+		for (byte b : bytes) {
+			action.accept(b & 0xFF);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int indexOf(byte value, int fromIndex) {
+		for (int index = Math.max(fromIndex, 0); index < bytes.length; index++) {
+			if (bytes[index] == value) {
+				return index;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean regionMatches(int offset, byte[] other, int otherOffset, int length) {
+		if (offset < 0 || otherOffset < 0 || length < 0 || offset > bytes.length - length || otherOffset > other.length - length) {
+			return false;
+		}
+		for (int index = 0; index < length; index++) {
+			if (bytes[offset + index] != other[otherOffset + index]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ByteString slice(int from, int to) {
+		if (from < 0 || to > bytes.length || from > to) {
+			throw new IndexOutOfBoundsException("Invalid slice [" + from + ", " + to + ") of a byte string of length " + bytes.length);
+		}
+		return new ByteArraySliceByteString(bytes, from, to - from);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer source = ByteBuffer.wrap(bytes);
+		while (source.hasRemaining()) {
+			channel.write(source);
+		}
+	}
+	
+	/**
+	 * Checks whether the specified object is a {@link ByteString} with the same contents.
+	 * 
+	 * @param   object  The object to compare with.
+	 * @return          {@code true} if the object is a {@link ByteString} with the same contents, {@code false} if not.
+	 */
+	@Override
+	public boolean equals(Object object) {
+		if (object instanceof ByteArrayByteString) {
+			return Arrays.equals(bytes, ((ByteArrayByteString) object).bytes);
+		}
+		return object instanceof ByteString && contentEquals((ByteString) object);
+	}
+	
+	/**
+	 * Returns the hash code of the contents (see {@link ByteString#contentHashCode()}). Since the contents never change, the hash code is
+	 * computed only once.
+	 * 
+	 * @return  The hash code of the contents.
+	 */
+	@Override
+	public int hashCode() {
+		int result = hash;
+		if (result == 0) {
+			result = Arrays.hashCode(bytes);
+			hash = result;
+		}
+		return result;
+	}
+	
 	/**
 	 * An iterator for {@link ByteArrayByteString} instances.
 	 */
@@ -0,0 +1,217 @@
+package net.novazero.lib.ikbus.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+import java.util.function.IntConsumer;
+
+/**
+ * A {@link ByteString} that is a view on a region of a byte array. Unlike {@link ByteArrayByteString} the bytes are never copied when
+ * creating an instance, which makes this class suitable for wrapping (parts of) receive buffers at virtually no cost. Consequently the
+ * contents of the view change when the underlying array is modified. If the view needs to be retained after the underlying array is reused,
+ * then {@link #detach()} should be called to obtain an independent copy.
+ * 
+ * @author  Daan Scheerens
+ */
+public class ByteArraySliceByteString implements Iterable<Byte>, ByteString {
+	
+	/** Array which holds the bytes that can be read. */
+	private final byte[] bytes;
+	
+	/** Index of the first byte of the view in the array. */
+	private final int offset;
+	
+	/** Number of bytes in the view. */
+	private final int length;
+	
+	/**
+	 * Creates a new {@link ByteArraySliceByteString} that is a view on the specified region of the byte array.
+	 * 
+	 * @param   bytes                      The array that holds the bytes of the view.
+	 * @param   offset                     Index of the first byte of the view in the array.
+	 * @param   length                     Number of bytes in the view.
+	 * @throws  IndexOutOfBoundsException  If the region does not lie within the bounds of the array.
+	 */
+	public ByteArraySliceByteString(byte[] bytes, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > bytes.length - length) {
+			throw new IndexOutOfBoundsException(
+				"Region [" + offset + ", " + offset + " + " + length + ") is out of bounds for an array of length " + bytes.length);
+		}
+		this.bytes = bytes;
+		this.offset = offset;
+		this.length = length;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int length() {
+		return length;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte get(int index) {
+		if (index < 0 || index >= length) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return bytes[offset + index];
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] toArray() {
+		byte[] result = new byte[length];
+		System.arraycopy(bytes, offset, result, 0, length);
+		return result;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Iterator<Byte> iterator() {
+		return new ByteStringIterator();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void copyTo(int sourceIndex, byte[] destination, int destinationIndex, int length) {
+		if (sourceIndex < 0 || length < 0 || sourceIndex > this.length - length) {
+			throw new IndexOutOfBoundsException("Source region is out of bounds");
+		}
+		System.arraycopy(bytes, offset + sourceIndex, destination, destinationIndex, length);
+	}
+	
+	/**
+	 * Copies the bytes of the view into a new {@link ByteArrayByteString}, which is no longer affected by changes to the underlying array.
+	 * 
+	 * @return  A {@link ByteString} with the same contents that does not share its data with the underlying array.
+	 */
+	@Override
+	public ByteString detach() {
+		return new ByteArrayByteString(toArray(), false);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void forEachByte(IntConsumer action) {
+		for (int index = offset; index < offset + length; index++) {
+			action.accept(bytes[index] & 0xFF);
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int indexOf(byte value, int fromIndex) {
+		for (int index = offset + Math.max(fromIndex, 0); index < offset + length; index++) {
+			if (bytes[index] == value) {
+				return index - offset;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean regionMatches(int offset, byte[] other, int otherOffset, int length) {
+		if (offset < 0 || otherOffset < 0 || length < 0 || offset > this.length - length || otherOffset > other.length - length) {
+			return false;
+		}
+		for (int index = 0; index < length; index++) {
+			if (bytes[this.offset + offset + index] != other[otherOffset + index]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public ByteString slice(int from, int to) {
+		if (from < 0 || to > length || from > to) {
+			throw new IndexOutOfBoundsException("Invalid slice [" + from + ", " + to + ") of a byte string of length " + length);
+		}
+		return new ByteArraySliceByteString(bytes, offset + from, to - from);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer source = ByteBuffer.wrap(bytes, offset, length);
+		while (source.hasRemaining()) {
+			channel.write(source);
+		}
+	}
+	
+	/**
+	 * Checks whether the specified object is a {@link ByteString} with the same contents.
+	 * 
+	 * @param   object  The object to compare with.
+	 * @return          {@code true} if the object is a {@link ByteString} with the same contents, {@code false} if not.
+	 */
+	@Override
+	public boolean equals(Object object) {
+		return object instanceof ByteString && contentEquals((ByteString) object);
+	}
+	
+	/**
+	 * Returns the hash code of the contents (see {@link ByteString#contentHashCode()}). The hash code is not cached, since the contents of
+	 * the underlying array may change.
+	 * 
+	 * @return  The hash code of the contents.
+	 */
+	@Override
+	public int hashCode() {
+		int hash = 1;
+		for (int index = offset; index < offset + length; index++) {
+			hash = 31 * hash + bytes[index];
+		}
+		return hash;
+	}
+	
+	/**
+	 * An iterator for {@link ByteArraySliceByteString} instances.
+	 */
+	private class ByteStringIterator implements Iterator<Byte> {
+		
+		/**	Index of the {@link ByteArraySliceByteString} that should be retrieved next. */
+		private int index = 0;
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean hasNext() {
+			return index < length;
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Byte next() {
+			return bytes[offset + index++];
+		}
+		
+	}
+	
+}
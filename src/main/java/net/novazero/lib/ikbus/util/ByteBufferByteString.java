@@ -0,0 +1,257 @@
+package net.novazero.lib.ikbus.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Iterator;
+
+/**
+ * A {@link ByteString} that is backed by a {@link ByteBuffer}. When a direct buffer is used, the bytes are stored outside the Java heap,
+ * which keeps large amounts of captured packet data from adding to the work of the garbage collector. All operations use absolute or bulk
+ * accessors on a private duplicate of the buffer, so the position and limit of the original buffer are never changed.
+ *
+ * Instances created using {@link #ByteBufferByteString(ByteBuffer)} are views on the buffer and reflect changes that are made to its
+ * contents. Instances created using the {@code copyOf} methods own their storage.
+ * 
+ * @author  Daan Scheerens
+ */
+public class ByteBufferByteString implements Iterable<Byte>, ByteString {
+	
+	/** Read-only buffer which holds the bytes that can be read, from index 0 to its capacity. */
+	private final ByteBuffer buffer;
+	
+	/** Whether the contents of the buffer are owned by this instance (and its slices), i.e. not shared with any other code. */
+	private final boolean owned;
+	
+	/** Cached hash code of the contents if the buffer is owned, or 0 if it has not been computed yet. */
+	private int hash = 0;
+	
+	/**
+	 * Creates a new {@link ByteBufferByteString} that is a view on the remaining bytes of the specified buffer (i.e. the bytes between its
+	 * position and limit). The contents are not copied, so changes to the buffer are visible through the byte string. Use {@link #detach()}
+	 * to obtain an independent copy.
+	 * 
+	 * @param  buffer  The buffer that holds the bytes of the view.
+	 */
+	public ByteBufferByteString(ByteBuffer buffer) {
+		this(buffer.slice().asReadOnlyBuffer(), false);
+	}
+	
+	/**
+	 * Creates a new {@link ByteBufferByteString} for the specified read-only buffer.
+	 * 
+	 * @param  buffer  Read-only buffer which holds the bytes that can be read, from index 0 to its capacity.
+	 * @param  owned   Whether the buffer is owned by this instance.
+	 */
+	private ByteBufferByteString(ByteBuffer buffer, boolean owned) {
+		this.buffer = buffer;
+		this.owned = owned;
+	}
+	
+	/**
+	 * Creates a new {@link ByteBufferByteString} that holds a copy of the specified bytes in a direct (off-heap) buffer.
+	 * 
+	 * @param   bytes  The bytes that are to be copied.
+	 * @return         A byte string that stores a copy of the bytes outside the Java heap.
+	 */
+	public static ByteBufferByteString copyOf(byte[] bytes) {
+		ByteBuffer copy = ByteBuffer.allocateDirect(bytes.length);
+		copy.put(bytes);
+		copy.clear();
+		return new ByteBufferByteString(copy.asReadOnlyBuffer(), true);
+	}
+	
+	/**
+	 * Creates a new {@link ByteBufferByteString} that holds a copy of the specified byte string in a direct (off-heap) buffer.
+	 * 
+	 * @param   source  The byte string that is to be copied.
+	 * @return          A byte string that stores a copy of the bytes outside the Java heap.
+	 */
+	public static ByteBufferByteString copyOf(ByteString source) {
+		ByteBuffer copy = ByteBuffer.allocateDirect(source.length());
+		if (source instanceof ByteBufferByteString) {
+			copy.put(((ByteBufferByteString) source).buffer.duplicate());
+		} else {
+			byte[] chunk = new byte[Math.min(source.length(), 256)];
+			for (int index = 0; index < source.length(); index += chunk.length) {
+				int length = Math.min(chunk.length, source.length() - index);
+				source.copyTo(index, chunk, 0, length);
+				copy.put(chunk, 0, length);
+			}
+		}
+		copy.clear();
+		return new ByteBufferByteString(copy.asReadOnlyBuffer(), true);
+	}
+	
+	/**
+	 * Checks whether the bytes are stored outside the Java heap.
+	 * 
+	 * @return  {@code true} if the byte string is backed by a direct buffer, {@code false} if not.
+	 */
+	public boolean isDirect() {
+		return buffer.isDirect();
+	}
+	
+	/**
+	 * Returns a read-only buffer that contains the bytes of the byte string between its position (0) and limit. The buffer is independent
+	 * of the byte string, so its position and limit can be changed freely.
+	 * 
+	 * @return  A read-only buffer containing the bytes of the byte string.
+	 */
+	public ByteBuffer asByteBuffer() {
+		return buffer.duplicate();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int length() {
+		return buffer.capacity();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte get(int index) {
+		if (index < 0 || index >= buffer.capacity()) {
+			throw new ArrayIndexOutOfBoundsException(index);
+		}
+		return buffer.get(index);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public byte[] toArray() {
+		byte[] result = new byte[buffer.capacity()];
+		buffer.duplicate().get(result);
+		return result;
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Iterator<Byte> iterator() {
+		return new ByteStringIterator();
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void copyTo(int sourceIndex, byte[] destination, int destinationIndex, int length) {
+		if (sourceIndex < 0 || length < 0 || sourceIndex > buffer.capacity() - length) {
+			throw new IndexOutOfBoundsException("Source region is out of bounds");
+		}
+		ByteBuffer source = buffer.duplicate();
+		source.position(sourceIndex);
+		source.get(destination, destinationIndex, length);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 * 
+	 * The slice shares the buffer of this byte string.
+	 */
+	@Override
+	public ByteString slice(int from, int to) {
+		if (from < 0 || to > buffer.capacity() || from > to) {
+			throw new IndexOutOfBoundsException("Invalid slice [" + from + ", " + to + ") of a byte string of length " + buffer.capacity());
+		}
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(from);
+		slice.limit(to);
+		return new ByteBufferByteString(slice.slice(), owned);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer source = buffer.duplicate();
+		while (source.hasRemaining()) {
+			channel.write(source);
+		}
+	}
+	
+	/**
+	 * Returns this byte string if it owns its buffer. Otherwise the bytes are copied into a new buffer that is owned by the returned byte
+	 * string. The copy is stored outside the Java heap if the original buffer is direct.
+	 * 
+	 * @return  A {@link ByteString} with the same contents that does not share its data with other code.
+	 */
+	@Override
+	public ByteString detach() {
+		if (owned) {
+			return this;
+		}
+		ByteBuffer copy = buffer.isDirect() ? ByteBuffer.allocateDirect(buffer.capacity()) : ByteBuffer.allocate(buffer.capacity());
+		copy.put(buffer.duplicate());
+		copy.clear();
+		return new ByteBufferByteString(copy.asReadOnlyBuffer(), true);
+	}
+	
+	/**
+	 * Checks whether the specified object is a {@link ByteString} with the same contents.
+	 * 
+	 * @param   object  The object to compare with.
+	 * @return          {@code true} if the object is a {@link ByteString} with the same contents, {@code false} if not.
+	 */
+	@Override
+	public boolean equals(Object object) {
+		if (object instanceof ByteBufferByteString) {
+			return buffer.equals(((ByteBufferByteString) object).buffer);
+		}
+		return object instanceof ByteString && contentEquals((ByteString) object);
+	}
+	
+	/**
+	 * Returns the hash code of the contents (see {@link ByteString#contentHashCode()}). The hash code is only cached if the buffer is
+	 * owned by this byte string, since the contents of a shared buffer may change.
+	 * 
+	 * @return  The hash code of the contents.
+	 */
+	@Override
+	public int hashCode() {
+		int result = hash;
+		if (result == 0) {
+			result = contentHashCode();
+			if (owned) {
+				hash = result;
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * An iterator for {@link ByteBufferByteString} instances.
+	 */
+	private class ByteStringIterator implements Iterator<Byte> {
+		
+		/**	Index of the {@link ByteBufferByteString} that should be retrieved next. */
+		private int index = 0;
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public boolean hasNext() {
+			return index < buffer.capacity();
+		}
+		
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public Byte next() {
+			return buffer.get(index++);
+		}
+		
+	}
+	
+}
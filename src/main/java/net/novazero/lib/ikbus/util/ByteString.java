@@ -1,10 +1,21 @@
 package net.novazero.lib.ikbus.util;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Iterator;
+import java.util.function.IntConsumer;
 
 /**
  * Interface definition for immutable byte strings.
  * 
+ * Besides the basic accessors, the interface offers primitive operations which do not box the bytes, such as
+ * {@link #forEachByte(IntConsumer)}, {@link #indexOf(byte)} and {@link #startsWith(byte...)}. Default implementations are provided in
+ * terms of {@link #get(int)}, but implementations are encouraged to override them with versions that operate on their storage directly.
+ * Implementations should base {@link Object#equals(Object)} and {@link Object#hashCode()} on the contents of the byte string, using
+ * {@link #contentEquals(ByteString)} and {@link #contentHashCode()}, so that byte strings with different implementations but equal
+ * contents are equal.
+ * 
  * @author  Daan Scheerens
  */
 public interface ByteString {
@@ -50,5 +61,155 @@ public interface ByteString {
 	 * @throws  IndexOutOfBoundsException  If copying would cause access of data outside array bounds.
 	 */
 	void copyTo(int sourceIndex, byte[] destination, int destinationIndex, int length);
+	
+	/**
+	 * Performs the given action for each byte of the {@link ByteString}, in order, without boxing the bytes. The bytes are passed as
+	 * unsigned values in the range 0 to 255.
+	 * 
+	 * @param  action  The action to be performed for each byte.
+	 */
+	default void forEachByte(IntConsumer action) {
+		for (int index = 0; index < length(); index++) {
+			action.accept(get(index) & 0xFF);
+		}
+	}
+	
+	/**
+	 * Returns the index of the first occurrence of the specified byte in the {@link ByteString}.
+	 * 
+	 * @param   value  The byte which is to be searched for.
+	 * @return         The index of the first occurrence of the byte, or -1 if the byte does not occur.
+	 */
+	default int indexOf(byte value) {
+		return indexOf(value, 0);
+	}
+	
+	/**
+	 * Returns the index of the first occurrence of the specified byte in the {@link ByteString}, starting the search at the specified index.
+	 * 
+	 * @param   value      The byte which is to be searched for.
+	 * @param   fromIndex  The index from which to start the search. Negative values are treated as 0.
+	 * @return             The index of the first occurrence of the byte at or after the start index, or -1 if the byte does not occur.
+	 */
+	default int indexOf(byte value, int fromIndex) {
+		for (int index = Math.max(fromIndex, 0); index < length(); index++) {
+			if (get(index) == value) {
+				return index;
+			}
+		}
+		return -1;
+	}
+	
+	/**
+	 * Checks whether the {@link ByteString} starts with the specified bytes.
+	 * 
+	 * @param   prefix  The bytes with which the {@link ByteString} is expected to start.
+	 * @return          {@code true} if the {@link ByteString} starts with the specified bytes, {@code false} if not.
+	 */
+	default boolean startsWith(byte... prefix) {
+		return regionMatches(0, prefix, 0, prefix.length);
+	}
+	
+	/**
+	 * Checks whether a region of the {@link ByteString} is equal to a region of the specified array. If either region does not lie within
+	 * the bounds of its byte sequence, then the regions are not considered to be equal.
+	 * 
+	 * @param   offset       Starting position of the region in the {@link ByteString}.
+	 * @param   other        The array that holds the other region.
+	 * @param   otherOffset  Starting position of the region in the array.
+	 * @param   length       Number of bytes to compare.
+	 * @return               {@code true} if the regions are equal, {@code false} if not.
+	 */
+	default boolean regionMatches(int offset, byte[] other, int otherOffset, int length) {
+		if (offset < 0 || otherOffset < 0 || length < 0 || offset > length() - length || otherOffset > other.length - length) {
+			return false;
+		}
+		for (int index = 0; index < length; index++) {
+			if (get(offset + index) != other[otherOffset + index]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns a {@link ByteString} that contains the bytes from the specified start index (inclusive) up to the end index (exclusive). The
+	 * default implementation copies the bytes, while the implementations in this package return views that share the storage of this
+	 * {@link ByteString}.
+	 * 
+	 * @param   from                       Index of the first byte of the slice.
+	 * @param   to                         Index after the last byte of the slice.
+	 * @return                             A {@link ByteString} containing the specified range of bytes.
+	 * @throws  IndexOutOfBoundsException  If {@code from < 0 || to > length() || from > to}.
+	 */
+	default ByteString slice(int from, int to) {
+		if (from < 0 || to > length() || from > to) {
+			throw new IndexOutOfBoundsException("Invalid slice [" + from + ", " + to + ") of a byte string of length " + length());
+		}
+		byte[] bytes = new byte[to - from];
+		copyTo(from, bytes, 0, bytes.length);
+		return new ByteArrayByteString(bytes, false);
+	}
+	
+	/**
+	 * Checks whether the {@link ByteString} has the same contents as the specified byte string.
+	 * 
+	 * @param   other  The byte string to compare with.
+	 * @return         {@code true} if both byte strings contain the same bytes, {@code false} if not.
+	 */
+	default boolean contentEquals(ByteString other) {
+		if (other == this) {
+			return true;
+		}
+		if (other == null || other.length() != length()) {
+			return false;
+		}
+		for (int index = 0; index < length(); index++) {
+			if (get(index) != other.get(index)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Computes a hash code over the contents of the {@link ByteString}. The result is the same as that of {@link java.util.Arrays#hashCode(
+	 * byte[])} for an array with the same contents.
+	 * 
+	 * @return  The hash code of the contents of the {@link ByteString}.
+	 */
+	default int contentHashCode() {
+		int hash = 1;
+		for (int index = 0; index < length(); index++) {
+			hash = 31 * hash + get(index);
+		}
+		return hash;
+	}
+	
+	/**
+	 * Writes all bytes of the {@link ByteString} to the specified channel. This method blocks until all bytes have been written, unless the
+	 * channel is in non-blocking mode, in which case it may spin until the channel accepts the remaining bytes. The default implementation
+	 * wraps a copy of the bytes in a heap buffer; implementations should override it to transfer their storage directly.
+	 * 
+	 * @param   channel      The channel to which the bytes are to be written.
+	 * @throws  IOException  If an I/O error occurs while writing to the channel.
+	 */
+	default void writeTo(WritableByteChannel channel) throws IOException {
+		ByteBuffer source = ByteBuffer.wrap(toArray());
+		while (source.hasRemaining()) {
+			channel.write(source);
+		}
+	}
+	
+	/**
+	 * Returns a {@link ByteString} with the same contents which does not depend on any externally owned (and possibly reused) storage. Byte
+	 * strings that are views on such storage, like {@link ByteArraySliceByteString}, return a copy. Other byte strings simply return
+	 * themselves, which is what the default implementation does.
+	 * 
+	 * @return  A {@link ByteString} with the same contents that can be retained safely.
+	 */
+	default ByteString detach() {
+		return this;
+	}
 
 }
\ No newline at end of file
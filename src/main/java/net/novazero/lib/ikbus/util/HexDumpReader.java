@@ -0,0 +1,200 @@
+package net.novazero.lib.ikbus.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import net.novazero.lib.ikbus.IKBusUtils;
+
+/**
+ * Reads hex dumps line by line from a character stream. Each line is expected to contain a sequence of hexadecimal byte codes (of one or two
+ * digits) separated by whitespace, as produced by {@link IKBusUtils#bytesToHex(byte[])}. Typically each line holds a single packet. The
+ * characters are decoded in place from a fixed size buffer using the lookup table of {@link IKBusUtils#hexValue(char)}, without regular
+ * expressions or intermediate strings, so arbitrarily large logs can be read with a constant amount of memory.
+ *
+ * Instances of this class are not thread-safe.
+ *
+ * @author  Daan Scheerens
+ */
+public class HexDumpReader implements Closeable {
+	
+	/** Size of the buffer into which the characters are read. */
+	private static final int BUFFER_SIZE = 8192;
+	
+	/** Initial capacity of the buffer into which the bytes of a line are decoded. Large enough for the longest I/K-bus packet. */
+	private static final int INITIAL_LINE_CAPACITY = 260;
+	
+	/** The character stream from which the hex dump is read. */
+	private final Reader reader;
+	
+	/** Buffer into which the characters are read. */
+	private final char[] buffer = new char[BUFFER_SIZE];
+	
+	/** Index of the next character in the buffer that is to be processed. */
+	private int position = 0;
+	
+	/** Number of characters in the buffer. */
+	private int limit = 0;
+	
+	/** Buffer into which the bytes of the current line are decoded. */
+	private byte[] line = new byte[INITIAL_LINE_CAPACITY];
+	
+	/** Number of the line that is to be read next, starting at 1. */
+	private long lineNumber = 1;
+	
+	/** Whether the end of the character stream has been reached. */
+	private boolean endOfStreamReached = false;
+	
+	/**
+	 * Creates a new {@link HexDumpReader} that reads the hex dump from the specified character stream.
+	 *
+	 * @param  reader  The character stream from which the hex dump is read.
+	 */
+	public HexDumpReader(Reader reader) {
+		this.reader = reader;
+	}
+	
+	/**
+	 * Retrieves the number of the line that will be read by the next call to one of the {@code readLine} methods.
+	 *
+	 * @return  The number of the next line, starting at 1.
+	 */
+	public long getLineNumber() {
+		return lineNumber;
+	}
+	
+	/**
+	 * Reads the next line of the hex dump and stores the decoded bytes in the given buffer, starting at its current position. Empty lines
+	 * result in 0 bytes being stored.
+	 *
+	 * @param   destination              The buffer into which the decoded bytes are stored.
+	 * @return                           The number of bytes that were decoded, or -1 if the end of the hex dump has been reached.
+	 * @throws  IOException              If an I/O error occurs while reading from the character stream.
+	 * @throws  NumberFormatException    If the line contains an invalid hex code.
+	 * @throws  BufferOverflowException  If the buffer does not have enough room for the bytes of the line. Nothing is stored in the buffer
+	 *                                   in that case, but the line is skipped nevertheless.
+	 */
+	public int readLine(ByteBuffer destination) throws IOException {
+		int count = decodeLine();
+		if (count > 0) {
+			destination.put(line, 0, count);
+		}
+		return count;
+	}
+	
+	/**
+	 * Reads the next line of the hex dump and returns the decoded bytes.
+	 *
+	 * @return                         The decoded bytes of the next line, or {@code null} if the end of the hex dump has been reached.
+	 * @throws  IOException            If an I/O error occurs while reading from the character stream.
+	 * @throws  NumberFormatException  If the line contains an invalid hex code.
+	 */
+	public byte[] readLine() throws IOException {
+		int count = decodeLine();
+		return count < 0 ? null : Arrays.copyOf(line, count);
+	}
+	
+	/**
+	 * Decodes the next line of the hex dump into the line buffer, which is enlarged if necessary.
+	 *
+	 * @return                         The number of bytes that were decoded, or -1 if the end of the hex dump has been reached.
+	 * @throws  IOException            If an I/O error occurs while reading from the character stream.
+	 * @throws  NumberFormatException  If the line contains an invalid hex code.
+	 */
+	private int decodeLine() throws IOException {
+		if (!fill()) {
+			return -1;
+		}
+		
+		int count = 0;
+		int value = 0;
+		int digits = 0;
+		long currentLineNumber = lineNumber++;
+		while (fill()) {
+			char c = buffer[position++];
+			int digit = IKBusUtils.hexValue(c);
+			if (digit >= 0 && digits < 2) {
+				value = (value << 4) | digit;
+				digits++;
+				continue;
+			}
+			
+			// Any other character ends the current hex code.
+			if (digits > 0) {
+				count = store(count, value);
+				value = 0;
+				digits = 0;
+			}
+			if (c == '\n') {
+				break;
+			} else if (!Character.isWhitespace(c)) {
+				skipLine();
+				throw new NumberFormatException("Invalid hex code at line " + currentLineNumber + " near character '" + c + "'");
+			}
+		}
+		if (digits > 0) {
+			count = store(count, value);
+		}
+		return count;
+	}
+	
+	/**
+	 * Stores a decoded byte in the line buffer, enlarging the buffer if it is full.
+	 *
+	 * @param   count  The number of bytes that are already stored in the line buffer.
+	 * @param   value  The value of the byte that is to be stored.
+	 * @return         The number of bytes that are stored in the line buffer after storing the byte.
+	 */
+	private int store(int count, int value) {
+		if (count == line.length) {
+			line = Arrays.copyOf(line, line.length * 2);
+		}
+		line[count] = (byte) value;
+		return count + 1;
+	}
+	
+	/**
+	 * Skips the remaining characters of the current line, so that reading can continue at the next line after an invalid hex code.
+	 *
+	 * @throws  IOException  If an I/O error occurs while reading from the character stream.
+	 */
+	private void skipLine() throws IOException {
+		while (fill()) {
+			if (buffer[position++] == '\n') {
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+	
+	/**
+	 * Makes sure that the buffer contains at least one character that has not been processed yet, unless the end of the stream has been
+	 * reached.
+	 *
+	 * @return               {@code true} if a character is available, {@code false} if the end of the stream has been reached.
+	 * @throws  IOException  If an I/O error occurs while reading from the character stream.
+	 */
+	private boolean fill() throws IOException {
+		while (position == limit && !endOfStreamReached) {
+			int charactersRead = reader.read(buffer, 0, buffer.length);
+			if (charactersRead < 0) {
+				endOfStreamReached = true;
+			} else {
+				position = 0;
+				limit = charactersRead;
+			}
+		}
+		return position < limit;
+	}
+
+}
@@ -0,0 +1,126 @@
+package net.novazero.lib.ikbus;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+import net.novazero.lib.ikbus.util.ByteBufferByteString;
+
+/**
+ * Tests for the CachingIKBusMessageParser class.
+ */
+public class CachingIKBusMessageParserTest {
+	
+	/**
+	 * Tests whether the results for equal packets are taken from the cache, including the results for unrecognized packets.
+	 */
+	@Test
+	public void testCaching() throws IKBusMessageParseException {
+		CountingParser delegate = new CountingParser();
+		CachingIKBusMessageParser parser = new CachingIKBusMessageParser(delegate);
+		
+		IKBusMessage message = parser.parseMessage(new IKBusPacket((byte) 0x80, (byte) 0xBF, bytes("19 14 00")));
+		assertNotNull(message);
+		assertSame(message, parser.parseMessage(new IKBusPacket((byte) 0x80, (byte) 0xBF, bytes("19 14 00"))));
+		assertNotSame(message, parser.parseMessage(new IKBusPacket((byte) 0x80, (byte) 0xBF, bytes("19 15 00"))));
+		assertNotSame(message, parser.parseMessage(new IKBusPacket((byte) 0x80, (byte) 0xFF, bytes("19 14 00"))));
+		
+		assertNull(parser.parseMessage(new IKBusPacket((byte) 0x00, (byte) 0xBF, bytes("19"))));
+		assertNull(parser.parseMessage(new IKBusPacket((byte) 0x00, (byte) 0xBF, bytes("19"))));
+		
+		assertEquals(4, delegate.invocations);
+		assertEquals(2, parser.getHitCount());
+		assertEquals(4, parser.getMissCount());
+		assertEquals(4, parser.getSize());
+	}
+	
+	/**
+	 * Tests whether the least recently used result is evicted when the cache is full.
+	 */
+	@Test
+	public void testEviction() throws IKBusMessageParseException {
+		CountingParser delegate = new CountingParser();
+		CachingIKBusMessageParser parser = new CachingIKBusMessageParser(delegate, 2, message -> true);
+		IKBusPacket packet1 = new IKBusPacket((byte) 0x80, (byte) 0xBF, bytes("01"));
+		IKBusPacket packet2 = new IKBusPacket((byte) 0x80, (byte) 0xBF, bytes("02"));
+		IKBusPacket packet3 = new IKBusPacket((byte) 0x80, (byte) 0xBF, bytes("03"));
+		
+		parser.parseMessage(packet1);
+		parser.parseMessage(packet2);
+		parser.parseMessage(packet1);
+		parser.parseMessage(packet3);
+		assertEquals(2, parser.getSize());
+		assertEquals(3, delegate.invocations);
+		
+		// The second packet was least recently used and should have been evicted.
+		parser.parseMessage(packet1);
+		assertEquals(3, delegate.invocations);
+		parser.parseMessage(packet2);
+		assertEquals(4, delegate.invocations);
+	}
+	
+	/**
+	 * Tests whether messages that are not cacheable and errors are not cached.
+	 */
+	@Test
+	public void testUncacheableResults() throws IKBusMessageParseException {
+		CountingParser delegate = new CountingParser();
+		CachingIKBusMessageParser parser = new CachingIKBusMessageParser(delegate, 16, message -> message.getDestination() != (byte) 0xFF);
+		
+		IKBusPacket broadcast = new IKBusPacket((byte) 0x80, (byte) 0xFF, bytes("01"));
+		assertNotSame(parser.parseMessage(broadcast), parser.parseMessage(broadcast));
+		
+		IKBusPacket invalid = new IKBusPacket((byte) 0xFF, (byte) 0xBF, bytes("01"));
+		for (int attempt = 0; attempt < 2; attempt++) {
+			try {
+				parser.parseMessage(invalid);
+				fail("Expecting an exception of class " + IKBusMessageParseException.class.getCanonicalName() + " but none was thrown.");
+			} catch (IKBusMessageParseException e) { }
+		}
+		assertEquals(4, delegate.invocations);
+		assertEquals(0, parser.getSize());
+	}
+	
+	/**
+	 * Tests whether cached results are not affected when the buffer that held the packet data is reused.
+	 */
+	@Test
+	public void testReusedBuffer() throws IKBusMessageParseException {
+		CountingParser delegate = new CountingParser();
+		CachingIKBusMessageParser parser = new CachingIKBusMessageParser(delegate);
+		
+		ByteBuffer buffer = ByteBuffer.wrap(bytes("01 02"));
+		IKBusMessage message = parser.parseMessage(new IKBusPacket((byte) 0x80, (byte) 0xBF, new ByteBufferByteString(buffer)));
+		buffer.put(0, (byte) 0x03);
+		assertArrayEquals(bytes("01 02"), message.toPacket().getData().toArray());
+		
+		assertNotSame(message, parser.parseMessage(new IKBusPacket((byte) 0x80, (byte) 0xBF, bytes("03 02"))));
+		assertSame(message, parser.parseMessage(new IKBusPacket((byte) 0x80, (byte) 0xBF, bytes("01 02"))));
+		assertEquals(2, delegate.invocations);
+	}
+	
+	/**
+	 * Parser that counts its invocations. Packets with source 0x00 are not recognized, while packets with source 0xFF cause an error.
+	 */
+	private static class CountingParser implements IKBusMessageParser {
+		
+		/** Number of times the parser was invoked. */
+		private int invocations = 0;
+		
+		@Override
+		public IKBusMessage parseMessage(IKBusPacket packet) throws IKBusMessageParseException {
+			invocations++;
+			if (packet.getSource() == (byte) 0x00) {
+				return null;
+			} else if (packet.getSource() == (byte) 0xFF) {
+				throw new IKBusMessageParseException("Invalid packet");
+			}
+			return new UnknownIKBusMessage(packet);
+		}
+	
+	}
+
+}
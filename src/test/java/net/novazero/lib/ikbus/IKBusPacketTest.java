@@ -3,6 +3,9 @@ package net.novazero.lib.ikbus;
 import static org.junit.Assert.*;
 import static net.novazero.lib.ikbus.IKBusUtils.bytes;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
 import org.junit.Test;
 
 public class IKBusPacketTest {
@@ -58,4 +61,94 @@ public class IKBusPacketTest {
 			fail("Expecting an exception of class " + InvalidIKBusPacketException.class.getCanonicalName() + " but none was thrown.");
 		} catch (InvalidIKBusPacketException e) { }	
 	}
+	
+	@Test
+	public void testWrap() throws InvalidIKBusPacketException {
+		byte[] buffer = bytes("01 02 F0 04 3B 49 81 07 03");
+		
+		IKBusPacket packet = IKBusPacket.wrap(buffer, 2, 6);
+		assertEquals((byte) 0xF0, packet.getSource());
+		assertEquals((byte) 0x3B, packet.getDestination());
+		assertEquals(2, packet.getData().length());
+		assertArrayEquals(bytes("49 81"), packet.getData().toArray());
+		assertEquals("F0 04 3B 49 81 07", packet.toString());
+		
+		// The detached packet should not be affected by changes to the buffer, unlike the wrapped packet.
+		IKBusPacket detachedPacket = packet.detach();
+		buffer[5] = 0x00;
+		assertEquals((byte) 0x00, packet.getData().get(0));
+		assertArrayEquals(bytes("49 81"), detachedPacket.getData().toArray());
+		assertSame(detachedPacket, detachedPacket.detach());
+		
+		try {
+			IKBusPacket.wrap(buffer, 2, 6);
+			fail("Expecting an exception of class " + InvalidIKBusPacketException.class.getCanonicalName() + " but none was thrown.");
+		} catch (InvalidIKBusPacketException e) { }
+		
+		try {
+			IKBusPacket.wrap(buffer, 5, 6);
+			fail("Expecting an exception of class " + IndexOutOfBoundsException.class.getCanonicalName() + " but none was thrown.");
+		} catch (IndexOutOfBoundsException e) { }
+	}
+	
+	@Test
+	public void testWrapFrame() {
+		// The checksum of the frame is deliberately wrong, which shows that the frame is reused instead of encoding the packet again.
+		byte[] frame = bytes("F0 04 3B 49 81 00");
+		IKBusPacket packet = IKBusPacket.wrapFrame(frame);
+		assertEquals((byte) 0xF0, packet.getSource());
+		assertEquals((byte) 0x3B, packet.getDestination());
+		assertArrayEquals(bytes("49 81"), packet.getData().toArray());
+		assertEquals("F0 04 3B 49 81 00", packet.toString());
+		assertArrayEquals(frame, packet.toRaw());
+		assertNotSame(frame, packet.toRaw());
+		
+		ByteBuffer buffer = ByteBuffer.allocateDirect(6);
+		assertEquals(6, packet.writeTo(buffer));
+		buffer.flip();
+		byte[] result = new byte[6];
+		buffer.get(result);
+		assertArrayEquals(frame, result);
+	}
+	
+	@Test
+	public void testWriteTo() throws InvalidIKBusPacketException {
+		IKBusPacket packet = new IKBusPacket((byte) 0x50, (byte) 0x68, bytes("32 11"));
+		assertEquals(6, packet.getRawLength());
+		
+		byte[] array = new byte[8];
+		assertEquals(6, packet.writeTo(array, 1));
+		assertArrayEquals(bytes("00 50 04 68 32 11 1F 00"), array);
+		
+		// The second call uses the cached raw packet.
+		assertEquals("50 04 68 32 11 1F", packet.toString());
+		assertEquals(6, packet.writeTo(array, 2));
+		assertArrayEquals(bytes("00 50 50 04 68 32 11 1F"), array);
+		
+		try {
+			packet.writeTo(array, 3);
+			fail("Expecting an exception of class " + IndexOutOfBoundsException.class.getCanonicalName() + " but none was thrown.");
+		} catch (IndexOutOfBoundsException e) { }
+		
+		// Modifying the result of toRaw() should not affect the packet.
+		packet.toRaw()[0] = 0x00;
+		assertArrayEquals(bytes("50 04 68 32 11 1F"), packet.toRaw());
+		
+		// Encode into heap and direct buffers, using a packet of which the raw format is not cached.
+		IKBusPacket wrappedPacket = IKBusPacket.wrap(bytes("F0 04 3B 49 81 07"), 0, 6);
+		for (ByteBuffer buffer : new ByteBuffer[] { ByteBuffer.allocate(7), ByteBuffer.allocateDirect(7) }) {
+			buffer.put((byte) 0xAA);
+			assertEquals(6, wrappedPacket.writeTo(buffer));
+			assertEquals(7, buffer.position());
+			buffer.flip();
+			byte[] result = new byte[7];
+			buffer.get(result);
+			assertArrayEquals(bytes("AA F0 04 3B 49 81 07"), result);
+			
+			try {
+				wrappedPacket.writeTo(buffer);
+				fail("Expecting an exception of class " + BufferOverflowException.class.getCanonicalName() + " but none was thrown.");
+			} catch (BufferOverflowException e) { }
+		}
+	}
 }
@@ -3,6 +3,11 @@ package net.novazero.lib.ikbus;
 import static net.novazero.lib.ikbus.IKBusUtils.*;
 import static org.junit.Assert.*;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Test;
 
 public class IKBusUtilsTest {
@@ -77,4 +82,100 @@ public class IKBusUtilsTest {
 		}
 		
 	}
+	
+	public static class TestChecksum {
+		
+		@Test
+		public void testChecksum() {
+			assertEquals((byte) 0x00, checksum(new byte[0], 0, 0));
+			assertEquals((byte) 0x9A, checksum(bytes("50 03 C8 01 9A"), 0, 4));
+			assertEquals((byte) 0x00, checksum(bytes("50 03 C8 01 9A"), 0, 5));
+			assertEquals((byte) 0x54, checksum(bytes("80 0F FF 24 02 00 30 31 2E 30 36 2E 32 30 30 37 54"), 0, 16));
+			assertEquals((byte) 0x00, checksum(bytes("AA 80 0F FF 24 02 00 30 31 2E 30 36 2E 32 30 30 37 54 AA"), 1, 17));
+		}
+		
+		@Test
+		public void testChecksumMatchesByteWiseXor() {
+			Random random = new Random(7);
+			for (int length = 0; length < 300; length++) {
+				byte[] data = new byte[length + 5];
+				random.nextBytes(data);
+				byte expected = 0;
+				for (int index = 3; index < length + 3; index++) {
+					expected ^= data[index];
+				}
+				assertEquals(expected, checksum(data, 3, length));
+			}
+		}
+		
+		@Test(expected=IndexOutOfBoundsException.class)
+		public void testOutOfBounds() {
+			checksum(new byte[4], 2, 3);
+		}
+		
+	}
+	
+	public static class TestHexEncoding {
+		
+		@Test
+		public void testByteToHex() {
+			assertEquals("00", byteToHex((byte) 0x00));
+			assertEquals("0F", byteToHex((byte) 0x0F));
+			assertEquals("A0", byteToHex((byte) 0xA0));
+			assertEquals("FF", byteToHex((byte) 0xFF));
+		}
+		
+		@Test
+		public void testAppendHex() {
+			StringBuilder builder = new StringBuilder("Packet: ");
+			assertSame(builder, appendHex(builder, bytes("AA 50 03 C8 01 9A"), 1, 5));
+			assertEquals("Packet: 50 03 C8 01 9A", builder.toString());
+			assertEquals("Packet: 50 03 C8 01 9A", appendHex(builder, new byte[0], 0, 0).toString());
+		}
+		
+		@Test
+		public void testBytesToHexArray() {
+			char[] destination = new char[16];
+			Arrays.fill(destination, '.');
+			assertEquals(14, bytesToHex(bytes("50 03 C8 01 9A"), 0, 5, destination, 1));
+			assertEquals(".50 03 C8 01 9A.", new String(destination));
+			assertEquals(0, bytesToHex(new byte[0], 0, 0, destination, 0));
+		}
+		
+		@Test
+		public void testParseHex() {
+			ByteBuffer destination = ByteBuffer.allocate(8);
+			String hex = "  50 3 c8\t01\n9A ";
+			assertEquals(5, parseHex(hex, 0, hex.length(), destination));
+			assertEquals(3, parseHex("xx 1 2 3 xx", 3, 8, destination));
+			assertArrayEquals(bytes("50 03 C8 01 9A 01 02 03"), destination.array());
+		}
+		
+		@Test(expected=NumberFormatException.class)
+		public void testParseHexInvalidDigit() {
+			parseHex("50 0G", 0, 5, ByteBuffer.allocate(8));
+		}
+		
+		@Test(expected=BufferOverflowException.class)
+		public void testParseHexOverflow() {
+			parseHex("50 03 C8", 0, 8, ByteBuffer.allocate(2));
+		}
+		
+		@Test
+		public void testHexValue() {
+			for (char c = 0; c < 512; c++) {
+				int expected = -1;
+				if (c >= '0' && c <= '9') {
+					expected = c - '0';
+				} else if (c >= 'A' && c <= 'F') {
+					expected = c - 'A' + 10;
+				} else if (c >= 'a' && c <= 'f') {
+					expected = c - 'a' + 10;
+				}
+				assertEquals(expected, hexValue(c));
+			}
+		}
+	
+	}
+	
 }
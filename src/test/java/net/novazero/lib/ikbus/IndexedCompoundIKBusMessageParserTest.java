@@ -0,0 +1,140 @@
+package net.novazero.lib.ikbus;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.novazero.lib.ikbus.util.ByteArrayByteString;
+
+/**
+ * Tests for the IndexedCompoundIKBusMessageParser class.
+ */
+public class IndexedCompoundIKBusMessageParserTest {
+	
+	/**
+	 * Tests whether the indexed parser produces the same results as a linear compound parser with the same parsers.
+	 */
+	@Test
+	public void testEquivalence() throws IKBusMessageParseException {
+		Random random = new Random(42);
+		TestCompoundParser linearParser = new TestCompoundParser();
+		TestIndexedParser indexedParser = new TestIndexedParser();
+		for (int index = 0; index < 150; index++) {
+			IKBusMessageKey key = new IKBusMessageKey(
+				random.nextInt(4) == 0 ? null : (byte) random.nextInt(8),
+				random.nextInt(3) == 0 ? null : (byte) random.nextInt(8),
+				random.nextInt(5) == 0 ? null : (byte) random.nextInt(8));
+			
+			// Some parsers only accept a subset of the packets that match their key.
+			boolean oddLengthOnly = random.nextBoolean();
+			KeyedIKBusMessageParser parser = new TestParser(key, oddLengthOnly);
+			linearParser.addParser(parser);
+			indexedParser.addParser(parser);
+		}
+		
+		int parsedCount = 0;
+		for (int iteration = 0; iteration < 10000; iteration++) {
+			byte[] data = new byte[random.nextInt(3)];
+			for (int index = 0; index < data.length; index++) {
+				data[index] = (byte) random.nextInt(8);
+			}
+			IKBusPacket packet = new IKBusPacket((byte) random.nextInt(8), (byte) random.nextInt(8), data);
+			
+			IKBusMessage expected = linearParser.parseMessage(packet);
+			assertSame(expected, indexedParser.parseMessage(packet));
+			parsedCount += expected == null ? 0 : 1;
+		}
+		assertTrue(parsedCount > 0);
+	}
+	
+	/**
+	 * Tests whether only the parsers whose key matches the packet, or which have no key, are asked to parse the packet.
+	 */
+	@Test
+	public void testCandidateSelection() throws IKBusMessageParseException, InvalidIKBusPacketException {
+		List<String> invocations = new ArrayList<>();
+		TestIndexedParser indexedParser = new TestIndexedParser();
+		indexedParser.addParser(packet -> { invocations.add("any"); return null; });
+		indexedParser.addParser(packet -> { invocations.add("command"); return null; }, new IKBusMessageKey(null, null, (byte) 0x01));
+		indexedParser.addParser(packet -> { invocations.add("source"); return null; }, new IKBusMessageKey((byte) 0x50, null, null));
+		indexedParser.addParser(packet -> { invocations.add("other"); return null; }, new IKBusMessageKey((byte) 0x50, (byte) 0x68, null));
+		indexedParser.addParser(packet -> { invocations.add("full"); return null; }, new IKBusMessageKey((byte) 0x50, (byte) 0xC8, (byte) 0x01));
+		
+		assertNull(indexedParser.parseMessage(IKBusPacket.parse(bytes("50 03 C8 01 9A"))));
+		assertEquals(Arrays.asList("any", "command", "source", "full"), invocations);
+		
+		invocations.clear();
+		assertNull(indexedParser.parseMessage(new IKBusPacket((byte) 0x50, (byte) 0xC8, new byte[0])));
+		assertEquals(Arrays.asList("any", "source"), invocations);
+	}
+	
+	/**
+	 * Linear compound parser which allows the test to add parsers.
+	 */
+	private static class TestCompoundParser extends CompoundIKBusMessageParser {
+		
+		@Override
+		public void addParser(IKBusMessageParser parser) {
+			super.addParser(parser);
+		}
+	
+	}
+	
+	/**
+	 * Indexed compound parser which allows the test to add parsers.
+	 */
+	private static class TestIndexedParser extends IndexedCompoundIKBusMessageParser {
+		
+		@Override
+		public void addParser(IKBusMessageParser parser) {
+			super.addParser(parser);
+		}
+		
+		@Override
+		public void addParser(IKBusMessageParser parser, IKBusMessageKey key) {
+			super.addParser(parser, key);
+		}
+	
+	}
+	
+	/**
+	 * Parser that accepts the packets that match its key, optionally only if they have an odd length.
+	 */
+	private static class TestParser implements KeyedIKBusMessageParser {
+		
+		/** The key of the parser. */
+		private final IKBusMessageKey key;
+		
+		/** Whether only packets with an odd data length are accepted. */
+		private final boolean oddLengthOnly;
+		
+		/** The message returned by the parser, which identifies the parser. */
+		private final IKBusMessage message = new UnknownIKBusMessage((byte) 0x00, (byte) 0x00, new ByteArrayByteString(new byte[0]));
+		
+		public TestParser(IKBusMessageKey key, boolean oddLengthOnly) {
+			this.key = key;
+			this.oddLengthOnly = oddLengthOnly;
+		}
+		
+		@Override
+		public IKBusMessageKey getMessageKey() {
+			return key;
+		}
+		
+		@Override
+		public IKBusMessage parseMessage(IKBusPacket packet) {
+			if (!key.matches(packet) || (oddLengthOnly && packet.getData().length() % 2 == 0)) {
+				return null;
+			}
+			return message;
+		}
+	
+	}
+
+}
@@ -0,0 +1,371 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import net.novazero.lib.ikbus.IKBusPacket;
+
+/**
+ * Tests for the AsyncIKBusPacketWriter class.
+ */
+public class AsyncIKBusPacketWriterTest {
+	
+	/** First packet that is written by the tests. */
+	private static final IKBusPacket PACKET_1 = new IKBusPacket((byte) 0x50, (byte) 0xC8, bytes("01"));
+	
+	/** Second packet that is written by the tests. */
+	private static final IKBusPacket PACKET_2 = new IKBusPacket((byte) 0x3F, (byte) 0x60, bytes("0C 80"));
+	
+	/**
+	 * Tests whether the futures complete once the packets have been written and flushed to the underlying writer.
+	 */
+	@Test(timeout=2000)
+	public void testWriteAsync() throws Exception {
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+		AsyncIKBusPacketWriter writer = new AsyncIKBusPacketWriter(new OutputStreamIKBusPacketWriter(outputStream, 1024, 60000));
+		
+		CompletableFuture<Void> future1 = writer.writeAsync(PACKET_1);
+		CompletableFuture<Void> future2 = writer.writeAsync(PACKET_2);
+		future2.get();
+		assertTrue(future1.isDone());
+		assertArrayEquals(bytes("50 03 C8 01 9A 3F 04 60 0C 80 D7"), outputStream.toByteArray());
+		
+		writer.close();
+		assertTrue(writer.writeAsync(PACKET_1).isCompletedExceptionally());
+		try {
+			writer.write(PACKET_1);
+			fail("Expecting an exception of class " + IKBusIOException.class.getCanonicalName() + " but none was thrown.");
+		} catch (IKBusIOException e) { }
+	}
+	
+	/**
+	 * Tests whether packets are dropped when the queue is full.
+	 */
+	@Test(timeout=2000)
+	public void testOverflow() throws Exception {
+		BlockingPacketWriter blockingWriter = new BlockingPacketWriter();
+		AsyncIKBusPacketWriter writer = new AsyncIKBusPacketWriter(blockingWriter, 1, OverflowPolicy.DROP_OLDEST, false,
+			ReaderThreadFactory.platform());
+		
+		// The first packet is taken by the writer thread, which then blocks, after which the queue fills up.
+		CompletableFuture<Void> future1 = writer.writeAsync(PACKET_1);
+		blockingWriter.writeStarted.await();
+		CompletableFuture<Void> future2 = writer.writeAsync(PACKET_2);
+		CompletableFuture<Void> future3 = writer.writeAsync(PACKET_1);
+		assertTrue(future2.isCompletedExceptionally());
+		assertEquals(1, writer.getQueuedPacketCount());
+		assertEquals(1, writer.getDroppedPacketCount());
+		
+		blockingWriter.proceed.countDown();
+		future3.get();
+		assertTrue(future1.isDone() && !future1.isCompletedExceptionally());
+		writer.close();
+	}
+	
+	/**
+	 * Tests whether the futures fail if the underlying writer fails to write the packet.
+	 */
+	@Test(timeout=2000)
+	public void testWriteError() throws Exception {
+		AsyncIKBusPacketWriter writer = new AsyncIKBusPacketWriter(new IKBusPacketWriter() {
+			@Override
+			public void write(IKBusPacket packet) throws IKBusIOException {
+				throw new IKBusIOException("Write failed");
+			}
+			
+			@Override
+			public void close() {
+			}
+		});
+		
+		try {
+			writer.writeAsync(PACKET_1).get();
+			fail("Expecting an exception of class " + ExecutionException.class.getCanonicalName() + " but none was thrown.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IKBusIOException);
+		}
+		writer.close();
+	}
+	
+	/**
+	 * Tests whether the error of a packet that was written without a future is reported by the next call to write or close.
+	 */
+	@Test(timeout=2000)
+	public void testWriteErrorReported() throws Exception {
+		IKBusPacketWriter failingWriter = new IKBusPacketWriter() {
+			@Override
+			public void write(IKBusPacket packet) throws IKBusIOException {
+				throw new IKBusIOException("Write failed");
+			}
+			
+			@Override
+			public void close() {
+			}
+		};
+		
+		AsyncIKBusPacketWriter writer = new AsyncIKBusPacketWriter(failingWriter);
+		writer.write(PACKET_1);
+		try {
+			while (true) {
+				Thread.sleep(5);
+				writer.write(PACKET_2);
+			}
+		} catch (IKBusIOException e) {
+			assertTrue(e.getCause() instanceof IKBusIOException);
+		}
+		
+		writer = new AsyncIKBusPacketWriter(failingWriter);
+		writer.write(PACKET_1);
+		try {
+			writer.close();
+			fail("Expecting an exception of class " + IKBusIOException.class.getCanonicalName() + " but none was thrown.");
+		} catch (IKBusIOException e) {
+			assertTrue(e.getCause() instanceof IKBusIOException);
+		}
+	}
+	
+	/**
+	 * Tests whether the futures complete once the echo of the packets has been received.
+	 */
+	@Test(timeout=2000)
+	public void testAwaitEcho() throws Exception {
+		AsyncIKBusPacketWriter writer = new AsyncIKBusPacketWriter(new OutputStreamIKBusPacketWriter(new ByteArrayOutputStream()), 16,
+			OverflowPolicy.BLOCK, true, ReaderThreadFactory.platform());
+		
+		CompletableFuture<Void> future1 = writer.writeAsync(PACKET_1);
+		CompletableFuture<Void> future2 = writer.writeAsync(PACKET_2);
+		Thread.sleep(20);
+		assertFalse(future1.isDone());
+		
+		assertFalse(writer.echoReceived(new IKBusPacket((byte) 0x50, (byte) 0xC8, bytes("02"))));
+		assertTrue(writer.echoReceived(new IKBusPacket((byte) 0x50, (byte) 0xC8, bytes("01"))));
+		future1.get(1, TimeUnit.SECONDS);
+		assertFalse(writer.echoReceived(PACKET_1));
+		
+		writer.close();
+		try {
+			future2.get();
+			fail("Expecting an exception of class " + ExecutionException.class.getCanonicalName() + " but none was thrown.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IKBusIOException);
+		}
+	}
+	
+	/**
+	 * Tests whether the futures fail if the echo is not received within the echo timeout.
+	 */
+	@Test(timeout=2000)
+	public void testEchoTimeout() throws Exception {
+		AsyncIKBusPacketWriter writer = new AsyncIKBusPacketWriter(new OutputStreamIKBusPacketWriter(new ByteArrayOutputStream()), 16,
+			OverflowPolicy.BLOCK, true, 50, ReaderThreadFactory.platform());
+		
+		CompletableFuture<Void> future = writer.writeAsync(PACKET_1);
+		try {
+			future.get();
+			fail("Expecting an exception of class " + ExecutionException.class.getCanonicalName() + " but none was thrown.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IKBusIOException);
+		}
+		assertEquals(0, writer.getAwaitingEchoCount());
+		assertFalse(writer.echoReceived(PACKET_1));
+		writer.close();
+	}
+	
+	/**
+	 * Tests whether the echo timeout only starts once a packet has been written, even if writing the batch takes longer than the timeout.
+	 */
+	@Test(timeout=2000)
+	public void testEchoTimeoutAfterWrite() throws Exception {
+		AtomicInteger writeCount = new AtomicInteger();
+		BlockingPacketWriter slowWriter = new BlockingPacketWriter() {
+			@Override
+			public void write(IKBusPacket packet) throws IKBusIOException {
+				super.write(packet);
+				try {
+					Thread.sleep(30);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				writeCount.incrementAndGet();
+			}
+		};
+		AsyncIKBusPacketWriter writer = new AsyncIKBusPacketWriter(slowWriter, 16, OverflowPolicy.BLOCK, true, 100,
+			ReaderThreadFactory.platform());
+		
+		// The first packet blocks the writer thread, so the next packets are written as a single batch that takes longer than the timeout.
+		CompletableFuture<Void> future = writer.writeAsync(PACKET_1);
+		slowWriter.writeStarted.await();
+		List<IKBusPacket> packets = new ArrayList<>();
+		List<CompletableFuture<Void>> futures = new ArrayList<>();
+		for (int index = 0; index < 5; index++) {
+			IKBusPacket packet = new IKBusPacket((byte) 0x3F, (byte) 0x60, new byte[] { (byte) index });
+			packets.add(packet);
+			futures.add(writer.writeAsync(packet));
+		}
+		slowWriter.proceed.countDown();
+		assertTrue(writer.echoReceived(PACKET_1));
+		future.get();
+		
+		while (writeCount.get() < 6) {
+			Thread.sleep(1);
+		}
+		Thread.sleep(20);
+		for (int index = 0; index < packets.size(); index++) {
+			assertFalse(futures.get(index).isDone());
+			assertTrue(writer.echoReceived(packets.get(index)));
+			futures.get(index).get();
+		}
+		writer.close();
+	}
+	
+	/**
+	 * Tests whether packets whose echo timed out stop counting towards the capacity while the writer thread is busy writing.
+	 */
+	@Test(timeout=2000)
+	public void testEchoTimeoutWhileWriting() throws Exception {
+		IKBusPacket blockedPacket = new IKBusPacket((byte) 0x3F, (byte) 0x60, bytes("0C 81"));
+		BlockingPacketWriter blockingWriter = new BlockingPacketWriter() {
+			@Override
+			public void write(IKBusPacket packet) throws IKBusIOException {
+				if (packet == blockedPacket) {
+					super.write(packet);
+				}
+			}
+		};
+		AsyncIKBusPacketWriter writer = new AsyncIKBusPacketWriter(blockingWriter, 3, OverflowPolicy.DROP_NEWEST, true, 50,
+			ReaderThreadFactory.platform());
+		
+		CompletableFuture<Void> future1 = writer.writeAsync(PACKET_1);
+		CompletableFuture<Void> future2 = writer.writeAsync(PACKET_2);
+		while (writer.getAwaitingEchoCount() < 2) {
+			Thread.sleep(1);
+		}
+		CompletableFuture<Void> future3 = writer.writeAsync(blockedPacket);
+		blockingWriter.writeStarted.await();
+		Thread.sleep(100);
+		
+		CompletableFuture<Void> future4 = writer.writeAsync(PACKET_1);
+		assertTrue(future1.isCompletedExceptionally());
+		assertTrue(future2.isCompletedExceptionally());
+		assertFalse(future4.isDone());
+		assertEquals(0, writer.getDroppedPacketCount());
+		
+		blockingWriter.proceed.countDown();
+		while (writer.getAwaitingEchoCount() < 2) {
+			Thread.sleep(1);
+		}
+		assertTrue(writer.echoReceived(blockedPacket));
+		assertTrue(writer.echoReceived(PACKET_1));
+		future3.get();
+		future4.get();
+		writer.close();
+	}
+	
+	/**
+	 * Tests whether the packets that are awaiting their echo count towards the capacity of the writer.
+	 */
+	@Test(timeout=2000)
+	public void testEchoCapacity() throws Exception {
+		AsyncIKBusPacketWriter writer = new AsyncIKBusPacketWriter(new OutputStreamIKBusPacketWriter(new ByteArrayOutputStream()), 2,
+			OverflowPolicy.DROP_OLDEST, true, 60000, ReaderThreadFactory.platform());
+		
+		CompletableFuture<Void> future1 = writer.writeAsync(PACKET_1);
+		CompletableFuture<Void> future2 = writer.writeAsync(PACKET_2);
+		while (writer.getAwaitingEchoCount() < 2) {
+			Thread.sleep(1);
+		}
+		assertTrue(writer.writeAsync(PACKET_1).isCompletedExceptionally());
+		assertEquals(1, writer.getDroppedPacketCount());
+		
+		assertTrue(writer.echoReceived(PACKET_1));
+		future1.get();
+		CompletableFuture<Void> future3 = writer.writeAsync(PACKET_1);
+		while (writer.getAwaitingEchoCount() < 2) {
+			Thread.sleep(1);
+		}
+		assertFalse(future3.isDone());
+		assertTrue(writer.echoReceived(PACKET_2));
+		assertTrue(writer.echoReceived(PACKET_1));
+		future2.get();
+		future3.get();
+		writer.close();
+	}
+	
+	/**
+	 * Tests whether only the futures of the packets that could not be written fail, if writing fails halfway through a batch.
+	 */
+	@Test(timeout=2000)
+	public void testPartialBatchFailure() throws Exception {
+		BlockingPacketWriter blockingWriter = new BlockingPacketWriter() {
+			@Override
+			public void write(IKBusPacket packet) throws IKBusIOException {
+				super.write(packet);
+				if (packet == PACKET_2) {
+					throw new IKBusIOException("Write failed");
+				}
+			}
+		};
+		AsyncIKBusPacketWriter writer = new AsyncIKBusPacketWriter(blockingWriter, 16, OverflowPolicy.BLOCK, false,
+			ReaderThreadFactory.platform());
+		
+		// The first packet blocks the writer thread, so the next packets are written as a single batch.
+		CompletableFuture<Void> future1 = writer.writeAsync(PACKET_1);
+		blockingWriter.writeStarted.await();
+		CompletableFuture<Void> future2 = writer.writeAsync(PACKET_1);
+		CompletableFuture<Void> future3 = writer.writeAsync(PACKET_2);
+		CompletableFuture<Void> future4 = writer.writeAsync(PACKET_1);
+		blockingWriter.proceed.countDown();
+		
+		future1.get();
+		future2.get();
+		for (CompletableFuture<Void> future : Arrays.asList(future3, future4)) {
+			try {
+				future.get();
+				fail("Expecting an exception of class " + ExecutionException.class.getCanonicalName() + " but none was thrown.");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IKBusIOException);
+			}
+		}
+		writer.close();
+	}
+	
+	/**
+	 * Packet writer that blocks the first write until it is allowed to proceed.
+	 */
+	private static class BlockingPacketWriter implements IKBusPacketWriter {
+		
+		/** Latch that is released when the first write has started. */
+		private final CountDownLatch writeStarted = new CountDownLatch(1);
+		
+		/** Latch that allows the writes to proceed. */
+		private final CountDownLatch proceed = new CountDownLatch(1);
+		
+		@Override
+		public void write(IKBusPacket packet) throws IKBusIOException {
+			writeStarted.countDown();
+			try {
+				proceed.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		@Override
+		public void close() {
+		}
+	
+	}
+
+}
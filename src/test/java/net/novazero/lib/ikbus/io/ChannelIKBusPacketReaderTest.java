@@ -0,0 +1,135 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+
+import org.junit.Test;
+
+/**
+ * Tests for the ChannelIKBusPacketReader class.
+ */
+public class ChannelIKBusPacketReaderTest {
+	
+	/**
+	 * Tests whether packets are read correctly from a non-blocking channel.
+	 */
+	@Test(timeout=2000)
+	public void testNonBlockingChannel() throws IOException {
+		Pipe pipe = Pipe.open();
+		pipe.source().configureBlocking(false);
+		
+		IKBusPacketReader reader = new ChannelIKBusPacketReader(pipe.source());
+		try {
+			pipe.sink().write(ByteBuffer.wrap(bytes("50 03 C8 01 9A 01 02 03 3F 04 60 0C 80 D7")));
+			pipe.sink().close();
+			
+			IKBusPacketStreamElement element;
+			
+			element = reader.read();
+			assertTrue(element.isValidPacket());
+			assertArrayEquals(bytes("50 03 C8 01 9A"), element.getData());
+			
+			element = reader.read();
+			assertFalse(element.isValidPacket());
+			assertArrayEquals(bytes("01 02 03"), element.getData());
+			
+			element = reader.read();
+			assertTrue(element.isValidPacket());
+			assertArrayEquals(bytes("3F 04 60 0C 80 D7"), element.getData());
+			
+			assertNull(reader.read());
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Tests whether the data that is available from a non-blocking channel is returned by a single batch read call.
+	 */
+	@Test(timeout=2000)
+	public void testReadBatch() throws IOException {
+		Pipe pipe = Pipe.open();
+		pipe.source().configureBlocking(false);
+		
+		IKBusPacketReader reader = new ChannelIKBusPacketReader(pipe.source());
+		try {
+			pipe.sink().write(ByteBuffer.wrap(bytes("50 03 C8 01 9A 01 02 03 3F 04 60 0C 80 D7 50 03 C8 01 9A")));
+			pipe.sink().close();
+			
+			IKBusPacketStreamElement[] sink = new IKBusPacketStreamElement[10];
+			assertEquals(4, reader.readBatch(sink, sink.length));
+			assertArrayEquals(bytes("50 03 C8 01 9A"), sink[0].getData());
+			assertArrayEquals(bytes("01 02 03"), sink[1].getData());
+			assertArrayEquals(bytes("3F 04 60 0C 80 D7"), sink[2].getData());
+			assertArrayEquals(bytes("50 03 C8 01 9A"), sink[3].getData());
+			
+			assertEquals(-1, reader.readBatch(sink, sink.length));
+		} finally {
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Tests whether timeouts are detected while waiting for data from a non-blocking channel.
+	 */
+	@Test(timeout=2000)
+	public void testTimeout() throws Exception {
+		Pipe pipe = Pipe.open();
+		pipe.source().configureBlocking(false);
+		
+		IKBusPacketReader reader = new ChannelIKBusPacketReader(pipe.source());
+		try {
+			pipe.sink().write(ByteBuffer.wrap(bytes("72 05 BF 78")));
+			
+			IKBusPacketStreamElement element = reader.read();
+			assertFalse(element.isValidPacket());
+			assertArrayEquals(bytes("72 05 BF 78"), element.getData());
+			
+			pipe.sink().write(ByteBuffer.wrap(bytes("72 05 BF 78 05 00 B5")));
+			
+			element = reader.read();
+			assertTrue(element.isValidPacket());
+			assertArrayEquals(bytes("72 05 BF 78 05 00 B5"), element.getData());
+		} finally {
+			reader.close();
+			pipe.sink().close();
+		}
+	}
+	
+	/**
+	 * Tests whether the timestamps passed to the feed methods are used to detect timeouts.
+	 */
+	@Test
+	public void testFeed() {
+		ChannelIKBusPacketReader reader = new ChannelIKBusPacketReader(null, 50);
+		long millisecond = 1000000L;
+		
+		reader.feed(bytes("72 05 BF 78"), 0, 4, 0);
+		assertNull(reader.poll(10 * millisecond));
+		assertTrue(reader.isAwaitingTimeout());
+		assertEquals(50 * millisecond, reader.getTimeoutDeadline());
+		
+		reader.feed(ByteBuffer.wrap(bytes("05 00 B5")), 20 * millisecond);
+		IKBusPacketStreamElement element = reader.poll(20 * millisecond);
+		assertTrue(element.isValidPacket());
+		assertArrayEquals(bytes("72 05 BF 78 05 00 B5"), element.getData());
+		
+		reader.feed(bytes("72 05 BF 78"), 0, 4, 30 * millisecond);
+		reader.feed(bytes("05 00 B5"), 0, 3, 100 * millisecond);
+		
+		element = reader.poll(100 * millisecond);
+		assertFalse(element.isValidPacket());
+		assertArrayEquals(bytes("72 05 BF 78"), element.getData());
+		
+		assertNull(reader.poll(100 * millisecond));
+		element = reader.poll(200 * millisecond);
+		assertFalse(element.isValidPacket());
+		assertArrayEquals(bytes("05 00 B5"), element.getData());
+		assertFalse(reader.isAwaitingTimeout());
+	}
+
+}
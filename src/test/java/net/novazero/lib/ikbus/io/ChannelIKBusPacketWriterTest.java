@@ -0,0 +1,55 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+
+import org.junit.Test;
+
+import net.novazero.lib.ikbus.IKBusPacket;
+
+/**
+ * Tests for the ChannelIKBusPacketWriter class.
+ */
+public class ChannelIKBusPacketWriterTest {
+	
+	/**
+	 * Tests whether the coalesced packets are written correctly to a non-blocking channel, including when the channel cannot accept all
+	 * data at once.
+	 */
+	@Test(timeout=5000)
+	public void testNonBlockingChannel() throws IOException, InterruptedException {
+		Pipe pipe = Pipe.open();
+		pipe.sink().configureBlocking(false);
+		
+		// Write more data than the pipe can hold, so that the writer has to wait until the channel accepts more data.
+		int packetCount = 50000;
+		IKBusPacket packet = new IKBusPacket((byte) 0x3F, (byte) 0x60, bytes("0C 80"));
+		Thread producer = new Thread(() -> {
+			try (ChannelIKBusPacketWriter writer = new ChannelIKBusPacketWriter(pipe.sink())) {
+				for (int index = 0; index < packetCount; index++) {
+					writer.write(packet);
+				}
+			} catch (IKBusIOException e) {
+				throw new IllegalStateException(e);
+			}
+		});
+		producer.start();
+		
+		ByteBuffer received = ByteBuffer.allocate(packetCount * packet.getRawLength() + 1);
+		while (pipe.source().read(received) >= 0) {
+			// Keep reading until the writer has closed the pipe.
+		}
+		producer.join();
+		
+		assertEquals(packetCount * packet.getRawLength(), received.position());
+		byte[] raw = bytes("3F 04 60 0C 80 D7");
+		for (int index = 0; index < received.position(); index++) {
+			assertEquals(raw[index % raw.length], received.get(index));
+		}
+	}
+
+}
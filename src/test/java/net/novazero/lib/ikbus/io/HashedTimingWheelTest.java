@@ -0,0 +1,80 @@
+package net.novazero.lib.ikbus.io;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Tests for the HashedTimingWheel class.
+ */
+public class HashedTimingWheelTest {
+	
+	/**
+	 * Tests whether the timeouts expire at the first tick at or after their deadline, also when they are more than one revolution ahead.
+	 */
+	@Test
+	public void testExpiration() {
+		HashedTimingWheel<String> wheel = new HashedTimingWheel<>(10, 4, 1000);
+		wheel.schedule("a", 1025);
+		wheel.schedule("b", 1030);
+		wheel.schedule("c", 1075);
+		wheel.schedule("d", 1000);
+		
+		List<String> expired = new ArrayList<>();
+		assertEquals(1, wheel.advance(1005, expired::add));
+		assertEquals(Collections.singletonList("d"), expired);
+		assertEquals(1010, wheel.getNextTickTime());
+		
+		assertEquals(0, wheel.advance(1029, expired::add));
+		assertEquals(2, wheel.advance(1030, expired::add));
+		assertEquals(Arrays.asList("d", "b", "a"), expired);
+		
+		assertEquals(0, wheel.advance(1070, expired::add));
+		assertFalse(wheel.isEmpty());
+		assertEquals(1, wheel.advance(1080, expired::add));
+		assertEquals("c", expired.get(3));
+		assertTrue(wheel.isEmpty());
+	}
+	
+	/**
+	 * Tests whether cancelled timeouts do not expire.
+	 */
+	@Test
+	public void testCancel() {
+		HashedTimingWheel<String> wheel = new HashedTimingWheel<>(10, 4, 0);
+		HashedTimingWheel.Timeout<String> a = wheel.schedule("a", 20);
+		HashedTimingWheel.Timeout<String> b = wheel.schedule("b", 20);
+		HashedTimingWheel.Timeout<String> c = wheel.schedule("c", 20);
+		assertTrue(wheel.cancel(b));
+		assertFalse(wheel.cancel(b));
+		
+		List<String> expired = new ArrayList<>();
+		wheel.advance(100, expired::add);
+		assertEquals(Arrays.asList("c", "a"), expired);
+		assertFalse(wheel.cancel(a));
+		assertFalse(wheel.cancel(c));
+		assertTrue(wheel.isEmpty());
+	}
+	
+	/**
+	 * Tests whether timeouts that are scheduled in the past expire at the next tick, and whether an idle wheel skips ahead.
+	 */
+	@Test
+	public void testIdleWheel() {
+		HashedTimingWheel<String> wheel = new HashedTimingWheel<>(10, 4, 0);
+		assertEquals(0, wheel.advance(1000000, expired -> fail()));
+		assertEquals(1000010, wheel.getNextTickTime());
+		
+		List<String> expired = new ArrayList<>();
+		wheel.schedule("a", 5);
+		assertEquals(0, wheel.advance(1000005, expired::add));
+		assertEquals(1, wheel.advance(1000010, expired::add));
+		assertEquals(Collections.singletonList("a"), expired);
+	}
+
+}
@@ -0,0 +1,158 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import net.novazero.lib.ikbus.IKBusPacket;
+import net.novazero.lib.ikbus.InvalidIKBusPacketException;
+
+import org.junit.Test;
+
+/**
+ * Tests for the IKBusPacketFramer class.
+ */
+public class IKBusPacketFramerTest {
+	
+	/**
+	 * Tests whether packets are framed correctly when the ring buffer wraps around many times.
+	 */
+	@Test
+	public void testRingBufferWrapAround() {
+		IKBusPacketFramer framer = new IKBusPacketFramer();
+		byte[] packet = bytes("80 0F FF 24 02 00 30 31 2E 30 36 2E 32 30 30 37 54");
+		
+		for (int iteration = 0; iteration < 1000; iteration++) {
+			framer.append(packet, 0, packet.length);
+			
+			IKBusPacketStreamElement element = framer.poll();
+			assertTrue(element.isValidPacket());
+			assertArrayEquals(packet, element.getData());
+			assertSame(element.getData(), element.getData());
+			assertArrayEquals(bytes("24 02 00 30 31 2E 30 36 2E 32 30 30 37"), element.getPacket().getData().toArray());
+			assertNull(framer.poll());
+			assertTrue(framer.isEmpty());
+		}
+	}
+	
+	/**
+	 * Tests whether a long sequence of corrupted data that exceeds the initial capacity of the ring buffer is preserved.
+	 */
+	@Test
+	public void testLongCorruptedSequence() {
+		IKBusPacketFramer framer = new IKBusPacketFramer();
+		byte[] packet = bytes("50 03 C8 01 9A");
+		
+		for (int index = 0; index < 3000; index++) {
+			framer.append((byte) 0x01);
+		}
+		framer.append(packet, 0, packet.length);
+		framer.drain();
+		
+		IKBusPacketStreamElement element = framer.poll();
+		assertFalse(element.isValidPacket());
+		assertEquals(3000, element.getData().length);
+		
+		element = framer.poll();
+		assertTrue(element.isValidPacket());
+		assertArrayEquals(packet, element.getData());
+		
+		assertNull(framer.poll());
+		assertTrue(framer.isEmpty());
+	}
+	
+	/**
+	 * Tests whether draining the framer extracts the valid packets that follow an incomplete packet.
+	 */
+	@Test
+	public void testDrain() {
+		IKBusPacketFramer framer = new IKBusPacketFramer();
+		byte[] data = bytes("72 0F BF 78 50 03 C8 01 9A 3F 06");
+		framer.append(data, 0, data.length);
+		
+		assertNull(framer.poll());
+		framer.drain();
+		
+		IKBusPacketStreamElement element = framer.poll();
+		assertFalse(element.isValidPacket());
+		assertArrayEquals(bytes("72 0F BF 78"), element.getData());
+		
+		element = framer.poll();
+		assertTrue(element.isValidPacket());
+		assertArrayEquals(bytes("50 03 C8 01 9A"), element.getData());
+		
+		element = framer.poll();
+		assertFalse(element.isValidPacket());
+		assertArrayEquals(bytes("3F 06"), element.getData());
+		
+		assertNull(framer.poll());
+		assertFalse(framer.isDraining());
+	}
+	
+	/**
+	 * Tests whether the stream elements report the times at which their first and last bytes were received.
+	 */
+	@Test
+	public void testReceiveTimes() {
+		IKBusPacketFramer framer = new IKBusPacketFramer();
+		framer.append(bytes("01 50 03"), 0, 3, 100);
+		framer.append(bytes("C8 01"), 0, 2, 200);
+		framer.append(bytes("9A"), 0, 1, 300);
+		framer.drain();
+		
+		IKBusPacketStreamElement element = framer.poll();
+		assertFalse(element.isValidPacket());
+		assertEquals(100, element.getFirstByteTime());
+		assertEquals(100, element.getLastByteTime());
+		
+		element = framer.poll();
+		assertTrue(element.isValidPacket());
+		assertEquals(100, element.getFirstByteTime());
+		assertEquals(300, element.getLastByteTime());
+		
+		long wallClockTime = (System.nanoTime() + element.getWallClockOffset()) / 1000000L;
+		assertTrue(Math.abs(wallClockTime - System.currentTimeMillis()) < 1000);
+	}
+	
+	/**
+	 * Tests whether packets that are embedded in long sequences of random noise are recovered (except for those that overlap with a
+	 * packet which accidentally occurs in the noise) and whether all data is preserved.
+	 */
+	@Test
+	public void testResynchronization() throws InvalidIKBusPacketException {
+		Random random = new Random(42);
+		ByteArrayOutputStream input = new ByteArrayOutputStream();
+		byte[] packet = bytes("80 0F FF 24 02 00 30 31 2E 30 36 2E 32 30 30 37 54");
+		for (int iteration = 0; iteration < 20; iteration++) {
+			byte[] noise = new byte[random.nextInt(5000)];
+			random.nextBytes(noise);
+			input.write(noise, 0, noise.length);
+			input.write(packet, 0, packet.length);
+		}
+		byte[] data = input.toByteArray();
+		
+		IKBusPacketFramer framer = new IKBusPacketFramer();
+		framer.append(data, 0, data.length);
+		framer.drain();
+		
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		int numberOfMatchingPackets = 0;
+		IKBusPacketStreamElement element;
+		while ((element = framer.poll()) != null) {
+			output.write(element.getData(), 0, element.getData().length);
+			if (element.isValidPacket()) {
+				assertArrayEquals(IKBusPacket.parse(element.getData()).toRaw(), element.getPacket().toRaw());
+				if (element.getPacket().toString().equals(IKBusPacket.parse(packet).toString())) {
+					numberOfMatchingPackets++;
+				}
+			}
+		}
+		
+		assertArrayEquals(data, output.toByteArray());
+		// The number of packets the original (list based) framing algorithm recovers for this seed.
+		assertEquals(13, numberOfMatchingPackets);
+	}
+	
+}
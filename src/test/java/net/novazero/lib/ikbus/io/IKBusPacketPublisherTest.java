@@ -0,0 +1,106 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.io.PublisherTestSupport.reader;
+import static org.junit.Assert.*;
+
+import net.novazero.lib.ikbus.IKBusMessage;
+import net.novazero.lib.ikbus.UnknownIKBusMessageCatcher;
+import net.novazero.lib.ikbus.io.PublisherTestSupport.CollectingSubscriber;
+
+import org.junit.Test;
+
+/**
+ * Tests for the IKBusPacketPublisher and IKBusMessagePublisher classes.
+ */
+public class IKBusPacketPublisherTest {
+	
+	/**
+	 * Tests whether the stream elements are delivered according to the demand of the subscriber, while the reader is suspended when the
+	 * buffer is full.
+	 */
+	@Test(timeout=2000)
+	public void testDemand() throws Exception {
+		IKBusPacketPublisher publisher = new IKBusPacketPublisher(reader("50 03 C8 01 9A 01 02 03 04 3F 04 60 0C 80 D7 BF 03 80 16 2A"), 1,
+			OverflowPolicy.BLOCK);
+		
+		CollectingSubscriber<IKBusPacketStreamElement> subscriber = new CollectingSubscriber<IKBusPacketStreamElement>() {
+			@Override
+			public void onNext(IKBusPacketStreamElement item) {
+				super.onNext(item);
+				subscription.request(1);
+			}
+		};
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(1);
+		
+		assertEquals("50 03 C8 01 9A", subscriber.received.take());
+		assertEquals("invalid", subscriber.received.take());
+		assertEquals("3F 04 60 0C 80 D7", subscriber.received.take());
+		assertEquals("BF 03 80 16 2A", subscriber.received.take());
+		assertEquals("complete", subscriber.received.take());
+		assertEquals(0, publisher.getDroppedElementCount());
+	}
+	
+	/**
+	 * Tests whether the newest or oldest stream elements are dropped when the buffer overflows.
+	 */
+	@Test(timeout=2000)
+	public void testOverflowPolicies() throws Exception {
+		String data = "50 03 C8 01 9A 3F 04 60 0C 80 D7 BF 03 80 16 2A";
+		
+		IKBusPacketPublisher dropNewest = new IKBusPacketPublisher(reader(data), 1, OverflowPolicy.DROP_NEWEST);
+		CollectingSubscriber<IKBusPacketStreamElement> subscriber = new CollectingSubscriber<>();
+		dropNewest.subscribe(subscriber);
+		while (dropNewest.getDroppedElementCount() < 2) {
+			Thread.sleep(1);
+		}
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertEquals("50 03 C8 01 9A", subscriber.received.take());
+		assertEquals("complete", subscriber.received.take());
+		
+		IKBusPacketPublisher dropOldest = new IKBusPacketPublisher(reader(data), 1, OverflowPolicy.DROP_OLDEST);
+		subscriber = new CollectingSubscriber<>();
+		dropOldest.subscribe(subscriber);
+		while (dropOldest.getDroppedElementCount() < 2) {
+			Thread.sleep(1);
+		}
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertEquals("BF 03 80 16 2A", subscriber.received.take());
+		assertEquals("complete", subscriber.received.take());
+	}
+	
+	/**
+	 * Tests whether only a single subscriber is accepted and whether invalid requests are reported.
+	 */
+	@Test(timeout=2000)
+	public void testSubscriptionErrors() throws Exception {
+		IKBusPacketPublisher publisher = new IKBusPacketPublisher(reader("50 03 C8 01 9A"));
+		
+		CollectingSubscriber<IKBusPacketStreamElement> first = new CollectingSubscriber<>();
+		publisher.subscribe(first);
+		CollectingSubscriber<IKBusPacketStreamElement> second = new CollectingSubscriber<>();
+		publisher.subscribe(second);
+		assertEquals("error: IllegalStateException", second.received.take());
+		
+		first.subscription.request(0);
+		assertEquals("error: IllegalArgumentException", first.received.take());
+	}
+	
+	/**
+	 * Tests whether messages are parsed from the valid packets.
+	 */
+	@Test(timeout=2000)
+	public void testMessagePublisher() throws Exception {
+		IKBusMessagePublisher publisher = new IKBusMessagePublisher(reader("50 03 C8 01 9A 01 02 03 04 3F 04 60 0C 80 D7"),
+			new UnknownIKBusMessageCatcher(packet -> null));
+		
+		CollectingSubscriber<IKBusMessage> subscriber = new CollectingSubscriber<>();
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		
+		assertEquals("50 03 C8 01 9A", subscriber.received.take());
+		assertEquals("3F 04 60 0C 80 D7", subscriber.received.take());
+		assertEquals("complete", subscriber.received.take());
+	}
+
+}
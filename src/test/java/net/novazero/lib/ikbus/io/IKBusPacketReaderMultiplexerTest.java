@@ -0,0 +1,121 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.junit.Test;
+
+/**
+ * Tests for the IKBusPacketReaderMultiplexer class.
+ */
+public class IKBusPacketReaderMultiplexerTest {
+	
+	/**
+	 * Tests whether the stream elements of multiple connections are delivered with the proper connection identifiers.
+	 */
+	@Test(timeout=2000)
+	public void testMultipleConnections() throws Exception {
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		IKBusPacketReaderMultiplexer multiplexer = new IKBusPacketReaderMultiplexer(new IKBusPacketReaderMultiplexer.Listener() {
+			@Override
+			public void elementReceived(String connectionId, IKBusPacketStreamElement element) {
+				received.add(connectionId + ": " + (element.isValidPacket() ? element.getPacket() : "invalid"));
+			}
+			
+			@Override
+			public void endOfStream(String connectionId) {
+				received.add(connectionId + ": end");
+			}
+		});
+		Thread multiplexerThread = new Thread(multiplexer);
+		multiplexerThread.start();
+		
+		Pipe first = Pipe.open();
+		Pipe second = Pipe.open();
+		try {
+			multiplexer.register("first", new ChannelIKBusPacketReader(first.source()));
+			multiplexer.register("second", new ChannelIKBusPacketReader(second.source()));
+			
+			first.sink().write(ByteBuffer.wrap(bytes("50 03 C8 01 9A")));
+			assertEquals("first: 50 03 C8 01 9A", received.take());
+			
+			second.sink().write(ByteBuffer.wrap(bytes("3F 04 60 0C 80 D7")));
+			assertEquals("second: 3F 04 60 0C 80 D7", received.take());
+			
+			// Incomplete packet, which should time out.
+			first.sink().write(ByteBuffer.wrap(bytes("72 05 BF 78")));
+			assertEquals("first: invalid", received.take());
+			
+			second.sink().close();
+			assertEquals("second: end", received.take());
+			
+			multiplexer.unregister("first");
+			first.sink().write(ByteBuffer.wrap(bytes("50 03 C8 01 9A")));
+			Thread.sleep(InputStreamIKBusPacketReader.PACKET_TIMEOUT * 2);
+			assertTrue(received.isEmpty());
+		} finally {
+			multiplexer.close();
+			multiplexerThread.join();
+			first.sink().close();
+			first.source().close();
+			second.source().close();
+		}
+	}
+	
+	/**
+	 * Tests whether a connection that cannot be registered or for which the listener fails is unregistered, without affecting the other
+	 * connections.
+	 */
+	@Test(timeout=2000)
+	public void testConnectionFailures() throws Exception {
+		final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		IKBusPacketReaderMultiplexer multiplexer = new IKBusPacketReaderMultiplexer(new IKBusPacketReaderMultiplexer.Listener() {
+			@Override
+			public void elementReceived(String connectionId, IKBusPacketStreamElement element) {
+				if (connectionId.equals("failing")) {
+					throw new IllegalStateException();
+				}
+				received.add(connectionId + ": " + (element.isValidPacket() ? element.getPacket() : "invalid"));
+			}
+			
+			@Override
+			public void error(String connectionId, IKBusIOException exception) {
+				received.add(connectionId + ": error");
+			}
+		});
+		Thread multiplexerThread = new Thread(multiplexer);
+		multiplexerThread.start();
+		
+		Pipe closed = Pipe.open();
+		Pipe failing = Pipe.open();
+		Pipe working = Pipe.open();
+		try {
+			closed.source().close();
+			multiplexer.register("closed", new ChannelIKBusPacketReader(closed.source()));
+			assertEquals("closed: error", received.take());
+			
+			multiplexer.register("failing", new ChannelIKBusPacketReader(failing.source()));
+			multiplexer.register("working", new ChannelIKBusPacketReader(working.source()));
+			failing.sink().write(ByteBuffer.wrap(bytes("50 03 C8 01 9A")));
+			assertEquals("failing: error", received.take());
+			
+			working.sink().write(ByteBuffer.wrap(bytes("3F 04 60 0C 80 D7")));
+			assertEquals("working: 3F 04 60 0C 80 D7", received.take());
+			assertTrue(multiplexerThread.isAlive());
+		} finally {
+			multiplexer.close();
+			multiplexerThread.join();
+			closed.sink().close();
+			failing.sink().close();
+			failing.source().close();
+			working.sink().close();
+			working.source().close();
+		}
+	}
+
+}
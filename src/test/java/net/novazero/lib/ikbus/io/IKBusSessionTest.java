@@ -0,0 +1,178 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+import net.novazero.lib.ikbus.IKBusPacket;
+
+/**
+ * Tests for the IKBusSession class.
+ */
+public class IKBusSessionTest {
+	
+	/** Request for the status of the module with identifier 0x68. */
+	private static final IKBusPacket REQUEST = new IKBusPacket((byte) 0x3F, (byte) 0x68, bytes("01"));
+	
+	/**
+	 * Tests whether responses are correlated with the requests that expect them.
+	 */
+	@Test(timeout=2000)
+	public void testRequest() throws Exception {
+		QueueConnection connection = new QueueConnection();
+		List<IKBusPacket> unmatched = new CopyOnWriteArrayList<>();
+		IKBusSession session = new IKBusSession(connection, unmatched::add, ReaderThreadFactory.platform());
+		
+		CompletableFuture<IKBusPacket> status = session.request(REQUEST, (byte) 0x68, (byte) 0x3F, bytes("02"), 1000);
+		CompletableFuture<IKBusPacket> version = session.request(REQUEST, (byte) 0x68, (byte) 0x3F, bytes("A0"), 1000);
+		assertEquals(2, connection.written.size());
+		assertEquals(2, session.getPendingRequestCount());
+		
+		IKBusPacket otherSource = new IKBusPacket((byte) 0x80, (byte) 0x3F, bytes("A0 01"));
+		IKBusPacket versionResponse = new IKBusPacket((byte) 0x68, (byte) 0x3F, bytes("A0 01"));
+		IKBusPacket statusResponse = new IKBusPacket((byte) 0x68, (byte) 0x3F, bytes("02 00"));
+		connection.receive(otherSource);
+		connection.receive(versionResponse);
+		connection.receive(statusResponse);
+		
+		assertSame(versionResponse, version.get());
+		assertSame(statusResponse, status.get());
+		assertEquals(0, session.getPendingRequestCount());
+		while (unmatched.isEmpty()) {
+			Thread.sleep(5);
+		}
+		assertSame(otherSource, unmatched.get(0));
+		session.close();
+	}
+	
+	/**
+	 * Tests whether requests fail once their timeout expires.
+	 */
+	@Test(timeout=2000)
+	public void testTimeout() throws Exception {
+		IKBusSession session = new IKBusSession(new QueueConnection());
+		
+		long startTime = System.nanoTime();
+		CompletableFuture<IKBusPacket> shortRequest = session.request(REQUEST, (byte) 0x68, (byte) 0x3F, new byte[0], 50);
+		CompletableFuture<IKBusPacket> longRequest = session.request(REQUEST, (byte) 0x68, (byte) 0x3F, new byte[0], 60000);
+		try {
+			shortRequest.get();
+			fail("Expecting an exception of class " + ExecutionException.class.getCanonicalName() + " but none was thrown.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		assertTrue(System.nanoTime() - startTime >= TimeUnit.MILLISECONDS.toNanos(50));
+		assertFalse(longRequest.isDone());
+		assertEquals(1, session.getPendingRequestCount());
+		
+		session.close();
+		try {
+			longRequest.get();
+			fail("Expecting an exception of class " + ExecutionException.class.getCanonicalName() + " but none was thrown.");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IKBusIOException);
+		}
+		assertTrue(session.request(REQUEST, (byte) 0x68, (byte) 0x3F, new byte[0], 50).isCompletedExceptionally());
+	}
+	
+	/**
+	 * Tests whether a large number of requests for the same source and destination can expire at once, without affecting the requests that
+	 * are still pending.
+	 */
+	@Test(timeout=5000)
+	public void testMassExpiry() throws Exception {
+		QueueConnection connection = new QueueConnection();
+		IKBusSession session = new IKBusSession(connection);
+		
+		List<CompletableFuture<IKBusPacket>> shortRequests = new ArrayList<>();
+		for (int index = 0; index < 20000; index++) {
+			shortRequests.add(session.request(REQUEST, (byte) 0x68, (byte) 0x3F, bytes("01"), 50));
+		}
+		CompletableFuture<IKBusPacket> longRequest = session.request(REQUEST, (byte) 0x68, (byte) 0x3F, bytes("02"), 60000);
+		for (CompletableFuture<IKBusPacket> shortRequest : shortRequests) {
+			try {
+				shortRequest.get();
+				fail("Expecting an exception of class " + ExecutionException.class.getCanonicalName() + " but none was thrown.");
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof TimeoutException);
+			}
+		}
+		assertEquals(1, session.getPendingRequestCount());
+		
+		IKBusPacket response = new IKBusPacket((byte) 0x68, (byte) 0x3F, bytes("02 00"));
+		connection.receive(response);
+		assertSame(response, longRequest.get());
+		assertEquals(0, session.getPendingRequestCount());
+		session.close();
+	}
+	
+	/**
+	 * Connection whose received packets are supplied by the test and whose written packets are recorded.
+	 */
+	private static class QueueConnection implements IKBusConnection {
+		
+		/** Marker that signals the end of the stream. */
+		private static final IKBusPacketStreamElement END_OF_STREAM = IKBusPacketStreamElement.invalid(new byte[0]);
+		
+		/** Stream elements that are to be read. */
+		private final BlockingQueue<IKBusPacketStreamElement> received = new LinkedBlockingQueue<>();
+		
+		/** Packets that have been written. */
+		private final List<IKBusPacket> written = new CopyOnWriteArrayList<>();
+		
+		public void receive(IKBusPacket packet) {
+			received.add(IKBusPacketStreamElement.valid(packet));
+		}
+		
+		@Override
+		public IKBusPacketReader getPacketReader() {
+			return new IKBusPacketReader() {
+				@Override
+				public IKBusPacketStreamElement read() throws IKBusIOException {
+					try {
+						IKBusPacketStreamElement element = received.take();
+						return element == END_OF_STREAM ? null : element;
+					} catch (InterruptedException e) {
+						throw new IKBusIOException(e);
+					}
+				}
+				
+				@Override
+				public void close() {
+				}
+			};
+		}
+		
+		@Override
+		public IKBusPacketWriter getPacketWriter() {
+			return new IKBusPacketWriter() {
+				@Override
+				public void write(IKBusPacket packet) {
+					written.add(packet);
+				}
+				
+				@Override
+				public void close() {
+				}
+			};
+		}
+		
+		@Override
+		public void close() {
+			received.add(END_OF_STREAM);
+		}
+	
+	}
+
+}
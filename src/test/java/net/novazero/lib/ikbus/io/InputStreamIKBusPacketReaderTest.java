@@ -3,6 +3,7 @@ package net.novazero.lib.ikbus.io;
 import static net.novazero.lib.ikbus.IKBusUtils.bytes;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayDeque;
@@ -258,6 +259,32 @@ public class InputStreamIKBusPacketReaderTest {
 		}
 	}
 	
+	/**
+	 * Tests whether the packets that have already been received are returned by a single batch read call.
+	 * @throws IKBusIOException 
+	 */
+	@Test
+	public void testReadBatch() throws IKBusIOException {
+		IKBusPacketReader reader = new InputStreamIKBusPacketReader(new ByteArrayInputStream(bytes(
+			"50 03 C8 01 9A 3F 04 60 0C 80 D7 50 03 C8 01 9A"
+		)));
+		
+		try {
+			IKBusPacketStreamElement[] sink = new IKBusPacketStreamElement[10];
+			
+			assertEquals(2, reader.readBatch(sink, 2));
+			assertArrayEquals(bytes("50 03 C8 01 9A"), sink[0].getData());
+			assertArrayEquals(bytes("3F 04 60 0C 80 D7"), sink[1].getData());
+			
+			assertEquals(1, reader.readBatch(sink, sink.length));
+			assertArrayEquals(bytes("50 03 C8 01 9A"), sink[0].getData());
+			
+			assertEquals(-1, reader.readBatch(sink, sink.length));
+		} finally {
+			reader.close();
+		}
+	}
+	
 	// Private test support methods and classes. 
 	
 	private static IKBusPacketReader reader(ReaderElement ... stream) {
@@ -0,0 +1,203 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static net.novazero.lib.ikbus.IKBusUtils.bytesToHex;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import net.novazero.lib.ikbus.IKBusPacket;
+
+/**
+ * Tests for the OutputStreamIKBusPacketWriter class.
+ */
+public class OutputStreamIKBusPacketWriterTest {
+	
+	/** First packet that is written by the tests. */
+	private static final IKBusPacket PACKET_1 = new IKBusPacket((byte) 0x50, (byte) 0xC8, bytes("01"));
+	
+	/** Second packet that is written by the tests. */
+	private static final IKBusPacket PACKET_2 = new IKBusPacket((byte) 0x3F, (byte) 0x60, bytes("0C 80"));
+	
+	/**
+	 * Tests whether the written packets are transmitted with a single write when the writer is flushed.
+	 */
+	@Test
+	public void testCoalescing() throws IOException {
+		RecordingOutputStream outputStream = new RecordingOutputStream();
+		OutputStreamIKBusPacketWriter writer = new OutputStreamIKBusPacketWriter(outputStream, 1024, 60000);
+		
+		writer.write(PACKET_1);
+		writer.write(PACKET_2);
+		writer.write(PACKET_1);
+		assertEquals(0, outputStream.getWrites().size());
+		
+		writer.flush();
+		assertEquals(Collections.singletonList("50 03 C8 01 9A 3F 04 60 0C 80 D7 50 03 C8 01 9A"), outputStream.getWrites());
+		assertEquals(1, outputStream.getFlushCount());
+		
+		writer.close();
+		assertEquals(1, outputStream.getWrites().size());
+		assertTrue(outputStream.isClosed());
+	}
+	
+	/**
+	 * Tests whether the buffered packets are transmitted once the latency budget has expired.
+	 */
+	@Test(timeout=2000)
+	public void testLatencyBudget() throws IOException, InterruptedException {
+		RecordingOutputStream outputStream = new RecordingOutputStream();
+		OutputStreamIKBusPacketWriter writer = new OutputStreamIKBusPacketWriter(outputStream, 1024, 20);
+		
+		writer.write(PACKET_1);
+		writer.write(PACKET_2);
+		while (outputStream.getWrites().isEmpty()) {
+			Thread.sleep(5);
+		}
+		assertEquals(Collections.singletonList("50 03 C8 01 9A 3F 04 60 0C 80 D7"), outputStream.getWrites());
+		
+		writer.write(PACKET_1);
+		while (outputStream.getWrites().size() < 2) {
+			Thread.sleep(5);
+		}
+		assertEquals("50 03 C8 01 9A", outputStream.getWrites().get(1));
+		writer.close();
+	}
+	
+	/**
+	 * Tests whether the latency budget is still enforced after the flusher thread has been interrupted.
+	 */
+	@Test(timeout=2000)
+	public void testInterruptedFlusher() throws IOException, InterruptedException {
+		RecordingOutputStream outputStream = new RecordingOutputStream();
+		Thread[] flusher = new Thread[1];
+		OutputStreamIKBusPacketWriter writer = new OutputStreamIKBusPacketWriter(outputStream, 1024, 100,
+			runnable -> flusher[0] = ReaderThreadFactory.platform().newThread(runnable));
+		
+		writer.write(PACKET_1);
+		Thread.sleep(20);
+		flusher[0].interrupt();
+		while (outputStream.getWrites().isEmpty()) {
+			Thread.sleep(5);
+		}
+		assertEquals(Collections.singletonList("50 03 C8 01 9A"), outputStream.getWrites());
+		assertTrue(flusher[0].isAlive());
+		writer.close();
+	}
+	
+	/**
+	 * Tests whether the buffer is transmitted when it is full and whether packets that are larger than the buffer are transmitted
+	 * directly.
+	 */
+	@Test
+	public void testBufferSize() throws IOException {
+		RecordingOutputStream outputStream = new RecordingOutputStream();
+		OutputStreamIKBusPacketWriter writer = new OutputStreamIKBusPacketWriter(outputStream, 10, 60000);
+		
+		writer.write(PACKET_1);
+		writer.write(PACKET_1);
+		assertEquals(Collections.singletonList("50 03 C8 01 9A 50 03 C8 01 9A"), outputStream.getWrites());
+		
+		writer.write(PACKET_1);
+		writer.write(new IKBusPacket((byte) 0x50, (byte) 0xC8, new byte[10]));
+		assertEquals(3, outputStream.getWrites().size());
+		assertEquals("50 03 C8 01 9A", outputStream.getWrites().get(1));
+		assertEquals("50 0C C8 00 00 00 00 00 00 00 00 00 00 94", outputStream.getWrites().get(2));
+		writer.close();
+	}
+	
+	/**
+	 * Tests whether each packet is transmitted immediately if the latency budget is 0.
+	 */
+	@Test
+	public void testWithoutLatencyBudget() throws IOException {
+		RecordingOutputStream outputStream = new RecordingOutputStream();
+		OutputStreamIKBusPacketWriter writer = new OutputStreamIKBusPacketWriter(outputStream, 1024, 0);
+		
+		writer.write(PACKET_1);
+		writer.write(PACKET_2);
+		assertEquals(Arrays.asList("50 03 C8 01 9A", "3F 04 60 0C 80 D7"), outputStream.getWrites());
+		assertEquals(2, outputStream.getFlushCount());
+		writer.close();
+	}
+	
+	/**
+	 * Tests whether the packets that are still buffered are transmitted when the writer is closed and whether the writer cannot be used
+	 * after that.
+	 */
+	@Test
+	public void testClose() throws IOException {
+		RecordingOutputStream outputStream = new RecordingOutputStream();
+		OutputStreamIKBusPacketWriter writer = new OutputStreamIKBusPacketWriter(outputStream);
+		writer.write(PACKET_1);
+		writer.close();
+		assertEquals(Collections.singletonList("50 03 C8 01 9A"), outputStream.getWrites());
+		assertTrue(outputStream.isClosed());
+		
+		try {
+			writer.write(PACKET_1);
+			fail("Expecting an exception of class " + IKBusIOException.class.getCanonicalName() + " but none was thrown.");
+		} catch (IKBusIOException e) { }
+		
+		try {
+			writer.close();
+			fail("Expecting an exception of class " + IKBusIOException.class.getCanonicalName() + " but none was thrown.");
+		} catch (IKBusIOException e) { }
+	}
+	
+	/**
+	 * Output stream that records the data of each write call.
+	 */
+	private static class RecordingOutputStream extends OutputStream {
+		
+		/** The data of each write call, in hexadecimal notation. */
+		private final List<String> writes = new ArrayList<>();
+		
+		/** Number of times the stream has been flushed. */
+		private int flushCount = 0;
+		
+		/** Whether the stream has been closed. */
+		private boolean closed = false;
+		
+		@Override
+		public synchronized void write(int b) {
+			writes.add(bytesToHex(new byte[] { (byte) b }));
+		}
+		
+		@Override
+		public synchronized void write(byte[] b, int off, int len) {
+			writes.add(bytesToHex(Arrays.copyOfRange(b, off, off + len)));
+		}
+		
+		@Override
+		public synchronized void flush() {
+			flushCount++;
+		}
+		
+		@Override
+		public synchronized void close() {
+			closed = true;
+		}
+		
+		public synchronized List<String> getWrites() {
+			return new ArrayList<>(writes);
+		}
+		
+		public synchronized int getFlushCount() {
+			return flushCount;
+		}
+		
+		public synchronized boolean isClosed() {
+			return closed;
+		}
+	
+	}
+
+}
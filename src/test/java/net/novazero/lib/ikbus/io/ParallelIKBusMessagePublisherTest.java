@@ -0,0 +1,105 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.io.PublisherTestSupport.reader;
+import static org.junit.Assert.*;
+
+import net.novazero.lib.ikbus.IKBusMessage;
+import net.novazero.lib.ikbus.IKBusMessageParser;
+import net.novazero.lib.ikbus.UnknownIKBusMessage;
+import net.novazero.lib.ikbus.io.PublisherTestSupport.CollectingSubscriber;
+
+import org.junit.Test;
+
+/**
+ * Tests for the ParallelIKBusMessagePublisher class.
+ */
+public class ParallelIKBusMessagePublisherTest {
+	
+	/**
+	 * Tests whether the messages are published in the order in which the packets were read, even though the packets are parsed out of order.
+	 */
+	@Test(timeout=5000)
+	public void testOrder() throws Exception {
+		for (int queueDepth : new int[] { 1, 3, 16 }) {
+			ParallelIKBusMessagePublisher publisher = new ParallelIKBusMessagePublisher(reader(200, 1), slowParser(), 4, queueDepth);
+			
+			CollectingSubscriber<IKBusMessage> subscriber = new CollectingSubscriber<>(ParallelIKBusMessagePublisherTest::index);
+			publisher.subscribe(subscriber);
+			subscriber.subscription.request(Long.MAX_VALUE);
+			
+			// Packets with an odd index are not recognized by the parser and are therefore skipped.
+			for (int index = 0; index < 200; index += 2) {
+				assertEquals(Integer.toString(index), subscriber.received.take());
+			}
+			assertEquals("complete", subscriber.received.take());
+		}
+	}
+	
+	/**
+	 * Tests whether the messages are published in order when the subscriber applies back pressure.
+	 */
+	@Test(timeout=5000)
+	public void testDemand() throws Exception {
+		ParallelIKBusMessagePublisher publisher = new ParallelIKBusMessagePublisher(reader(100, 1), slowParser(), 3, 8, 1, OverflowPolicy.BLOCK,
+			ReaderThreadFactory.platform());
+		
+		CollectingSubscriber<IKBusMessage> subscriber = new CollectingSubscriber<IKBusMessage>(ParallelIKBusMessagePublisherTest::index) {
+			@Override
+			public void onNext(IKBusMessage item) {
+				super.onNext(item);
+				subscription.request(1);
+			}
+		};
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(1);
+		
+		for (int index = 0; index < 100; index += 2) {
+			assertEquals(Integer.toString(index), subscriber.received.take());
+		}
+		assertEquals("complete", subscriber.received.take());
+	}
+	
+	/**
+	 * Tests whether an error of the parser is reported to the subscriber right after the messages of the preceding packets, without
+	 * publishing the messages of the subsequent packets.
+	 */
+	@Test(timeout=5000)
+	public void testParserError() throws Exception {
+		IKBusMessageParser parser = packet -> {
+			if (packet.getData().get(0) == 5) {
+				throw new IllegalStateException();
+			}
+			return new UnknownIKBusMessage(packet);
+		};
+		ParallelIKBusMessagePublisher publisher = new ParallelIKBusMessagePublisher(reader(50, 1), parser, 2, 4);
+		
+		CollectingSubscriber<IKBusMessage> subscriber = new CollectingSubscriber<>(ParallelIKBusMessagePublisherTest::index);
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		
+		for (int index = 0; index < 5; index++) {
+			assertEquals(Integer.toString(index), subscriber.received.take());
+		}
+		assertEquals("error: IllegalStateException", subscriber.received.take());
+	}
+	
+	// Private test support methods and classes.
+	
+	private static IKBusMessageParser slowParser() {
+		return packet -> {
+			int index = packet.getData().get(0) & 0xFF;
+			try {
+				// Let the parsing time vary, so packets are completed out of order.
+				Thread.sleep((7 - index % 7) % 3);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return index % 2 == 0 ? new UnknownIKBusMessage(packet) : null;
+		};
+	}
+	
+	private static String index(IKBusMessage message) {
+		return Integer.toString(message.toPacket().getData().get(0) & 0xFF);
+	}
+
+}
@@ -0,0 +1,176 @@
+package net.novazero.lib.ikbus.io;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import net.novazero.lib.ikbus.IKBusPacket;
+
+/**
+ * Tests for the PriorityIKBusPacketWriter class.
+ */
+public class PriorityIKBusPacketWriterTest {
+	
+	/**
+	 * Tests whether queued packets are transmitted in order of priority.
+	 */
+	@Test(timeout=2000)
+	public void testPriorities() throws Exception {
+		RecordingPacketWriter recordingWriter = new RecordingPacketWriter(true);
+		PriorityIKBusPacketWriter writer = new PriorityIKBusPacketWriter(recordingWriter);
+		
+		// The first packet is taken by the scheduler thread, which then blocks until the other packets have been queued.
+		writer.write(packet(0x68, 1), TransmitPriority.LOW);
+		recordingWriter.writeStarted.await();
+		writer.write(packet(0x68, 2), TransmitPriority.LOW);
+		writer.write(packet(0x3B, 3), TransmitPriority.NORMAL);
+		writer.write(packet(0x68, 4), TransmitPriority.HIGH);
+		writer.write(packet(0x3B, 5));
+		assertEquals(1, writer.getQueuedPacketCount(TransmitPriority.LOW));
+		assertEquals(2, writer.getQueuedPacketCount(TransmitPriority.NORMAL));
+		
+		recordingWriter.proceed.countDown();
+		writer.close();
+		assertEquals(Arrays.asList(1, 4, 3, 5, 2), recordingWriter.getWrittenIds());
+		assertEquals(1, writer.getTransmittedPacketCount(TransmitPriority.HIGH));
+		assertEquals(2, writer.getTransmittedPacketCount(TransmitPriority.NORMAL));
+		assertEquals(2, writer.getTransmittedPacketCount(TransmitPriority.LOW));
+	}
+	
+	/**
+	 * Tests whether the rate limits of destinations are enforced, without holding back the packets for other destinations.
+	 */
+	@Test(timeout=2000)
+	public void testRateLimit() throws Exception {
+		RecordingPacketWriter recordingWriter = new RecordingPacketWriter(false);
+		PriorityIKBusPacketWriter writer = new PriorityIKBusPacketWriter(recordingWriter);
+		writer.setRateLimit((byte) 0x68, 20, 1);
+		
+		long startTime = System.nanoTime();
+		writer.write(packet(0x68, 1));
+		writer.write(packet(0x68, 2));
+		writer.write(packet(0x68, 3));
+		writer.write(packet(0x3B, 4));
+		writer.close();
+		long duration = System.nanoTime() - startTime;
+		
+		assertEquals(Arrays.asList(1, 4, 2, 3), recordingWriter.getWrittenIds());
+		assertTrue(duration >= TimeUnit.MILLISECONDS.toNanos(90));
+		assertTrue(writer.getMaximumQueueingDelay(TransmitPriority.NORMAL, TimeUnit.MILLISECONDS) >= 90);
+		assertTrue(writer.getAverageQueueingDelay(TransmitPriority.NORMAL, TimeUnit.MILLISECONDS) >= 30);
+	}
+	
+	/**
+	 * Tests whether the queued packets are still transmitted when the scheduler thread is interrupted while it waits for a rate limit.
+	 */
+	@Test(timeout=2000)
+	public void testInterruptedScheduler() throws Exception {
+		List<Thread> threads = new ArrayList<>();
+		RecordingPacketWriter recordingWriter = new RecordingPacketWriter(false);
+		PriorityIKBusPacketWriter writer = new PriorityIKBusPacketWriter(recordingWriter, PriorityIKBusPacketWriter.DEFAULT_QUEUE_CAPACITY,
+			runnable -> {
+				Thread thread = new Thread(runnable);
+				thread.setDaemon(true);
+				threads.add(thread);
+				return thread;
+			});
+		writer.setRateLimit((byte) 0x68, 20, 1);
+		
+		writer.write(packet(0x68, 1));
+		writer.write(packet(0x68, 2));
+		writer.write(packet(0x68, 3));
+		threads.get(0).interrupt();
+		writer.close();
+		
+		assertEquals(Arrays.asList(1, 2, 3), recordingWriter.getWrittenIds());
+	}
+	
+	/**
+	 * Tests whether an error of the underlying writer is reported by a subsequent write.
+	 */
+	@Test(timeout=2000)
+	public void testWriteError() throws Exception {
+		PriorityIKBusPacketWriter writer = new PriorityIKBusPacketWriter(new IKBusPacketWriter() {
+			@Override
+			public void write(IKBusPacket packet) throws IKBusIOException {
+				throw new IKBusIOException("Write failed");
+			}
+			
+			@Override
+			public void close() {
+			}
+		});
+		
+		writer.write(packet(0x68, 1));
+		try {
+			while (true) {
+				Thread.sleep(5);
+				writer.write(packet(0x68, 2));
+			}
+		} catch (IKBusIOException e) {
+			assertEquals("Write failed", e.getCause().getMessage());
+		}
+		writer.close();
+	}
+	
+	/**
+	 * Creates a packet for the specified destination, which is identified by the first data byte.
+	 *
+	 * @param   destination  Destination of the packet.
+	 * @param   id           Identifier of the packet.
+	 * @return               The packet.
+	 */
+	private static IKBusPacket packet(int destination, int id) {
+		return new IKBusPacket((byte) 0x3F, (byte) destination, new byte[] { (byte) id });
+	}
+	
+	/**
+	 * Packet writer that records the identifiers of the written packets and which can block the first write until it is allowed to proceed.
+	 */
+	private static class RecordingPacketWriter implements IKBusPacketWriter {
+		
+		/** Latch that is released when the first write has started. */
+		private final CountDownLatch writeStarted = new CountDownLatch(1);
+		
+		/** Latch that allows the writes to proceed. */
+		private final CountDownLatch proceed;
+		
+		/** Identifiers of the packets that have been written. */
+		private final List<Integer> writtenIds = new ArrayList<>();
+		
+		public RecordingPacketWriter(boolean blockFirstWrite) {
+			this.proceed = new CountDownLatch(blockFirstWrite ? 1 : 0);
+		}
+		
+		@Override
+		public void write(IKBusPacket packet) {
+			writeStarted.countDown();
+			try {
+				proceed.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			synchronized (writtenIds) {
+				writtenIds.add((int) packet.getData().get(0));
+			}
+		}
+		
+		@Override
+		public void close() {
+		}
+		
+		public List<Integer> getWrittenIds() {
+			synchronized (writtenIds) {
+				return new ArrayList<>(writtenIds);
+			}
+		}
+	
+	}
+
+}
@@ -0,0 +1,116 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+import net.novazero.lib.ikbus.IKBusMessage;
+import net.novazero.lib.ikbus.IKBusPacket;
+
+/**
+ * Test support methods and classes that are shared by the tests of the publishers.
+ */
+final class PublisherTestSupport {
+	
+	/**
+	 * Prevents instantiation of this class.
+	 */
+	private PublisherTestSupport() {
+	}
+	
+	/**
+	 * Creates a packet reader that reads the specified raw data.
+	 *
+	 * @param   data  Hexadecimal representation of the raw data.
+	 * @return        The packet reader.
+	 */
+	static IKBusPacketReader reader(String data) {
+		return new InputStreamIKBusPacketReader(new ByteArrayInputStream(bytes(data)));
+	}
+	
+	/**
+	 * Creates a packet reader that reads a number of packets. The packet with index {@code i} has source {@code i % sources} and a single
+	 * data byte with value {@code i}.
+	 *
+	 * @param   packets  Number of packets.
+	 * @param   sources  Number of sources over which the packets are distributed.
+	 * @return           The packet reader.
+	 */
+	static IKBusPacketReader reader(int packets, int sources) {
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		for (int index = 0; index < packets; index++) {
+			byte[] raw = new IKBusPacket((byte) (index % sources), (byte) 0xBF, new byte[] { (byte) index }).toRaw();
+			data.write(raw, 0, raw.length);
+		}
+		return new InputStreamIKBusPacketReader(new ByteArrayInputStream(data.toByteArray()));
+	}
+	
+	/**
+	 * Subscriber that records a description of every item it receives, followed by "complete" or "error: " and the simple class name of
+	 * the error.
+	 *
+	 * @param  <T>  The type of the items.
+	 */
+	static class CollectingSubscriber<T> implements IKBusFlow.Subscriber<T> {
+		
+		/** Descriptions of the received items, followed by the completion of the subscription. */
+		protected final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+		
+		/** Function that describes a received item. */
+		private final Function<? super T, String> describer;
+		
+		/** The subscription, once it has been received. */
+		protected volatile IKBusFlow.Subscription subscription;
+		
+		/**
+		 * Creates a subscriber that describes stream elements and messages by their (raw) packet, or as "invalid" for invalid stream
+		 * elements.
+		 */
+		public CollectingSubscriber() {
+			this(CollectingSubscriber::describe);
+		}
+		
+		/**
+		 * Creates a subscriber that describes the received items using the specified function.
+		 *
+		 * @param  describer  Function that describes a received item.
+		 */
+		public CollectingSubscriber(Function<? super T, String> describer) {
+			this.describer = describer;
+		}
+		
+		@Override
+		public void onSubscribe(IKBusFlow.Subscription subscription) {
+			this.subscription = subscription;
+		}
+		
+		@Override
+		public void onNext(T item) {
+			received.add(describer.apply(item));
+		}
+		
+		@Override
+		public void onError(Throwable throwable) {
+			received.add("error: " + throwable.getClass().getSimpleName());
+		}
+		
+		@Override
+		public void onComplete() {
+			received.add("complete");
+		}
+		
+		private static String describe(Object item) {
+			if (item instanceof IKBusPacketStreamElement) {
+				IKBusPacketStreamElement element = (IKBusPacketStreamElement) item;
+				return element.isValidPacket() ? element.getPacket().toString() : "invalid";
+			}
+			return ((IKBusMessage) item).toPacket().toString();
+		}
+	
+	}
+
+}
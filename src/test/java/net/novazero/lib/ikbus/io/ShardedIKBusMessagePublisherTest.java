@@ -0,0 +1,136 @@
+package net.novazero.lib.ikbus.io;
+
+import static net.novazero.lib.ikbus.io.PublisherTestSupport.reader;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.novazero.lib.ikbus.IKBusMessage;
+import net.novazero.lib.ikbus.IKBusMessageParser;
+import net.novazero.lib.ikbus.IKBusPacket;
+import net.novazero.lib.ikbus.UnknownIKBusMessage;
+import net.novazero.lib.ikbus.io.PublisherTestSupport.CollectingSubscriber;
+
+import org.junit.Test;
+
+/**
+ * Tests for the ShardedIKBusMessagePublisher class.
+ */
+public class ShardedIKBusMessagePublisherTest {
+	
+	/**
+	 * Tests whether the messages from each source are published in order and whether every shard uses its own parser on a single thread.
+	 */
+	@Test(timeout=5000)
+	public void testOrderPerSource() throws Exception {
+		AtomicInteger parserCount = new AtomicInteger();
+		List<String> violations = new ArrayList<>();
+		ShardedIKBusMessagePublisher publisher = new ShardedIKBusMessagePublisher(reader(250, 10), () -> {
+			parserCount.incrementAndGet();
+			return new SingleThreadParser(violations);
+		}, 4, 2);
+		assertEquals(4, parserCount.get());
+		assertEquals(4, publisher.getShardCount());
+		assertEquals(0, publisher.getShardIndex((byte) 0x05));
+		assertEquals(2, publisher.getShardIndex((byte) 0xFF));
+		
+		CollectingSubscriber<IKBusMessage> subscriber = new CollectingSubscriber<>(message -> {
+			IKBusPacket packet = message.toPacket();
+			return (packet.getSource() & 0xFF) + ":" + (packet.getData().get(0) & 0xFF);
+		});
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		
+		Map<Integer, Integer> nextIndex = new HashMap<>();
+		for (int count = 0; count < 250; count++) {
+			String[] item = subscriber.received.take().split(":");
+			int source = Integer.parseInt(item[0]);
+			int index = Integer.parseInt(item[1]);
+			assertEquals(nextIndex.getOrDefault(source, source).intValue(), index);
+			nextIndex.put(source, index + 10);
+		}
+		assertEquals("complete", subscriber.received.take());
+		assertTrue(subscriber.received.isEmpty());
+		synchronized (violations) {
+			assertEquals(new ArrayList<String>(), violations);
+		}
+	}
+	
+	/**
+	 * Tests whether an error of a parser is reported to the subscriber and whether no messages are published after the error.
+	 */
+	@Test(timeout=5000)
+	public void testParserError() throws Exception {
+		ShardedIKBusMessagePublisher publisher = new ShardedIKBusMessagePublisher(reader(50, 5), () -> packet -> {
+			if (packet.getData().get(0) == 7) {
+				throw new IllegalStateException();
+			}
+			return new UnknownIKBusMessage(packet);
+		}, 1, 4);
+		
+		CollectingSubscriber<IKBusMessage> subscriber = new CollectingSubscriber<>(
+			message -> Integer.toString(message.toPacket().getData().get(0)));
+		publisher.subscribe(subscriber);
+		subscriber.subscription.request(Long.MAX_VALUE);
+		
+		// A single shard publishes the messages in order, so exactly the messages before the failing packet are published.
+		for (int index = 0; index < 7; index++) {
+			assertEquals(Integer.toString(index), subscriber.received.take());
+		}
+		assertEquals("error: IllegalStateException", subscriber.received.take());
+		Thread.sleep(50);
+		assertTrue(subscriber.received.isEmpty());
+	}
+	
+	/**
+	 * Tests whether the identifiers of real modules, which are mostly multiples of eight, are spread over the shards.
+	 */
+	@Test
+	public void testShardDistribution() {
+		int[] modules = { 0x00, 0x18, 0x50, 0x60, 0x68, 0x80, 0xC0, 0xC8, 0xD0, 0xF0 };
+		for (int shardCount : new int[] { 2, 3, 4, 8 }) {
+			ShardedIKBusMessagePublisher publisher = new ShardedIKBusMessagePublisher(reader(""), () -> packet -> null, shardCount, 1);
+			Set<Integer> usedShards = new HashSet<>();
+			for (int module : modules) {
+				int shardIndex = publisher.getShardIndex((byte) module);
+				assertTrue(shardIndex >= 0 && shardIndex < shardCount);
+				usedShards.add(shardIndex);
+			}
+			assertTrue("Modules use only " + usedShards.size() + " of " + shardCount + " shards",
+				usedShards.size() >= Math.min(shardCount, 6));
+		}
+	}
+	
+	// Private test support methods and classes.
+	
+	private static class SingleThreadParser implements IKBusMessageParser {
+		
+		private final List<String> violations;
+		
+		private Thread thread = null;
+		
+		public SingleThreadParser(List<String> violations) {
+			this.violations = violations;
+		}
+		
+		@Override
+		public IKBusMessage parseMessage(IKBusPacket packet) {
+			if (thread == null) {
+				thread = Thread.currentThread();
+			} else if (thread != Thread.currentThread()) {
+				synchronized (violations) {
+					violations.add("Parser invoked from multiple threads");
+				}
+			}
+			return new UnknownIKBusMessage(packet);
+		}
+	
+	}
+
+}
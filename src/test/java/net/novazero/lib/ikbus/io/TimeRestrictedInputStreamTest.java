@@ -2,6 +2,7 @@ package net.novazero.lib.ikbus.io;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
@@ -55,4 +56,109 @@ public class TimeRestrictedInputStreamTest {
 			assertEquals(TimeRestrictedInputStream.END_OF_STREAM, timedInputStream.read(0));
 		}
 	}
+	
+	@Test(timeout=2000)
+	public void testChunkedStream() throws IOException {
+		// Create an input stream that delivers its data in bursts of 6 bytes.
+		InputStream inputStream = new InputStream() {
+			
+			private ByteArrayInputStream burst = new ByteArrayInputStream(new byte[0]);
+			
+			private int numberOfBursts = 0;
+			
+			@Override
+			public int read() throws IOException {
+				if (burst.available() == 0) {
+					if (numberOfBursts == 3) {
+						return -1;
+					}
+					try {
+						Thread.sleep(100);
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					byte[] data = new byte[6];
+					for (int index = 0; index < data.length; index++) {
+						data[index] = (byte) (numberOfBursts * data.length + index);
+					}
+					burst = new ByteArrayInputStream(data);
+					numberOfBursts++;
+				}
+				return burst.read();
+			}
+			
+			@Override
+			public int available() throws IOException {
+				return burst.available();
+			}
+		};
+		
+		// Create a time restricted input stream that reads chunks of at most 4 bytes.
+		try (TimeRestrictedInputStream timedInputStream = new TimeRestrictedInputStream(inputStream, 0, 4)) {
+			// Check results from reading the input stream.
+			for (int burst = 0; burst < 3; burst++) {
+				assertEquals(TimeRestrictedInputStream.TIMEOUT, timedInputStream.read(25));
+				for (int index = 0; index < 6; index++) {
+					assertEquals(burst * 6 + index, timedInputStream.read(150));
+				}
+			}
+			assertEquals(TimeRestrictedInputStream.END_OF_STREAM, timedInputStream.read(0));
+		}
+	}
+	
+	@Test(timeout=2000)
+	public void testReaderThreadFactory() throws IOException {
+		for (ReaderThreadFactory threadFactory : new ReaderThreadFactory[] { ReaderThreadFactory.platform(), ReaderThreadFactory.virtual() }) {
+			InputStream inputStream = new ByteArrayInputStream(new byte[] { 1, 2, 3 });
+			try (TimeRestrictedInputStream timedInputStream = new TimeRestrictedInputStream(inputStream, 0, 2, threadFactory)) {
+				assertEquals(1, timedInputStream.read(100));
+				assertEquals(2, timedInputStream.read(100));
+				assertEquals(3, timedInputStream.read(100));
+				assertEquals(TimeRestrictedInputStream.END_OF_STREAM, timedInputStream.read(100));
+			}
+		}
+		assertTrue(ReaderThreadFactory.platform().newThread(null).isDaemon());
+		assertFalse(ReaderThreadFactory.platform().isVirtual());
+		assertTrue(ReaderThreadFactory.platform().newThread(null).getName().startsWith("ikbus-reader-"));
+		assertTrue(ReaderThreadFactory.platform().withNamePrefix("ikbus-flusher").newThread(null).getName().startsWith("ikbus-flusher-"));
+		assertTrue(ReaderThreadFactory.platform().withNamePrefix("ikbus-flusher").newThread(null).isDaemon());
+	}
+	
+	@Test(timeout=5000)
+	public void testWaitStrategies() throws IOException {
+		for (WaitStrategy waitStrategy : new WaitStrategy[] { WaitStrategy.blocking(), WaitStrategy.yielding(), WaitStrategy.busySpin() }) {
+			InputStream inputStream = new InputStream() {
+				
+				private int numberOfReads = 0;
+				
+				@Override
+				public int read() throws IOException {
+					if (numberOfReads == 100) {
+						return -1;
+					}
+					if (numberOfReads == 50) {
+						try {
+							Thread.sleep(100);
+						} catch (InterruptedException e) {
+							throw new RuntimeException(e);
+						}
+					}
+					return numberOfReads++;
+				}
+			};
+			
+			try (TimeRestrictedInputStream timedInputStream = new TimeRestrictedInputStream(inputStream, 0, 1,
+					ReaderThreadFactory.platform(), waitStrategy)) {
+				for (int index = 0; index < 50; index++) {
+					assertEquals(index, timedInputStream.read(50));
+				}
+				assertEquals(TimeRestrictedInputStream.TIMEOUT, timedInputStream.read(25));
+				for (int index = 50; index < 100; index++) {
+					assertEquals(index, timedInputStream.read(150));
+				}
+				assertEquals(TimeRestrictedInputStream.END_OF_STREAM, timedInputStream.read(0));
+				assertEquals(TimeRestrictedInputStream.END_OF_STREAM, timedInputStream.read(0));
+			}
+		}
+	}
 }
@@ -0,0 +1,81 @@
+package net.novazero.lib.ikbus.util;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Iterator;
+
+import org.junit.Test;
+
+/**
+ * Tests for the ByteBufferByteString class.
+ */
+public class ByteBufferByteStringTest {
+	
+	/**
+	 * Tests whether the bytes of a direct buffer are accessed correctly.
+	 */
+	@Test
+	public void testAccess() {
+		ByteString byteString = ByteBufferByteString.copyOf(bytes("11 22 33 44 55"));
+		assertTrue(((ByteBufferByteString) byteString).isDirect());
+		
+		assertEquals(5, byteString.length());
+		assertEquals((byte) 0x33, byteString.get(2));
+		assertArrayEquals(bytes("11 22 33 44 55"), byteString.toArray());
+		
+		byte[] destination = new byte[4];
+		byteString.copyTo(1, destination, 1, 3);
+		assertArrayEquals(bytes("00 22 33 44"), destination);
+		
+		Iterator<Byte> iterator = byteString.iterator();
+		assertEquals(Byte.valueOf((byte) 0x11), iterator.next());
+		assertEquals(Byte.valueOf((byte) 0x22), iterator.next());
+		
+		try {
+			byteString.get(5);
+			fail("Expecting an exception of class " + ArrayIndexOutOfBoundsException.class.getCanonicalName() + " but none was thrown.");
+		} catch (ArrayIndexOutOfBoundsException e) { }
+		
+		assertArrayEquals(bytes("22 33"), ByteBufferByteString.copyOf(new ByteArraySliceByteString(bytes("11 22 33"), 1, 2)).toArray());
+	}
+	
+	/**
+	 * Tests whether a view reflects changes to the underlying buffer, while a detached copy does not.
+	 */
+	@Test
+	public void testViewAndDetach() {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(8);
+		buffer.put(bytes("01 02 03 04 05 06 07 08"));
+		buffer.position(2);
+		buffer.limit(5);
+		
+		ByteString view = new ByteBufferByteString(buffer);
+		assertArrayEquals(bytes("03 04 05"), view.toArray());
+		assertEquals(2, buffer.position());
+		
+		ByteString detached = view.detach();
+		assertSame(detached, detached.detach());
+		buffer.put(2, (byte) 0xFF);
+		assertArrayEquals(bytes("FF 04 05"), view.toArray());
+		assertArrayEquals(bytes("03 04 05"), detached.toArray());
+		assertTrue(((ByteBufferByteString) detached).isDirect());
+	}
+	
+	/**
+	 * Tests whether the bytes are written correctly to a channel.
+	 */
+	@Test
+	public void testWriteTo() throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		ByteBufferByteString.copyOf(bytes("11 22 33")).writeTo(Channels.newChannel(output));
+		new ByteArraySliceByteString(bytes("44 55 66"), 1, 1).writeTo(Channels.newChannel(output));
+		new ByteArrayByteString(bytes("77")).writeTo(Channels.newChannel(output));
+		assertArrayEquals(bytes("11 22 33 55 77"), output.toByteArray());
+	}
+	
+}
@@ -0,0 +1,107 @@
+package net.novazero.lib.ikbus.util;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+/**
+ * Tests for the primitive operations of the ByteString implementations.
+ */
+public class ByteStringTest {
+	
+	/**
+	 * Creates byte strings with the same contents using each of the implementations.
+	 */
+	private static ByteString[] implementations(String data) {
+		byte[] bytes = bytes(data);
+		byte[] padded = new byte[bytes.length + 2];
+		System.arraycopy(bytes, 0, padded, 1, bytes.length);
+		return new ByteString[] {
+			new ByteArrayByteString(bytes),
+			new ByteArraySliceByteString(padded, 1, bytes.length),
+			ByteBufferByteString.copyOf(bytes),
+			new ByteString() {
+				@Override public int length() { return bytes.length; }
+				@Override public byte get(int index) { return bytes[index]; }
+				@Override public byte[] toArray() { return bytes.clone(); }
+				@Override public java.util.Iterator<Byte> iterator() { throw new UnsupportedOperationException(); }
+				@Override public void copyTo(int sourceIndex, byte[] destination, int destinationIndex, int length) {
+					System.arraycopy(bytes, sourceIndex, destination, destinationIndex, length);
+				}
+			}
+		};
+	}
+	
+	/**
+	 * Tests the search and comparison operations.
+	 */
+	@Test
+	public void testSearch() {
+		for (ByteString byteString : implementations("24 01 00 20 38 24")) {
+			assertEquals(0, byteString.indexOf((byte) 0x24));
+			assertEquals(5, byteString.indexOf((byte) 0x24, 1));
+			assertEquals(-1, byteString.indexOf((byte) 0xFF));
+			
+			assertTrue(byteString.startsWith((byte) 0x24, (byte) 0x01));
+			assertTrue(byteString.startsWith());
+			assertFalse(byteString.startsWith((byte) 0x01));
+			assertFalse(byteString.startsWith(bytes("24 01 00 20 38 24 00")));
+			
+			assertTrue(byteString.regionMatches(2, bytes("FF 00 20"), 1, 2));
+			assertFalse(byteString.regionMatches(5, bytes("24 00"), 0, 2));
+			assertFalse(byteString.regionMatches(-1, bytes("24"), 0, 1));
+		}
+	}
+	
+	/**
+	 * Tests the iteration and slicing operations.
+	 */
+	@Test
+	public void testForEachAndSlice() {
+		for (ByteString byteString : implementations("24 01 FF 20")) {
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			byteString.forEachByte(value -> {
+				assertTrue(value >= 0 && value <= 255);
+				output.write(value);
+			});
+			assertArrayEquals(bytes("24 01 FF 20"), output.toByteArray());
+			
+			ByteString slice = byteString.slice(1, 3);
+			assertArrayEquals(bytes("01 FF"), slice.toArray());
+			assertArrayEquals(bytes("FF"), slice.slice(1, 2).toArray());
+			assertEquals(0, byteString.slice(4, 4).length());
+			
+			try {
+				byteString.slice(2, 5);
+				fail("Expecting an exception of class " + IndexOutOfBoundsException.class.getCanonicalName() + " but none was thrown.");
+			} catch (IndexOutOfBoundsException e) { }
+		}
+	}
+	
+	/**
+	 * Tests whether byte strings with equal contents are equal and have the same hash code, regardless of their implementation.
+	 */
+	@Test
+	public void testEqualsAndHashCode() {
+		ByteString[] byteStrings = implementations("24 01 00 20");
+		for (int first = 0; first < byteStrings.length; first++) {
+			for (int second = 0; second < byteStrings.length; second++) {
+				assertTrue(byteStrings[first].contentEquals(byteStrings[second]));
+				assertEquals(byteStrings[first].contentHashCode(), byteStrings[second].contentHashCode());
+			}
+			if (first < 3) {
+				for (ByteString other : byteStrings) {
+					assertEquals(byteStrings[first], other);
+				}
+				assertEquals(byteStrings[0].hashCode(), byteStrings[first].hashCode());
+				assertNotEquals(byteStrings[first], new ByteArrayByteString(bytes("24 01 00")));
+				assertNotEquals(byteStrings[first], new ByteArrayByteString(bytes("24 01 00 21")));
+				assertNotEquals(byteStrings[first], "24 01 00 20");
+			}
+		}
+	}
+	
+}
@@ -0,0 +1,86 @@
+package net.novazero.lib.ikbus.util;
+
+import static net.novazero.lib.ikbus.IKBusUtils.bytes;
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Tests for the HexDumpReader class.
+ */
+public class HexDumpReaderTest {
+	
+	/**
+	 * Tests whether the lines of a hex dump are decoded correctly.
+	 */
+	@Test
+	public void testReadLines() throws IOException {
+		HexDumpReader reader = new HexDumpReader(new StringReader("50 03 C8 01 9A\r\n\n  3f 4 60\t0C 80 D7  \nBF 03 80 16 2A"));
+		
+		assertArrayEquals(bytes("50 03 C8 01 9A"), reader.readLine());
+		assertEquals(2, reader.getLineNumber());
+		assertArrayEquals(new byte[0], reader.readLine());
+		
+		ByteBuffer destination = ByteBuffer.allocate(16);
+		assertEquals(6, reader.readLine(destination));
+		assertEquals(5, reader.readLine(destination));
+		assertEquals(11, destination.position());
+		
+		assertNull(reader.readLine());
+		assertEquals(-1, reader.readLine(destination));
+		reader.close();
+	}
+	
+	/**
+	 * Tests whether lines that are longer than the internal buffers are decoded correctly.
+	 */
+	@Test
+	public void testLongLines() throws IOException {
+		StringBuilder dump = new StringBuilder();
+		for (int index = 0; index < 10000; index++) {
+			dump.append(index % 2 == 0 ? "A5 " : "5A ");
+		}
+		dump.append("\n01");
+		
+		HexDumpReader reader = new HexDumpReader(new StringReader(dump.toString()));
+		byte[] line = reader.readLine();
+		assertEquals(10000, line.length);
+		assertEquals((byte) 0x5A, line[9999]);
+		assertArrayEquals(bytes("01"), reader.readLine());
+		reader.close();
+	}
+	
+	/**
+	 * Tests whether invalid lines are reported, after which reading continues with the next line.
+	 */
+	@Test
+	public void testInvalidLines() throws IOException {
+		HexDumpReader reader = new HexDumpReader(new StringReader("50 03 C8 01 9A\n50 0X C8\n123\n3F 04 60 0C 80 D7"));
+		
+		try {
+			reader.readLine(ByteBuffer.allocate(4));
+			fail("Expecting an exception of class " + BufferOverflowException.class.getCanonicalName() + " but none was thrown.");
+		} catch (BufferOverflowException e) { }
+		
+		try {
+			reader.readLine();
+			fail("Expecting an exception of class " + NumberFormatException.class.getCanonicalName() + " but none was thrown.");
+		} catch (NumberFormatException e) {
+			assertTrue(e.getMessage().contains("line 2"));
+		}
+		
+		try {
+			reader.readLine();
+			fail("Expecting an exception of class " + NumberFormatException.class.getCanonicalName() + " but none was thrown.");
+		} catch (NumberFormatException e) { }
+		
+		assertArrayEquals(bytes("3F 04 60 0C 80 D7"), reader.readLine());
+		reader.close();
+	}
+
+}